@@ -15,7 +15,11 @@ import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.LatencyHistogram;
+import edu.berkeley.cs186.database.io.PartitionIOStats;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferPoolStats;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.memory.EvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
@@ -24,6 +28,7 @@ import edu.berkeley.cs186.database.query.SortOperator;
 import edu.berkeley.cs186.database.query.expr.Expression;
 import edu.berkeley.cs186.database.recovery.ARIESRecoveryManager;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import edu.berkeley.cs186.database.table.PageDirectory;
 import edu.berkeley.cs186.database.table.Record;
@@ -37,9 +42,12 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -83,6 +91,7 @@ public class Database implements AutoCloseable {
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    private static final String WARM_UP_FILE_NAME = "_warmup"; // pages loaded when last closed
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
@@ -106,6 +115,8 @@ public class Database implements AutoCloseable {
     private int workMem = 1024; // default of 4M
     // number of pages of memory available total
     private int numMemoryPages;
+    // whether new tables (including temporary tables) store their pages compressed
+    private boolean compressTables = false;
     // active transactions
     private Phaser activeTransactions = new Phaser(0);
     // Statistics about the contents of the database.
@@ -114,6 +125,63 @@ public class Database implements AutoCloseable {
     // Names of tables loaded for demo
     private ArrayList<String> demoTables = new ArrayList<>();
 
+    // background compaction thread, if running, and the signal used to stop it
+    private Thread compactionThread;
+    private CountDownLatch stopCompaction;
+
+    /**
+     * Storage options a database is opened with, beyond those taken by the constructors
+     * directly. Each defaults to the behavior of a database created without options.
+     */
+    public static class Options {
+        private boolean mappedIO = false;
+        private boolean offHeapBuffer = false;
+        private int logBufferPages = 0;
+        private boolean logSegmentFiles = false;
+
+        /**
+         * @param mappedIO whether to read and write pages through memory-mapped files rather
+         *                 than file channels
+         */
+        public Options setMappedIO(boolean mappedIO) {
+            this.mappedIO = mappedIO;
+            return this;
+        }
+
+        /**
+         * @param offHeapBuffer whether to keep the buffer cache in direct memory, off the heap
+         */
+        public Options setOffHeapBuffer(boolean offHeapBuffer) {
+            this.offHeapBuffer = offHeapBuffer;
+            return this;
+        }
+
+        /**
+         * @param logBufferPages number of pages of a log buffer that transactions append to
+         *                       concurrently, or 0 to append to the log through the buffer cache
+         *                       (only used with the recovery manager)
+         */
+        public Options setLogBufferPages(int logBufferPages) {
+            if (logBufferPages < 0) {
+                throw new IllegalArgumentException("logBufferPages must not be negative");
+            }
+            this.logBufferPages = logBufferPages;
+            return this;
+        }
+
+        /**
+         * @param logSegmentFiles whether to keep the log in segment files of its own in the
+         *                        database directory, bypassing the buffer cache, rather than in
+         *                        the log partition (only used with the recovery manager; uses a
+         *                        log buffer of the default size if logBufferPages is 0). Must be
+         *                        the same every time the database is opened.
+         */
+        public Options setLogSegmentFiles(boolean logSegmentFiles) {
+            this.logSegmentFiles = logSegmentFiles;
+            return this;
+        }
+    }
+
     /**
      * Creates a new database with:
      * - Default buffer size
@@ -167,7 +235,7 @@ public class Database implements AutoCloseable {
     }
 
     /**
-     * Creates a new database.
+     * Creates a new database with default options.
      *
      * @param fileDir the directory to put the table files in
      * @param numMemoryPages the number of pages of memory in the buffer cache
@@ -177,6 +245,21 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, new Options());
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param options storage options
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, Options options) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
@@ -184,16 +267,20 @@ public class Database implements AutoCloseable {
         this.lockManager = lockManager;
 
         if (useRecoveryManager) {
-            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
+            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction, options.logBufferPages,
+                                                       options.logSegmentFiles ? fileDir : null);
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
-        bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
-                                              policy);
+        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager, options.mappedIO);
+        bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages, 1,
+                                          () -> policy, options.offHeapBuffer);
+        // read before restart recovery checkpoints, which rewrite the file
+        bufferManager.setWarmUpFile(Paths.get(fileDir, WARM_UP_FILE_NAME));
+        List<Long> warmUpPages = bufferManager.readWarmUpFile();
 
-        // create log partition
+        // create log partition (left empty if the log is kept in segment files)
         if (!initialized) diskSpaceManager.allocPart(0);
 
         // Performs recovery
@@ -215,6 +302,10 @@ public class Database implements AutoCloseable {
             this.loadMetadataTables();
         }
         initTransaction.commit();
+
+        if (!warmUpPages.isEmpty()) {
+            bufferManager.warmUp(warmUpPages);
+        }
     }
 
     private boolean setupDirectory(String fileDir) {
@@ -288,21 +379,28 @@ public class Database implements AutoCloseable {
      * Close this database.
      */
     @Override
-    public synchronized void close() {
-        // wait for all transactions to terminate
-        this.waitAllTransactions();
+    public void close() {
+        // stopped outside of the lock, since the compaction thread may be waiting on it to
+        // begin its next transaction
+        this.stopCompaction();
+        synchronized (this) {
+            // wait for all transactions to terminate
+            this.waitAllTransactions();
 
-        dropDemoTables();
+            dropDemoTables();
 
-        this.bufferManager.evictAll();
+            // before the buffer pool is emptied
+            this.bufferManager.writeWarmUpFile();
+            this.bufferManager.evictAll();
 
-        this.recoveryManager.close();
+            this.recoveryManager.close();
 
-        this.tableMetadata = null;
-        this.indexMetadata = null;
+            this.tableMetadata = null;
+            this.indexMetadata = null;
 
-        this.bufferManager.close();
-        this.diskSpaceManager.close();
+            this.bufferManager.close();
+            this.diskSpaceManager.close();
+        }
     }
 
     public LockManager getLockManager() {
@@ -327,6 +425,173 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * Resizes the buffer pool while the database is running (see BufferManager#setBufferSize),
+     * so that memory can be moved between the buffer pool and work memory. Work memory remains
+     * capped at the new size.
+     *
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     */
+    public void setBufferSize(int numMemoryPages) {
+        bufferManager.setBufferSize(numMemoryPages);
+        this.numMemoryPages = numMemoryPages;
+    }
+
+    /**
+     * Sets how long a committing transaction waits for other transactions to commit along with
+     * it, so that their commit records are flushed by a single log write. Commits are only
+     * delayed while other transactions are waiting to commit, so a small delay (a few hundred
+     * microseconds) raises commit throughput under load without slowing down lone commits.
+     *
+     * @param delayMicros delay in microseconds, or 0 (the default) to never delay commits
+     */
+    public void setGroupCommitDelay(long delayMicros) {
+        recoveryManager.setGroupCommitDelay(delayMicros);
+    }
+
+    /**
+     * Sets whether tables created from now on (including temporary tables) store their pages
+     * compressed on disk. Existing tables, indices, and the log are unaffected.
+     *
+     * @param compressTables whether to compress new tables
+     */
+    public void setCompressTables(boolean compressTables) {
+        this.compressTables = compressTables;
+    }
+
+    /**
+     * Compacts a table, in a transaction of its own: moves up to maxPages of the table's data
+     * pages into free pages earlier in its partition (see Table#compact), updates the table's
+     * indices to point at the records' new record ids, and once the transaction has committed,
+     * releases the free space at the end of the table's and its indices' partitions. The table
+     * is locked exclusively until the transaction commits.
+     *
+     * B+ tree nodes are never moved, so index partitions only shrink by the free space after
+     * their last node.
+     *
+     * @param tableName name of the table to compact
+     * @param maxPages maximum number of data pages to move
+     * @return number of data pages moved
+     */
+    public int compactTable(String tableName, int maxPages) {
+        if (maxPages < 0) {
+            throw new IllegalArgumentException("cannot move a negative number of pages");
+        }
+        List<Integer> partitions = new ArrayList<>();
+        Set<Long> movedPages = new HashSet<>();
+        Transaction t = beginTransaction();
+        try {
+            LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.X);
+            Table table = t.getTransactionContext().getTable(tableName);
+            // so that pages are moved into the lowest free pages rather than reserved ones
+            diskSpaceManager.shrinkPart(table.getPartNum());
+            Map<RecordId, RecordId> moved = table.compact(maxPages);
+            partitions.add(table.getPartNum());
+
+            List<String> colNames = table.getSchema().getFieldNames();
+            for (Pair<RecordId, BPlusTreeMetadata> p : getTableIndicesMetadata(table.getName())) {
+                BPlusTree tree = indexFromMetadata(p.getSecond());
+                int column = colNames.indexOf(tree.getMetadata().getColName());
+                for (Map.Entry<RecordId, RecordId> entry : moved.entrySet()) {
+                    DataBox key = table.getRecord(entry.getValue()).getValue(column);
+                    tree.remove(key);
+                    tree.put(key, entry.getValue());
+                }
+                partitions.add(tree.getPartNum());
+            }
+            for (RecordId rid : moved.values()) {
+                movedPages.add(rid.getPageNum());
+            }
+        } catch (RuntimeException e) {
+            t.rollback();
+            throw e;
+        }
+        t.commit();
+
+        for (int partNum : partitions) {
+            diskSpaceManager.shrinkPart(partNum);
+        }
+        return movedPages.size();
+    }
+
+    /**
+     * Starts compacting tables in the background. The compaction thread repeatedly goes through
+     * the tables in the catalog, compacting each one pagesPerBatch pages at a time (each batch
+     * in its own transaction), and pausing between batches so as to leave room for other
+     * transactions. Once a pass over the catalog finds nothing to move, it waits for
+     * idleMillis before starting over.
+     *
+     * @param pagesPerBatch maximum number of pages to move in each transaction
+     * @param pauseMillis pause between batches, in milliseconds
+     * @param idleMillis pause between passes that moved nothing, in milliseconds
+     */
+    public synchronized void startCompaction(int pagesPerBatch, long pauseMillis, long idleMillis) {
+        if (pagesPerBatch <= 0) {
+            throw new IllegalArgumentException("pagesPerBatch must be positive");
+        }
+        if (this.compactionThread != null) {
+            throw new IllegalStateException("compaction is already running");
+        }
+        CountDownLatch stop = new CountDownLatch(1);
+        this.stopCompaction = stop;
+        this.compactionThread = new Thread(() -> {
+            try {
+                while (stop.getCount() > 0) {
+                    boolean movedAny = false;
+                    for (Record record : scanTableMetadataRecords()) {
+                        String tableName = record.getValue(0).getString();
+                        try {
+                            while (stop.getCount() > 0 && compactTable(tableName, pagesPerBatch) > 0) {
+                                movedAny = true;
+                                stop.await(pauseMillis, TimeUnit.MILLISECONDS);
+                            }
+                        } catch (DatabaseException e) {
+                            // the table was dropped since the catalog was scanned
+                        } catch (RuntimeException e) {
+                            // leave the table be until the next pass, and go on with the others
+                            e.printStackTrace();
+                        }
+                    }
+                    if (!movedAny) {
+                        stop.await(idleMillis, TimeUnit.MILLISECONDS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stop compacting
+            } finally {
+                // so that compaction can be started again if this thread died
+                synchronized (this) {
+                    if (this.compactionThread == Thread.currentThread()) {
+                        this.compactionThread = null;
+                    }
+                }
+            }
+        }, "table-compaction");
+        this.compactionThread.setDaemon(true);
+        this.compactionThread.start();
+    }
+
+    /**
+     * Stops background compaction, waiting for the batch in progress (if any) to finish. Does
+     * nothing if compaction is not running.
+     */
+    public void stopCompaction() {
+        Thread thread;
+        synchronized (this) {
+            thread = this.compactionThread;
+            if (thread == null) {
+                return;
+            }
+            this.stopCompaction.countDown();
+            this.compactionThread = null;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -485,6 +750,157 @@ public class Database implements AutoCloseable {
         return result;
     }
 
+    /**
+     * @return map from partition number to the name of the table or index stored in it, for
+     * the log, the metadata tables, and every table and index in the catalog. Partitions of
+     * temporary tables are not in the catalog, and so have no names.
+     */
+    public Map<Integer, String> getPartitionNames() {
+        Map<Integer, String> names = new HashMap<>();
+        names.put(LogManager.LOG_PARTITION, "_log");
+        names.put(tableMetadata.getPartNum(), TABLE_INFO_TABLE_NAME);
+        names.put(indexMetadata.getPartNum(), INDEX_INFO_TABLE_NAME);
+        for (Record record : scanTableMetadataRecords()) {
+            names.put(record.getValue(1).getInt(), record.getValue(0).getString());
+        }
+        for (Record record : scanIndexMetadataRecords()) {
+            names.put(record.getValue(3).getInt(),
+                      record.getValue(0).getString() + "." + record.getValue(1).getString());
+        }
+        return names;
+    }
+
+    /**
+     * @return Schema for I/O statistics with fields:
+     *    | field name    | field type
+     * ---+---------------+------------
+     *  0 | part_num      | int
+     *  1 | name          | string(65)
+     *  2 | reads         | long
+     *  3 | writes        | long
+     *  4 | bytes_read    | long
+     *  5 | bytes_written | long
+     *  6 | allocs        | long
+     *  7 | frees         | long
+     *  8 | read_p50_us   | float
+     *  9 | read_p99_us   | float
+     * 10 | write_p50_us  | float
+     * 11 | write_p99_us  | float
+     *
+     * Latency percentiles are estimates, rounded up to the next power of two nanoseconds.
+     */
+    public Schema getIOStatsSchema() {
+        return new Schema()
+                .add("part_num", Type.intType())
+                .add("name", Type.stringType(65))
+                .add("reads", Type.longType())
+                .add("writes", Type.longType())
+                .add("bytes_read", Type.longType())
+                .add("bytes_written", Type.longType())
+                .add("allocs", Type.longType())
+                .add("frees", Type.longType())
+                .add("read_p50_us", Type.floatType())
+                .add("read_p99_us", Type.floatType())
+                .add("write_p50_us", Type.floatType())
+                .add("write_p99_us", Type.floatType());
+    }
+
+    /**
+     * @return one record (following getIOStatsSchema) of I/O statistics for each partition,
+     * ordered by partition number, with partitions named as in getPartitionNames
+     */
+    public List<Record> getIOStatsRecords() {
+        Map<Integer, String> names = getPartitionNames();
+        Map<Integer, PartitionIOStats> ioStats = new TreeMap<>(diskSpaceManager.getIOStats());
+        List<Record> result = new ArrayList<>();
+        for (Map.Entry<Integer, PartitionIOStats> entry : ioStats.entrySet()) {
+            PartitionIOStats s = entry.getValue();
+            LatencyHistogram reads = s.getReadLatency();
+            LatencyHistogram writes = s.getWriteLatency();
+            result.add(new Record(
+                    entry.getKey(), names.getOrDefault(entry.getKey(), ""),
+                    s.getReads(), s.getWrites(), s.getBytesRead(), s.getBytesWritten(),
+                    s.getAllocs(), s.getFrees(),
+                    reads.getPercentileNanos(50) / 1000f, reads.getPercentileNanos(99) / 1000f,
+                    writes.getPercentileNanos(50) / 1000f, writes.getPercentileNanos(99) / 1000f
+            ));
+        }
+        return result;
+    }
+
+    /**
+     * @return Schema for buffer pool statistics with fields:
+     *    | field name      | field type
+     * ---+-----------------+------------
+     *  0 | part_num        | int
+     *  1 | name            | string(65)
+     *  2 | resident        | int
+     *  3 | dirty           | int
+     *  4 | hits            | long
+     *  5 | misses          | long
+     *  6 | hit_ratio       | float
+     *  7 | evictions       | long
+     *  8 | dirty_evictions | long
+     *  9 | pin_waits       | long
+     * 10 | prefetched      | long
+     *
+     * Evictions count both clean and dirty evictions.
+     */
+    public Schema getBufferStatsSchema() {
+        return new Schema()
+                .add("part_num", Type.intType())
+                .add("name", Type.stringType(65))
+                .add("resident", Type.intType())
+                .add("dirty", Type.intType())
+                .add("hits", Type.longType())
+                .add("misses", Type.longType())
+                .add("hit_ratio", Type.floatType())
+                .add("evictions", Type.longType())
+                .add("dirty_evictions", Type.longType())
+                .add("pin_waits", Type.longType())
+                .add("prefetched", Type.longType());
+    }
+
+    /**
+     * @return one record (following getBufferStatsSchema) of buffer pool statistics for each
+     * partition that has pages loaded or has been used since the database was started, ordered
+     * by partition number, with partitions named as in getPartitionNames. Resident and dirty page
+     * counts are sampled without stopping the buffer pool, so they are only approximate while
+     * pages are being loaded.
+     */
+    public List<Record> getBufferStatsRecords() {
+        Map<Integer, String> names = getPartitionNames();
+        Map<Integer, int[]> residency = new TreeMap<>();
+        bufferManager.samplePageNums((pageNum, dirty) -> {
+            int[] counts = residency.computeIfAbsent(DiskSpaceManager.getPartNum(pageNum), p -> new int[2]);
+            ++counts[0];
+            if (dirty) {
+                ++counts[1];
+            }
+        });
+        Map<Integer, BufferPoolStats> bufferStats = new TreeMap<>(bufferManager.getPartitionStats());
+        Set<Integer> partNums = new TreeSet<>(residency.keySet());
+        partNums.addAll(bufferStats.keySet());
+        List<Record> result = new ArrayList<>();
+        for (int partNum : partNums) {
+            int[] counts = residency.getOrDefault(partNum, new int[2]);
+            BufferPoolStats s = bufferStats.get(partNum);
+            if (s == null) {
+                // pages and counters are sampled separately, so a partition may have one only
+                result.add(new Record(partNum, names.getOrDefault(partNum, ""), counts[0], counts[1],
+                        0L, 0L, 0f, 0L, 0L, 0L, 0L));
+                continue;
+            }
+            result.add(new Record(
+                    partNum, names.getOrDefault(partNum, ""), counts[0], counts[1],
+                    s.getHits(), s.getMisses(), (float) s.getHitRatio(),
+                    s.getCleanEvictions() + s.getDirtyEvictions(), s.getDirtyEvictions(),
+                    s.getPinWaits(), s.getPrefetchedPages()
+            ));
+        }
+        return result;
+    }
+
     /**
      * @param tableName
      * @param columnName
@@ -611,6 +1027,8 @@ public class Database implements AutoCloseable {
         Map<String, Table> tempTables;
         long tempTableCounter;
         boolean recoveryTransaction;
+        // ring shared by the temp tables of the transaction, or null if they are loaded as usual
+        BufferAccessStrategy tempTableStrategy;
 
         private TransactionContextImpl(long tNum, boolean recoveryTransaction) {
             this.transNum = tNum;
@@ -630,16 +1048,29 @@ public class Database implements AutoCloseable {
             return Database.this.getWorkMem();
         }
 
+        @Override
+        public int getBufferSize() {
+            return bufferManager.getBufferSize();
+        }
+
         @Override
         public String createTempTable(Schema schema) {
             String tempTableName = "tempTable" + tempTableCounter++;
             String tableName = prefixTempTableName(tempTableName);
 
-            int partNum = diskSpaceManager.allocPart();
+            int partNum = diskSpaceManager.allocPart(compressTables);
             long pageNum = diskSpaceManager.allocPage(partNum);
             // We can use dummy contexts since this table will only be visible from the current transaction
             PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum, pageNum, (short) 0, new DummyLockContext("_dummyPageDir"));
-            tempTables.put(tempTableName, new Table(tableName, schema, pageDirectory, new DummyLockContext("_dummyTempTable" + tempTableName), stats));
+            Table tempTable = new Table(tableName, schema, pageDirectory, new DummyLockContext("_dummyTempTable" + tempTableName), stats);
+            // temp tables (runs and partitions spilled by sorts and joins) are written once and read
+            // once, so they share a ring as long as it takes up at most a quarter of the buffer pool
+            int ringSize = Math.max(32, getWorkMemSize());
+            if (tempTableStrategy == null && ringSize <= getBufferSize() / 4) {
+                tempTableStrategy = BufferAccessStrategy.ring(ringSize);
+            }
+            tempTable.setAccessStrategy(tempTableStrategy);
+            tempTables.put(tempTableName, tempTable);
             return tempTableName;
         }
 
@@ -738,6 +1169,11 @@ public class Database implements AutoCloseable {
             return getTable(tableName).iterator();
         }
 
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, BufferAccessStrategy strategy) {
+            return getTable(tableName).iterator(strategy);
+        }
+
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             tableName = aliases.getOrDefault(tableName, tableName);
@@ -1072,7 +1508,7 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("table `" + tableName + "` already exists");
             }
             TableMetadata metadata = new TableMetadata(tableName);
-            metadata.partNum = diskSpaceManager.allocPart();
+            metadata.partNum = diskSpaceManager.allocPart(compressTables);
             metadata.pageNum = diskSpaceManager.allocPage(metadata.partNum);
             metadata.schema = s;
             synchronized (tableMetadata) {
@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -88,6 +89,11 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getWorkMemSize();
 
+    /**
+     * @return the size of the buffer pool (in pages) shared by all transactions
+     */
+    public abstract int getBufferSize();
+
     @Override
     public abstract void close();
 
@@ -156,6 +162,12 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract BacktrackingIterator<Record> getRecordIterator(String tableName);
 
+    /**
+     * Returns a backtracking iterator over all of the records in `tableName`,
+     * loading the table's pages into the buffer pool with `strategy`.
+     */
+    public abstract BacktrackingIterator<Record> getRecordIterator(String tableName, BufferAccessStrategy strategy);
+
     public abstract boolean contains(String tableName, String columnName, DataBox key);
 
     // Record Operations ///////////////////////////////////////////////////////
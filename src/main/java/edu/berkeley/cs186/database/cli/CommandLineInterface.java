@@ -10,6 +10,8 @@ import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.parser.TokenMgrError;
 import edu.berkeley.cs186.database.cli.visitor.StatementListVisitor;
 import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferPoolStats;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -189,6 +191,25 @@ public class CommandLineInterface {
             List<Record> records = db.scanIndexMetadataRecords();
             new PrettyPrinter(out).printRecords(db.getIndexInfoSchema().getFieldNames(),
                     records.iterator());
+        } else if (cmd.equals("iostats")) {
+            List<Record> records = db.getIOStatsRecords();
+            new PrettyPrinter(out).printRecords(db.getIOStatsSchema().getFieldNames(),
+                    records.iterator());
+        } else if (cmd.equals("bufstats")) {
+            List<Record> records = db.getBufferStatsRecords();
+            new PrettyPrinter(out).printRecords(db.getBufferStatsSchema().getFieldNames(),
+                    records.iterator());
+            BufferManager bm = db.getBufferManager();
+            BufferPoolStats stats = bm.getStats();
+            this.out.printf("%d pages, %d dirty; %d hits, %d misses (hit ratio %.3f), %d evictions " +
+                    "(%d dirty), %d pin waits\n", bm.getBufferSize(), bm.getNumDirtyPages(),
+                    stats.getHits(), stats.getMisses(), stats.getHitRatio(),
+                    stats.getCleanEvictions() + stats.getDirtyEvictions(), stats.getDirtyEvictions(),
+                    stats.getPinWaits());
+            this.out.printf("page cleaner: %d writes, %d backlog, %d foreground writes avoided; " +
+                    "read-ahead: up to %d pages, %d pages prefetched\n", bm.getCleanerWrites(),
+                    bm.getCleanerBacklog(), bm.getForegroundWritesAvoided(), bm.getMaxReadAhead(),
+                    stats.getPrefetchedPages());
         } else if (cmd.equals("locks")) {
             if (tc == null) {
                 this.out.println("No locks held, because not currently in a transaction.");
@@ -410,9 +410,12 @@ public class LockContext {
      * `readable`
      */
     public synchronized LockContext childContext(String name) {
+        // looked up first, as contexts of pages are requested on every page fetch
+        LockContext child = this.children.get(name);
+        if (child != null) return child;
         LockContext temp = new LockContext(lockman, this, name,
                 this.childLocksDisabled || this.readonly);
-        LockContext child = this.children.putIfAbsent(name, temp);
+        child = this.children.putIfAbsent(name, temp);
         if (child == null) child = temp;
         return child;
     }
@@ -1,6 +1,5 @@
 package edu.berkeley.cs186.database.index;
 
-import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -255,20 +254,32 @@ abstract class        BPlusNode {
      */
     public static BPlusNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager,
                                       LockContext treeContext, long pageNum) {
+        // inner nodes are read without pinning their pages if they are loaded and not being
+        // written to, since every lookup goes through them
+        Page loaded = bufferManager.getLoadedPage(treeContext, pageNum);
+        if (loaded != null) {
+            byte[] bytes = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            if (loaded.tryReadBytes(0, bytes.length, bytes) && bytes[0] == 0) {
+                return InnerNode.fromBytes(metadata, bufferManager, treeContext, loaded, bytes);
+            }
+        }
+
+        // the page is unpinned before loading the node, which pins it again: a thread holding
+        // a pin while fetching a page can deadlock with one fetching the pinned page
         Page p = bufferManager.fetchPage(treeContext, pageNum);
+        byte b;
         try {
-            Buffer buf = p.getBuffer();
-            byte b = buf.get();
-            if (b == 1) {
-                return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else if (b == 0) {
-                return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else {
-                String msg = String.format("Unexpected byte %b.", b);
-                throw new IllegalArgumentException(msg);
-            }
+            b = p.getBuffer().get();
         } finally {
             p.unpin();
         }
+        if (b == 1) {
+            return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
+        } else if (b == 0) {
+            return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
+        } else {
+            String msg = String.format("Unexpected byte %b.", b);
+            throw new IllegalArgumentException(msg);
+        }
     }
 }
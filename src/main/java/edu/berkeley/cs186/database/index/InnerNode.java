@@ -76,6 +76,23 @@ class InnerNode extends BPlusNode {
         }
     }
 
+    /**
+     * Construct an inner node that was just read from page `page`, which is
+     * not pinned (so there is nothing to sync or unpin).
+     */
+    private InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, LockContext treeContext,
+                      Page page, List<DataBox> keys, List<Long> children) {
+        assert (keys.size() <= 2 * metadata.getOrder());
+        assert (keys.size() + 1 == children.size());
+
+        this.metadata = metadata;
+        this.bufferManager = bufferManager;
+        this.treeContext = treeContext;
+        this.page = page;
+        this.keys = keys;
+        this.children = children;
+    }
+
     // Core API ////////////////////////////////////////////////////////////////
     // See BPlusNode.get.
     @Override
@@ -414,6 +431,30 @@ class InnerNode extends BPlusNode {
 
         List<DataBox> keys = new ArrayList<>();
         List<Long> children = new ArrayList<>();
+        readEntries(metadata, buf, keys, children);
+        return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
+    }
+
+    /**
+     * Loads an inner node from the contents of page `page`, as read without
+     * pinning it (see Page#tryReadBytes). The page is left unpinned.
+     */
+    static InnerNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager,
+                               LockContext treeContext, Page page, byte[] bytes) {
+        Buffer buf = edu.berkeley.cs186.database.common.ByteBuffer.wrap(bytes);
+
+        byte nodeType = buf.get();
+        assert(nodeType == (byte) 0);
+
+        List<DataBox> keys = new ArrayList<>();
+        List<Long> children = new ArrayList<>();
+        readEntries(metadata, buf, keys, children);
+        return new InnerNode(metadata, bufferManager, treeContext, page, keys, children);
+    }
+
+    // reads the keys and children of a serialized inner node, after the node type
+    private static void readEntries(BPlusTreeMetadata metadata, Buffer buf, List<DataBox> keys,
+                                    List<Long> children) {
         int n = buf.getInt();
         for (int i = 0; i < n; ++i) {
             keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
@@ -421,7 +462,6 @@ class InnerNode extends BPlusNode {
         for (int i = 0; i < n + 1; ++i) {
             children.add(buf.getLong());
         }
-        return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
     }
 
     // Builtins ////////////////////////////////////////////////////////////////
@@ -0,0 +1,352 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A disk space manager that reads and writes data pages asynchronously, through one
+ * AsynchronousFileChannel per partition. Partitions use the same on-disk format as
+ * DiskSpaceManagerImpl, which this class delegates to for everything other than data
+ * page I/O (allocation and freeing, and the master and header pages) - those operations
+ * remain synchronous.
+ *
+ * Each partition bounds the number of reads and writes that may be outstanding on it at
+ * once; issuing an I/O beyond that blocks the calling thread until an earlier one completes.
+ * Freeing a page or a partition, and closing the manager, wait for all outstanding I/O on
+ * the affected partitions first.
+ *
+ * Compressed partitions are read and written synchronously, through the delegate.
+ *
+ * The synchronous readPage and writePage block until the corresponding asynchronous I/O
+ * completes. Concurrent asynchronous writes to the same page may complete in either order,
+ * so callers must wait for one write to a page to complete before issuing the next.
+ */
+public class AsyncDiskSpaceManager implements DiskSpaceManager {
+    // Default maximum number of outstanding I/Os per partition.
+    static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+    // Name of base directory.
+    private String dbDir;
+
+    // Disk space manager used for allocation and for master/header pages.
+    private DiskSpaceManagerImpl metadataManager;
+
+    // Recovery manager
+    private RecoveryManager recoveryManager;
+
+    // Maximum number of outstanding I/Os per partition.
+    private int maxInFlight;
+
+    // Asynchronous channel for each partition, opened on its first data page I/O.
+    private Map<Integer, AsyncPartition> partitions;
+
+    /**
+     * Asynchronous channel to a partition's OS file, and the permits bounding its outstanding I/O.
+     */
+    private static class AsyncPartition {
+        private AsynchronousFileChannel channel;
+        private Semaphore inFlight;
+        // set once the partition has been freed or closed, after which no I/O may be issued
+        private volatile boolean closed;
+
+        private AsyncPartition(AsynchronousFileChannel channel, int maxInFlight) {
+            this.channel = channel;
+            this.inFlight = new Semaphore(maxInFlight);
+            this.closed = false;
+        }
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public AsyncDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param maxInFlight maximum number of outstanding I/Os per partition
+     */
+    public AsyncDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        this.dbDir = dbDir;
+        this.metadataManager = new DiskSpaceManagerImpl(dbDir, recoveryManager);
+        this.recoveryManager = recoveryManager;
+        this.maxInFlight = maxInFlight;
+        this.partitions = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void close() {
+        for (Integer partNum : new ArrayList<>(this.partitions.keySet())) {
+            this.closePartition(partNum);
+        }
+        this.metadataManager.close();
+    }
+
+    @Override
+    public int allocPart() {
+        return this.metadataManager.allocPart();
+    }
+
+    @Override
+    public int allocPart(int partNum) {
+        return this.metadataManager.allocPart(partNum);
+    }
+
+    @Override
+    public int allocPart(boolean compressed) {
+        return this.metadataManager.allocPart(compressed);
+    }
+
+    @Override
+    public void freePart(int partNum) {
+        this.closePartition(partNum);
+        this.metadataManager.freePart(partNum);
+    }
+
+    @Override
+    public void shrinkPart(int partNum) {
+        // only space past the last allocated page is released, which no I/O may touch
+        this.metadataManager.shrinkPart(partNum);
+    }
+
+    @Override
+    public long allocPage(int partNum) {
+        return this.metadataManager.allocPage(partNum);
+    }
+
+    @Override
+    public long allocPage(long page) {
+        return this.metadataManager.allocPage(page);
+    }
+
+    @Override
+    public void freePage(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        AsyncPartition ap = this.partitions.get(partNum);
+        if (ap == null) {
+            this.metadataManager.freePage(page);
+            return;
+        }
+        // freeing reads the page (to log its contents), so no writes may be outstanding
+        ap.inFlight.acquireUninterruptibly(this.maxInFlight);
+        try {
+            this.metadataManager.freePage(page);
+        } finally {
+            ap.inFlight.release(this.maxInFlight);
+        }
+    }
+
+    @Override
+    public void readPage(long page, byte[] buf) {
+        DiskSpaceManager.awaitIO(this.readPageAsync(page, buf));
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        if (bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects a buffer for each page");
+        }
+        List<CompletableFuture<Void>> reads = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            reads.add(this.readPageAsync(firstPage + i, bufs[i]));
+        }
+        for (CompletableFuture<Void> read : reads) {
+            DiskSpaceManager.awaitIO(read);
+        }
+    }
+
+    @Override
+    public void writePage(long page, byte[] buf) {
+        DiskSpaceManager.awaitIO(this.writePageAsync(page, buf));
+    }
+
+    @Override
+    public CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
+        if (this.metadataManager.isCompressedPart(DiskSpaceManager.getPartNum(page))) {
+            return this.metadataManager.readPageAsync(page, buf);
+        }
+        return this.submit(page, buf, false);
+    }
+
+    @Override
+    public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        if (buf.length != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        if (this.metadataManager.isCompressedPart(DiskSpaceManager.getPartNum(page))) {
+            return this.metadataManager.writePageAsync(page, buf);
+        }
+        return this.submit(page, buf, true);
+    }
+
+    @Override
+    public boolean supportsAsyncIO() {
+        return true;
+    }
+
+    @Override
+    public Map<Integer, PartitionIOStats> getIOStats() {
+        return this.metadataManager.getIOStats();
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        return this.metadataManager.pageAllocated(page);
+    }
+
+    /**
+     * Issues a read or write of a data page, blocking only if the partition already has the
+     * maximum number of outstanding I/Os.
+     * @param page virtual page number
+     * @param buf page-sized buffer to read into or write from
+     * @param write whether to write the page (rather than read it)
+     * @return future that completes once the I/O has completed and its permit has been released
+     */
+    private CompletableFuture<Void> submit(long page, byte[] buf, boolean write) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        PartitionIOStats stats = this.metadataManager.getIOStats(partNum);
+        AsyncPartition ap = this.acquirePartition(partNum);
+        long start = System.nanoTime();
+        CompletableFuture<Void> io = new CompletableFuture<>();
+        try {
+            // checked while holding a permit, so the page cannot be freed before the I/O completes
+            if (!this.metadataManager.pageAllocated(page)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+            long offset = PartitionHandle.dataPageOffset(pageNum);
+            transfer(ap.channel, ByteBuffer.wrap(buf), offset, write, io);
+        } catch (RuntimeException e) {
+            io.completeExceptionally(e);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        io.whenComplete((result, exc) -> {
+            Throwable failure = exc;
+            if (failure == null && write) {
+                try {
+                    ap.channel.force(false);
+                    this.recoveryManager.diskIOHook(page);
+                } catch (IOException e) {
+                    failure = new PageException("could not write partition " + partNum + ": " + e.getMessage());
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            ap.inFlight.release();
+            if (failure == null) {
+                // latency includes time spent queued behind other I/O on the partition
+                if (write) {
+                    stats.recordWrite(System.nanoTime() - start);
+                } else {
+                    stats.recordRead(1, System.nanoTime() - start);
+                }
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        });
+        return done;
+    }
+
+    /**
+     * Reads or writes all of b at position, reissuing the I/O after short transfers. A read that
+     * reaches the end of the file (a page that was allocated but never written) leaves the rest
+     * of b unchanged.
+     */
+    private static void transfer(AsynchronousFileChannel channel, ByteBuffer b, long position,
+                                 boolean write, CompletableFuture<Void> io) {
+        CompletionHandler<Integer, Void> handler = new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer transferred, Void attachment) {
+                if (transferred < 0 || !b.hasRemaining()) {
+                    io.complete(null);
+                } else {
+                    transfer(channel, b, position + transferred, write, io);
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                io.completeExceptionally(new PageException("I/O failed: " + exc.getMessage()));
+            }
+        };
+        if (write) {
+            channel.write(b, position, null, handler);
+        } else {
+            channel.read(b, position, null, handler);
+        }
+    }
+
+    /**
+     * Takes one of a partition's I/O permits, opening its channel if this is its first I/O.
+     * @param partNum partition number
+     * @return the partition, with a permit held
+     */
+    private AsyncPartition acquirePartition(int partNum) {
+        // throws if there is no such partition
+        this.metadataManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, 0));
+        AsyncPartition ap = this.partitions.computeIfAbsent(partNum, p -> {
+            try {
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(
+                        Paths.get(this.dbDir, Integer.toString(p)),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                return new AsyncPartition(channel, this.maxInFlight);
+            } catch (IOException e) {
+                throw new PageException("could not open partition " + p + ": " + e.getMessage());
+            }
+        });
+        ap.inFlight.acquireUninterruptibly();
+        if (ap.closed) {
+            ap.inFlight.release();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return ap;
+    }
+
+    /**
+     * Waits for all outstanding I/O on a partition to complete, and closes its channel.
+     * @param partNum partition number
+     */
+    private void closePartition(int partNum) {
+        AsyncPartition ap = this.partitions.remove(partNum);
+        if (ap == null) {
+            return;
+        }
+        ap.inFlight.acquireUninterruptibly(this.maxInFlight);
+        try {
+            ap.closed = true;
+            ap.channel.close();
+        } catch (IOException e) {
+            throw new PageException("could not close partition " + partNum + ": " + e.getMessage());
+        } finally {
+            // wake anyone waiting for a permit, so they see that the partition is closed
+            ap.inFlight.release(this.maxInFlight);
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
+import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
+
+/**
+ * A partition whose data pages are stored compressed (with LZCodec). The master page and header
+ * pages are the same as in an uncompressed partition, but the file is laid out differently:
+ *
+ *   [master][header 0][map pages for header 0][heap for header 0][header 1][map pages...]...
+ *
+ * Each header page is followed by map pages, holding an (offset, length, capacity) entry for
+ * each of the data pages the header page manages, and then by a heap holding the compressed
+ * pages themselves. Each page is stored in a slot in the heap whose capacity is its compressed
+ * length rounded up. Pages that do not compress are stored as is.
+ *
+ * A page is never written over the slot its map entry on disk points to, so that a crash in the
+ * middle of a write leaves the old contents intact: each write goes to a free slot (or the end of
+ * the heap), which is forced to disk before the map entry is written and forced. The old slot is
+ * only reused once the map entry no longer pointing at it has been forced.
+ *
+ * The heap of each header page has room for all of its data pages uncompressed plus one more
+ * page (so that there is always room for a page's new slot next to its old one), and is
+ * compacted if it runs out of room at the end. Compaction goes through a journal file next to
+ * the partition's file: the slots that move and the new map pages are written to the journal
+ * and forced before any slot is moved in the heap, and a journal left behind by a crash is
+ * replayed when the partition is next opened.
+ *
+ * Since the OS file only holds bytes up to the end of the last heap written to, and a scan reads
+ * each page's compressed bytes only, pages that compress well are both smaller on disk and
+ * cheaper to read.
+ */
+class CompressedPartitionHandle extends PartitionHandle {
+    // Size of a map entry: offset of the page's slot in the heap (int), compressed length of
+    // the page (short), and capacity of the slot (short). A length of 0 means the page has not
+    // been written, and a length of PAGE_SIZE means the page is stored uncompressed.
+    private static final int MAP_ENTRY_SIZE = 8;
+
+    // Number of map pages following each header page.
+    static final int MAP_PAGES = DATA_PAGES_PER_HEADER * MAP_ENTRY_SIZE / PAGE_SIZE;
+
+    // Size of the heap following the map pages of each header page.
+    private static final int HEAP_SIZE = (DATA_PAGES_PER_HEADER + 1) * PAGE_SIZE;
+
+    // File name suffix of the compaction journal.
+    private static final String JOURNAL_SUFFIX = ".compact";
+
+    // Size of the journal's header: whether it is complete (int), header page index (int), and
+    // number of slots moved (int). It is followed by the header page's new map pages, and then
+    // by each moved slot's new offset (int), length (int), and bytes.
+    private static final int JOURNAL_HEADER_SIZE = 12;
+
+    // Slot capacities are multiples of this.
+    private static final int SLOT_ALIGNMENT = 256;
+
+    // Map entries of each header page's data pages, loaded on open (null for header pages that
+    // do not exist yet).
+    private int[][] slotOffsets;
+    private int[][] slotLengths;
+    private int[][] slotCapacities;
+
+    // Free slots in each header page's heap, by offset, not including the space past heapEnds.
+    private List<TreeMap<Integer, Integer>> freeSlots;
+
+    // Offset of the end of the last slot in each header page's heap.
+    private int[] heapEnds;
+
+    // Slots no longer used by their pages, as (header index, offset, capacity), whose pages' new
+    // map entries have not been forced to disk yet. They become free slots once they have been.
+    private List<int[]> unforcedSlots;
+
+    // Name of the OS file partition is stored in.
+    private String fileName;
+
+    // method called after each slot is moved by a compaction - only used for testing
+    Runnable onCompactionMove = () -> {};
+
+    CompressedPartitionHandle(int partNum, RecoveryManager recoveryManager) {
+        super(partNum, recoveryManager, false);
+        this.slotOffsets = new int[MAX_HEADER_PAGES][];
+        this.slotLengths = new int[MAX_HEADER_PAGES][];
+        this.slotCapacities = new int[MAX_HEADER_PAGES][];
+        this.freeSlots = new ArrayList<>();
+        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            this.freeSlots.add(new TreeMap<>());
+        }
+        this.heapEnds = new int[MAX_HEADER_PAGES];
+        this.unforcedSlots = new ArrayList<>();
+    }
+
+    /**
+     * Opens the OS file, finishes a compaction cut short by a crash, and loads master, header,
+     * and map pages.
+     * @param fileName name of OS file partition is stored in
+     */
+    @Override
+    void open(String fileName) {
+        super.open(fileName);
+        this.fileName = fileName;
+        try {
+            Path journal = this.journalPath();
+            if (Files.exists(journal)) {
+                try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ,
+                                                            StandardOpenOption.WRITE)) {
+                    this.replayJournal(channel);
+                    discardJournal(channel);
+                }
+                Files.delete(journal);
+            }
+            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                if (this.headerPages[i] != null) {
+                    this.loadMap(i);
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("Could not open or read file: " + e.getMessage());
+        }
+    }
+
+    @Override
+    long headerOffset(int headerIndex) {
+        return (1 + (long) headerIndex * (1 + MAP_PAGES + HEAP_SIZE / PAGE_SIZE)) * PAGE_SIZE;
+    }
+
+    /**
+     * Does nothing: compressed pages are not stored in page number order, and space freed in a
+     * heap is reused (or compacted away) within the heap.
+     */
+    @Override
+    void shrink() {}
+
+    @Override
+    void freePage(int pageNum) throws IOException {
+        super.freePage(pageNum);
+        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
+        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        this.ensureMap(headerIndex);
+        if (this.slotCapacities[headerIndex][pageIndex] > 0) {
+            this.unforcedSlots.add(new int[] {headerIndex, this.slotOffsets[headerIndex][pageIndex],
+                                              this.slotCapacities[headerIndex][pageIndex]});
+        }
+        this.setEntry(headerIndex, pageIndex, 0, 0, 0);
+        this.writeMapEntry(headerIndex, pageIndex);
+    }
+
+    /**
+     * Reads in and decompresses a data page. Assumes that the partition lock is held in at
+     * least shared mode.
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page - assumed to be page size
+     */
+    @Override
+    void readPage(int pageNum, byte[] buf) throws IOException {
+        if (this.isNotAllocatedPage(pageNum)) {
+            throw new PageException("page " + pageNum + " is not allocated");
+        }
+        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
+        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        int[] lengths = this.slotLengths[headerIndex];
+        int length = lengths == null ? 0 : lengths[pageIndex];
+        if (length == 0) {
+            Arrays.fill(buf, (byte) 0);
+            return;
+        }
+        long offset = this.heapOffset(headerIndex) + this.slotOffsets[headerIndex][pageIndex];
+        this.ioStats.recordFileRead();
+        if (length == PAGE_SIZE) {
+            this.readFully(buf, PAGE_SIZE, offset);
+            return;
+        }
+        byte[] compressed = new byte[length];
+        this.readFully(compressed, length, offset);
+        LZCodec.decompress(compressed, 0, length, buf);
+    }
+
+    /**
+     * Reads in and decompresses a data page into a buffer, through an array (since pages are
+     * decompressed into arrays).
+     * @param pageNum data page number to read in
+     * @param buf output buffer whose first PAGE_SIZE bytes are filled with page
+     */
+    @Override
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
+        byte[] data = new byte[PAGE_SIZE];
+        this.readPage(pageNum, data);
+        ((ByteBuffer) buf.duplicate().clear()).put(data);
+    }
+
+    @Override
+    void readPages(int pageNum, int count, byte[][] bufs) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            this.readPage(pageNum + i, bufs[i]);
+        }
+    }
+
+    @Override
+    void readPages(int pageNum, int count, ByteBuffer[] bufs) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            this.readPage(pageNum + i, bufs[i]);
+        }
+    }
+
+    /**
+     * Compresses and writes a data page from a buffer, through an array (since pages are
+     * compressed from arrays).
+     * @param pageNum data page number to write to
+     * @param buf input buffer whose first PAGE_SIZE bytes are the new contents of page
+     */
+    @Override
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
+        byte[] data = new byte[PAGE_SIZE];
+        ((ByteBuffer) buf.duplicate().clear()).get(data);
+        this.writePage(pageNum, data);
+    }
+
+    /**
+     * Compresses and writes a data page. Assumes that the partition lock is held in exclusive mode.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page - assumed to be page size
+     */
+    @Override
+    void writePage(int pageNum, byte[] buf) throws IOException {
+        if (this.isNotAllocatedPage(pageNum)) {
+            throw new PageException("page " + pageNum + " is not allocated");
+        }
+        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
+        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        this.ensureMap(headerIndex);
+
+        // only keep the compressed page if it is smaller than the page
+        byte[] data = new byte[PAGE_SIZE - 1];
+        int length = LZCodec.compress(buf, PAGE_SIZE, data);
+        if (length < 0) {
+            data = buf;
+            length = PAGE_SIZE;
+        }
+        // the page always goes to a new slot, which is on disk before the map entry points to it
+        int capacity = (length + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT * SLOT_ALIGNMENT;
+        int slotOffset = this.allocSlot(headerIndex, capacity);
+        this.writeFully(data, length, this.heapOffset(headerIndex) + slotOffset);
+        this.fileChannel.force(false);
+
+        // read after allocating, since a compaction may have moved the old slot
+        int oldCapacity = this.slotCapacities[headerIndex][pageIndex];
+        if (oldCapacity > 0) {
+            this.unforcedSlots.add(new int[] {headerIndex, this.slotOffsets[headerIndex][pageIndex], oldCapacity});
+        }
+        this.setEntry(headerIndex, pageIndex, slotOffset, length, capacity);
+        this.writeMapEntry(headerIndex, pageIndex);
+        this.fileChannel.force(false);
+        this.releaseUnforcedSlots();
+
+        long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+        recoveryManager.diskIOHook(vpn);
+    }
+
+    /**
+     * Finds room for a slot in a header page's heap: the first free slot large enough, or else
+     * the end of the heap, compacting the heap first if there is no room left at the end.
+     * @return offset of the new slot in the heap
+     */
+    private int allocSlot(int headerIndex, int capacity) throws IOException {
+        TreeMap<Integer, Integer> free = this.freeSlots.get(headerIndex);
+        for (Map.Entry<Integer, Integer> slot : free.entrySet()) {
+            if (slot.getValue() >= capacity) {
+                int offset = slot.getKey();
+                free.remove(offset);
+                if (slot.getValue() > capacity) {
+                    free.put(offset + capacity, slot.getValue() - capacity);
+                }
+                return offset;
+            }
+        }
+        if (this.heapEnds[headerIndex] + capacity > HEAP_SIZE) {
+            this.compact(headerIndex);
+        }
+        if (this.heapEnds[headerIndex] + capacity > HEAP_SIZE) {
+            throw new PageException("no room in heap of header page " + headerIndex);
+        }
+        int offset = this.heapEnds[headerIndex];
+        this.heapEnds[headerIndex] += capacity;
+        return offset;
+    }
+
+    /**
+     * Returns the slots no longer pointed to by any map entry to the free slots. The map pages
+     * must have been forced to disk since the slots were given up.
+     */
+    private void releaseUnforcedSlots() {
+        for (int[] slot : this.unforcedSlots) {
+            this.releaseSlot(slot[0], slot[1], slot[2]);
+        }
+        this.unforcedSlots.clear();
+    }
+
+    /**
+     * Returns a slot to a header page's free slots, merging it with adjacent free slots.
+     */
+    private void releaseSlot(int headerIndex, int offset, int capacity) {
+        TreeMap<Integer, Integer> free = this.freeSlots.get(headerIndex);
+        Map.Entry<Integer, Integer> next = free.ceilingEntry(offset);
+        if (next != null && next.getKey() == offset + capacity) {
+            capacity += next.getValue();
+            free.remove(next.getKey());
+        }
+        Map.Entry<Integer, Integer> prev = free.floorEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            offset = prev.getKey();
+            capacity += prev.getValue();
+            free.remove(prev.getKey());
+        }
+        if (offset + capacity == this.heapEnds[headerIndex]) {
+            this.heapEnds[headerIndex] = offset;
+        } else {
+            free.put(offset, capacity);
+        }
+    }
+
+    /**
+     * Moves every slot in a header page's heap down to the start of the heap, in order,
+     * leaving all free space at the end. Moving a slot can overwrite slots that map entries on
+     * disk still point to (including its own, if it moves by less than its length), so the slots
+     * that move and the new map pages are first written to the journal, which is forced and then
+     * marked complete; if the moves are cut short, the journal is replayed on the next open.
+     */
+    void compact(int headerIndex) throws IOException {
+        int[] offsets = this.slotOffsets[headerIndex];
+        int[] lengths = this.slotLengths[headerIndex];
+        int[] capacities = this.slotCapacities[headerIndex];
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < DATA_PAGES_PER_HEADER; ++i) {
+            if (capacities[i] > 0) {
+                slots.add(i);
+            }
+        }
+        slots.sort((a, b) -> Integer.compare(offsets[a], offsets[b]));
+
+        // the map entries in memory are only updated once the slots have moved
+        int[] newOffsets = offsets.clone();
+        int end = 0;
+        try (FileChannel journal = FileChannel.open(this.journalPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            byte[] data = new byte[PAGE_SIZE];
+            long heapOffset = this.heapOffset(headerIndex);
+            long position = JOURNAL_HEADER_SIZE + (long) MAP_PAGES * PAGE_SIZE;
+            int numMoved = 0;
+            for (int i : slots) {
+                if (offsets[i] != end) {
+                    this.readFully(data, lengths[i], heapOffset + offsets[i]);
+                    ByteBuffer b = ByteBuffer.allocate(8 + lengths[i]);
+                    b.putInt(end).putInt(lengths[i]).put(data, 0, lengths[i]).flip();
+                    position += writeJournal(journal, b, position);
+                    newOffsets[i] = end;
+                    ++numMoved;
+                }
+                end += capacities[i];
+            }
+            for (int i = 0; i < MAP_PAGES; ++i) {
+                writeJournal(journal, this.mapPage(headerIndex, i, newOffsets),
+                             JOURNAL_HEADER_SIZE + (long) i * PAGE_SIZE);
+            }
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            header.putInt(0).putInt(headerIndex).putInt(numMoved).flip();
+            writeJournal(journal, header, 0);
+            journal.force(true);
+            // the journal is only replayed once it is complete
+            writeJournal(journal, (ByteBuffer) ByteBuffer.allocate(4).putInt(1).flip(), 0);
+            journal.force(false);
+
+            this.replayJournal(journal);
+            discardJournal(journal);
+        }
+        Files.delete(this.journalPath());
+
+        System.arraycopy(newOffsets, 0, offsets, 0, DATA_PAGES_PER_HEADER);
+        // the map pages on disk are up to date, so slots given up earlier are free as well;
+        // those under this header page are covered by the free space at the end of the heap
+        this.unforcedSlots.removeIf(slot -> slot[0] == headerIndex);
+        this.releaseUnforcedSlots();
+        this.freeSlots.get(headerIndex).clear();
+        this.heapEnds[headerIndex] = end;
+    }
+
+    /**
+     * Moves the slots and writes the map pages recorded in a compaction journal, if the journal
+     * is complete, and forces them to disk.
+     */
+    private void replayJournal(FileChannel journal) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        if (readJournal(journal, header, 0) < JOURNAL_HEADER_SIZE || header.getInt(0) != 1) {
+            return;
+        }
+        int headerIndex = header.getInt(4);
+        int numMoved = header.getInt(8);
+        long heapOffset = this.heapOffset(headerIndex);
+        long position = JOURNAL_HEADER_SIZE + (long) MAP_PAGES * PAGE_SIZE;
+        for (int i = 0; i < numMoved; ++i) {
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            position += readJournal(journal, entry, position);
+            ByteBuffer data = ByteBuffer.allocate(entry.getInt(4));
+            position += readJournal(journal, data, position);
+            this.writeFully(data.array(), data.capacity(), heapOffset + entry.getInt(0));
+            this.onCompactionMove.run();
+        }
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+        for (int i = 0; i < MAP_PAGES; ++i) {
+            page.clear();
+            readJournal(journal, page, JOURNAL_HEADER_SIZE + (long) i * PAGE_SIZE);
+            this.writeFully(page.array(), PAGE_SIZE, this.mapPageOffset(headerIndex, i));
+        }
+        this.fileChannel.force(false);
+    }
+
+    /**
+     * Empties a compaction journal that has been replayed (or was never completed), before it is
+     * deleted: an empty journal is ignored, should the delete not make it to disk.
+     */
+    private static void discardJournal(FileChannel journal) throws IOException {
+        journal.truncate(0);
+        journal.force(true);
+    }
+
+    private Path journalPath() {
+        return Paths.get(this.fileName + JOURNAL_SUFFIX);
+    }
+
+    private static int writeJournal(FileChannel journal, ByteBuffer b, long position) throws IOException {
+        int length = b.remaining();
+        while (b.hasRemaining()) {
+            journal.write(b, position + length - b.remaining());
+        }
+        return length;
+    }
+
+    private static int readJournal(FileChannel journal, ByteBuffer b, long position) throws IOException {
+        int length = b.remaining();
+        while (b.hasRemaining()) {
+            if (journal.read(b, position + length - b.remaining()) < 0) {
+                break;
+            }
+        }
+        return length - b.remaining();
+    }
+
+    /**
+     * Reads in the map pages of a header page, and works out the free slots of its heap.
+     */
+    private void loadMap(int headerIndex) throws IOException {
+        this.ensureMap(headerIndex);
+        byte[] page = new byte[PAGE_SIZE];
+        for (int i = 0; i < MAP_PAGES; ++i) {
+            Arrays.fill(page, (byte) 0);
+            this.readFully(page, PAGE_SIZE, this.mapPageOffset(headerIndex, i));
+            ByteBuffer b = ByteBuffer.wrap(page);
+            for (int j = 0; j < PAGE_SIZE / MAP_ENTRY_SIZE; ++j) {
+                int pageIndex = i * (PAGE_SIZE / MAP_ENTRY_SIZE) + j;
+                this.setEntry(headerIndex, pageIndex, b.getInt(), b.getShort(), b.getShort());
+            }
+        }
+        int[] offsets = this.slotOffsets[headerIndex];
+        int[] capacities = this.slotCapacities[headerIndex];
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < DATA_PAGES_PER_HEADER; ++i) {
+            if (capacities[i] > 0) {
+                slots.add(i);
+            }
+        }
+        slots.sort((a, b) -> Integer.compare(offsets[a], offsets[b]));
+        int end = 0;
+        for (int i : slots) {
+            if (offsets[i] > end) {
+                this.freeSlots.get(headerIndex).put(end, offsets[i] - end);
+            }
+            end = Math.max(end, offsets[i] + capacities[i]);
+        }
+        this.heapEnds[headerIndex] = end;
+    }
+
+    private void ensureMap(int headerIndex) {
+        if (this.slotOffsets[headerIndex] == null) {
+            this.slotOffsets[headerIndex] = new int[DATA_PAGES_PER_HEADER];
+            this.slotLengths[headerIndex] = new int[DATA_PAGES_PER_HEADER];
+            this.slotCapacities[headerIndex] = new int[DATA_PAGES_PER_HEADER];
+        }
+    }
+
+    private void setEntry(int headerIndex, int pageIndex, int offset, int length, int capacity) {
+        this.slotOffsets[headerIndex][pageIndex] = offset;
+        this.slotLengths[headerIndex][pageIndex] = length;
+        this.slotCapacities[headerIndex][pageIndex] = capacity;
+    }
+
+    /**
+     * Writes the map page containing a data page's map entry to disk.
+     */
+    private void writeMapEntry(int headerIndex, int pageIndex) throws IOException {
+        this.writeMapPage(headerIndex, pageIndex / (PAGE_SIZE / MAP_ENTRY_SIZE));
+    }
+
+    private void writeMapPage(int headerIndex, int mapIndex) throws IOException {
+        this.writeFully(this.mapPage(headerIndex, mapIndex, this.slotOffsets[headerIndex]).array(),
+                        PAGE_SIZE, this.mapPageOffset(headerIndex, mapIndex));
+    }
+
+    /**
+     * @param offsets slot offsets of the header page's data pages
+     * @return contents of a map page of a header page, from the map entries in memory
+     */
+    private ByteBuffer mapPage(int headerIndex, int mapIndex, int[] offsets) {
+        ByteBuffer b = ByteBuffer.allocate(PAGE_SIZE);
+        for (int j = 0; j < PAGE_SIZE / MAP_ENTRY_SIZE; ++j) {
+            int pageIndex = mapIndex * (PAGE_SIZE / MAP_ENTRY_SIZE) + j;
+            b.putInt(offsets[pageIndex]);
+            b.putShort((short) this.slotLengths[headerIndex][pageIndex]);
+            b.putShort((short) this.slotCapacities[headerIndex][pageIndex]);
+        }
+        b.flip();
+        return b;
+    }
+
+    private void readFully(byte[] buf, int length, long offset) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, length);
+        while (b.hasRemaining()) {
+            if (this.fileChannel.read(b, offset + b.position()) < 0) {
+                // past the end of the file - never written
+                break;
+            }
+        }
+    }
+
+    private void writeFully(byte[] buf, int length, long offset) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(buf, 0, length);
+        this.extendTo(offset + length);
+        while (b.hasRemaining()) {
+            this.fileChannel.write(b, offset + b.position());
+        }
+    }
+
+    /**
+     * @return offset in OS file of a map page of a header page
+     */
+    private long mapPageOffset(int headerIndex, int mapIndex) {
+        return this.headerOffset(headerIndex) + (1L + mapIndex) * PAGE_SIZE;
+    }
+
+    /**
+     * @return offset in OS file of the heap of a header page
+     */
+    private long heapOffset(int headerIndex) {
+        return this.headerOffset(headerIndex) + (1L + MAP_PAGES) * PAGE_SIZE;
+    }
+}
@@ -1,5 +1,11 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
@@ -22,6 +28,18 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     int allocPart(int partNum);
 
+    /**
+     * Allocates a new partition, optionally storing its pages compressed. Compression is
+     * transparent to callers: pages are still read and written uncompressed. Implementations
+     * that do not support compression allocate an uncompressed partition.
+     *
+     * @param compressed whether to store the partition's pages compressed
+     * @return partition number of new partition
+     */
+    default int allocPart(boolean compressed) {
+        return this.allocPart();
+    }
+
     /**
      * Releases a partition from use.
 
@@ -29,6 +47,17 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void freePart(int partNum);
 
+    /**
+     * Releases the space in a partition's storage past its last allocated page, such as that
+     * left behind once the pages at the end of the partition have been freed. If there are free
+     * pages below the last allocated page, any pages set aside for future allocations are given
+     * up as well, so that the next pages allocated fill the lowest free pages. The default
+     * implementation does nothing.
+     *
+     * @param partNum partition to shrink
+     */
+    default void shrinkPart(int partNum) {}
+
     /**
      * Allocates a new page.
      * @param partNum partition to allocate new page under
@@ -57,6 +86,24 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void readPage(long page, byte[] buf);
 
+    /**
+     * Reads a run of consecutive pages in a single partition. Implementations may coalesce
+     * the run into fewer I/Os than reading each page separately.
+     *
+     * @param firstPage number of the first page to be read
+     * @param count number of pages to read
+     * @param bufs byte buffers whose contents will be filled with page data - the i-th buffer
+     *             is filled with the data of page firstPage + i
+     */
+    default void readPages(long firstPage, int count, byte[][] bufs) {
+        if (bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects a buffer for each page");
+        }
+        for (int i = 0; i < count; ++i) {
+            this.readPage(firstPage + i, bufs[i]);
+        }
+    }
+
     /**
      * Writes to a page.
      *
@@ -65,6 +112,119 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page into a buffer that need not be backed by an array, such as a direct buffer.
+     * The page fills the first PAGE_SIZE bytes of buf, whatever its position and limit, which
+     * are left unchanged. The default implementation reads the page into an array (buf's own,
+     * if it is backed by a page-sized array) and copies it over.
+     *
+     * @param page number of page to be read
+     * @param buf page-sized buffer to be filled with page data
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == PAGE_SIZE) {
+            this.readPage(page, buf.array());
+            return;
+        }
+        byte[] data = new byte[PAGE_SIZE];
+        this.readPage(page, data);
+        ((ByteBuffer) buf.duplicate().clear()).put(data);
+    }
+
+    /**
+     * Reads a run of consecutive pages in a single partition into buffers that need not be
+     * backed by arrays, as readPage(long, ByteBuffer) does for one page. The default
+     * implementation reads each page separately.
+     *
+     * @param firstPage number of the first page to be read
+     * @param count number of pages to read
+     * @param bufs page-sized buffers - the i-th buffer is filled with the data of page
+     *             firstPage + i
+     */
+    default void readPages(long firstPage, int count, ByteBuffer[] bufs) {
+        if (bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects a buffer for each page");
+        }
+        for (int i = 0; i < count; ++i) {
+            this.readPage(firstPage + i, bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to a page from a buffer that need not be backed by an array, such as a direct
+     * buffer. The page is written from the first PAGE_SIZE bytes of buf, whatever its position
+     * and limit, which are left unchanged. The default implementation copies the page into an
+     * array (unless buf is backed by a page-sized array) and writes that.
+     *
+     * @param page number of page to be written
+     * @param buf page-sized buffer that contains the new page data
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        if (buf.hasArray() && buf.arrayOffset() == 0 && buf.array().length == PAGE_SIZE) {
+            this.writePage(page, buf.array());
+            return;
+        }
+        byte[] data = new byte[PAGE_SIZE];
+        ((ByteBuffer) buf.duplicate().clear()).get(data);
+        this.writePage(page, data);
+    }
+
+    /**
+     * Reads a page asynchronously. The default implementation reads the page before returning.
+     *
+     * @param page number of page to be read
+     * @param buf byte buffer whose contents will be filled with page data
+     * @return future that completes once buf has been filled
+     */
+    default CompletableFuture<Void> readPageAsync(long page, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            this.readPage(page, buf);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Writes to a page asynchronously. The default implementation writes the page before returning.
+     * The contents of buf must not be changed until the returned future completes.
+     *
+     * @param page number of page to be written
+     * @param buf byte buffer that contains the new page data
+     * @return future that completes once the page has been written
+     */
+    default CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            this.writePage(page, buf);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @return whether readPageAsync and writePageAsync return before their I/O completes
+     */
+    default boolean supportsAsyncIO() {
+        return false;
+    }
+
+    /**
+     * Gets I/O statistics for each existing partition. The statistics objects are live: they
+     * keep counting after this call, and can be sampled at any time without locking. A freed
+     * partition's statistics are discarded. Implementations that do not record statistics
+     * return an empty map.
+     *
+     * @return map from partition number to that partition's statistics
+     */
+    default Map<Integer, PartitionIOStats> getIOStats() {
+        return Collections.emptyMap();
+    }
+
     /**
      * Checks if a page is allocated
      *
@@ -101,4 +261,19 @@ public interface DiskSpaceManager extends AutoCloseable {
         return partNum * 10000000000L + pageNum;
     }
 
+    /**
+     * Waits for an asynchronous I/O to complete, rethrowing whatever it failed with.
+     * @param future future returned by an asynchronous I/O
+     */
+    static void awaitIO(CompletableFuture<?> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PageException("I/O failed: " + e.getCause().getMessage());
+        }
+    }
+
 }
@@ -5,11 +5,13 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
 
 /**
  * An implementation of a disk space manager with virtual page translation, and
@@ -44,26 +46,57 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * Data pages are normally read and written with one file channel call per page. When constructed
+ * with mapped I/O enabled, each partition file is instead memory-mapped in 8M regions, and pages
+ * are copied directly to and from the mappings (regions are remapped as the file grows). Page
+ * writes force the mapped region to disk, so writes are durable at the same points in either mode.
+ *
+ * A partition may instead be allocated as compressed, in which case it is stored in a file named
+ * with a .lz suffix, in the layout described in CompressedPartitionHandle. Compression is
+ * invisible outside of the partition: pages are still read and written uncompressed.
+ *
+ * Outside of the log partition, pages are allocated from extents: when a partition has no pages
+ * reserved, the unallocated pages of the next 64-page aligned run are reserved in memory, and then
+ * handed out one by one, lowest first, writing only the header page for each. Reservations are
+ * never written to disk, so a crash cannot leak them; the page counts on the master page are
+ * recomputed from the header pages when a partition is opened.
+ *
+ * Partition files are grown in 8M steps (see setFileGrowthChunk) rather than a page at a time, to
+ * cut down on file system metadata updates and fragmentation as partitions fill up. Space past
+ * the last write is truncated away when the partition is closed or freed.
+ *
+ * There is no lock over the whole manager: partitions are looked up in a concurrent map, and each
+ * partition has its own read-write lock. Page reads hold it in shared mode, so reads of the same
+ * partition proceed in parallel; writes, allocations and frees hold it in exclusive mode. Allocation
+ * checks take no lock at all: each partition keeps a copy of its header page bitmaps in atomic
+ * arrays, updated as pages are allocated and freed.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
     static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
     static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
+    static final String COMPRESSED_SUFFIX = ".lz"; // file name suffix of compressed partitions
+    static final long DEFAULT_FILE_GROWTH_CHUNK = 2048L * PAGE_SIZE; // 8M
 
     // Name of base directory.
     private String dbDir;
 
-    // Info about each partition.
+    // Info about each partition. Looked up without locking on every page access; a partition's
+    // handle is only published here with its partition lock held exclusively until it is opened.
     private Map<Integer, PartitionHandle> partInfo;
 
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
-    private ReentrantLock managerLock;
-
     // recovery manager
     private RecoveryManager recoveryManager;
 
+    // Whether partitions use memory-mapped I/O for data pages
+    private boolean mappedIO;
+
+    // Size of the steps partition files are grown in (0 to grow them a write at a time)
+    private volatile long fileGrowthChunk;
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
      * if not present.
@@ -71,11 +104,23 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param mappedIO whether to read and write data pages through memory-mapped files
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean mappedIO) {
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.mappedIO = mappedIO;
+        this.fileGrowthChunk = DEFAULT_FILE_GROWTH_CHUNK;
+        this.partInfo = new ConcurrentHashMap<>();
         this.partNumCounter = new AtomicInteger(0);
-        this.managerLock = new ReentrantLock();
 
         File dir = new File(dbDir);
         if (!dir.exists()) {
@@ -89,16 +134,25 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
+                String name = f.getName();
+                boolean compressed = name.endsWith(COMPRESSED_SUFFIX);
+                if (compressed) {
+                    name = name.substring(0, name.length() - COMPRESSED_SUFFIX.length());
+                }
+                // other files (such as the buffer manager's warm-up file) may share the directory
+                if (name.isEmpty() || !name.chars().allMatch(Character::isDigit)) {
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
                     }
                     continue;
                 }
-                int fileNum = Integer.parseInt(f.getName());
+                int fileNum = Integer.parseInt(name);
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
+                PartitionHandle pi = this.newPartitionHandle(fileNum, compressed);
                 pi.open(dbDir + "/" + f.getName());
                 this.partInfo.put(fileNum, pi);
             }
@@ -106,6 +160,24 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    /**
+     * Sets the size of the steps partition files are grown in. When a write goes past the end of
+     * a partition's file, the file is extended to the next multiple of this size, rather than
+     * just far enough for the write; the unused space is given back when the partition is closed
+     * or freed. Applies to open partitions as well as new ones.
+     *
+     * @param bytes growth step in bytes, a multiple of the page size, or 0 to disable preallocation
+     */
+    public void setFileGrowthChunk(long bytes) {
+        if (bytes < 0 || bytes % PAGE_SIZE != 0) {
+            throw new IllegalArgumentException("file growth chunk must be a non-negative multiple of the page size");
+        }
+        this.fileGrowthChunk = bytes;
+        for (PartitionHandle pi : this.partInfo.values()) {
+            pi.setGrowthChunk(bytes);
+        }
+    }
+
     @Override
     public void close() {
         for (Map.Entry<Integer, PartitionHandle> part : this.partInfo.entrySet()) {
@@ -128,52 +200,44 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         return this.allocPartHelper(partNum);
     }
 
-    private int allocPartHelper(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            if (this.partInfo.containsKey(partNum)) {
-                throw new IllegalStateException("partition number " + partNum + " already exists");
-            }
+    @Override
+    public int allocPart(boolean compressed) {
+        return this.allocPartHelper(this.partNumCounter.getAndIncrement(), compressed);
+    }
 
-            pi = new PartitionHandle(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
+    private int allocPartHelper(int partNum) {
+        return this.allocPartHelper(partNum, false);
+    }
 
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+    private int allocPartHelper(int partNum, boolean compressed) {
+        PartitionHandle pi = this.newPartitionHandle(partNum, compressed);
+        pi.partitionLock.writeLock().lock();
+        if (this.partInfo.putIfAbsent(partNum, pi) != null) {
+            pi.partitionLock.writeLock().unlock();
+            throw new IllegalStateException("partition number " + partNum + " already exists");
         }
         try {
-            // We must open partition only after logging, but we need to release the
-            // manager lock first, in case the log manager is currently in the process
-            // of allocating a new log page (for another txn's records).
+            // We must open partition only after logging. The handle is already visible
+            // to other threads, but they block on the partition lock until it is open.
             TransactionContext transaction = TransactionContext.getTransaction();
             if (transaction != null) {
                 recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
             }
 
-            pi.open(dbDir + "/" + partNum);
+            pi.open(this.partFileName(pi));
             return partNum;
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public void freePart(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            pi = this.partInfo.remove(partNum);
-            if (pi == null) {
-                throw new NoSuchElementException("no partition " + partNum);
-            }
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        PartitionHandle pi = this.partInfo.remove(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
         }
+        pi.partitionLock.writeLock().lock();
         try {
             try {
                 pi.freeDataPages();
@@ -187,33 +251,39 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 recoveryManager.logFreePart(transaction.getTransNum(), partNum);
             }
 
-            File pf = new File(dbDir + "/" + partNum);
+            File pf = new File(this.partFileName(pi));
             if (!pf.delete()) {
                 throw new PageException("could not delete files for partition " + partNum);
             }
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
-    public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
+    public void shrinkPart(int partNum) {
+        PartitionHandle pi = this.lockPartInfo(partNum, true);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            pi.shrink();
+        } catch (IOException e) {
+            throw new PageException("could not shrink partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
+    }
+
+    @Override
+    public long allocPage(int partNum) {
+        PartitionHandle pi = this.lockPartInfo(partNum, true);
         try {
             int pageNum = pi.allocPage();
             pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.ioStats.recordAlloc();
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -224,22 +294,16 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
         int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
 
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartInfo(partNum, true);
         try {
             pi.allocPage(headerIndex, pageIndex);
             pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.ioStats.recordAlloc();
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -247,20 +311,14 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartInfo(partNum, true);
         try {
             pi.freePage(pageNum);
+            pi.ioStats.recordFree();
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -271,20 +329,45 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            long start = System.nanoTime();
+            pi.readPage(pageNum, buf);
+            pi.ioStats.recordRead(1, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, byte[][] bufs) {
+        if (bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects a buffer for each page");
+        }
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].length != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        if (count <= 0) {
+            return;
         }
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        if (DiskSpaceManager.getPartNum(firstPage + count - 1) != partNum) {
+            throw new IllegalArgumentException("readPages cannot read across partitions");
+        }
+        PartitionHandle pi = this.lockPartInfo(partNum, false);
         try {
-            pi.readPage(pageNum, buf);
+            long start = System.nanoTime();
+            pi.readPages(pageNum, count, bufs);
+            pi.ioStats.recordRead(count, System.nanoTime() - start);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
@@ -295,42 +378,134 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartInfo(partNum, true);
         try {
+            long start = System.nanoTime();
             pi.writePage(pageNum, buf);
+            pi.ioStats.recordWrite(System.nanoTime() - start);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
-    public boolean pageAllocated(long page) {
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.capacity() != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
+        PartitionHandle pi = this.lockPartInfo(partNum, false);
         try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
+            long start = System.nanoTime();
+            pi.readPage(pageNum, buf);
+            pi.ioStats.recordRead(1, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            this.managerLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long firstPage, int count, ByteBuffer[] bufs) {
+        if (bufs.length < count) {
+            throw new IllegalArgumentException("readPages expects a buffer for each page");
+        }
+        for (int i = 0; i < count; ++i) {
+            if (bufs[i].capacity() != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        if (count <= 0) {
+            return;
         }
+        int partNum = DiskSpaceManager.getPartNum(firstPage);
+        int pageNum = DiskSpaceManager.getPageNum(firstPage);
+        if (DiskSpaceManager.getPartNum(firstPage + count - 1) != partNum) {
+            throw new IllegalArgumentException("readPages cannot read across partitions");
+        }
+        PartitionHandle pi = this.lockPartInfo(partNum, false);
         try {
-            return !pi.isNotAllocatedPage(pageNum);
+            long start = System.nanoTime();
+            pi.readPages(pageNum, count, bufs);
+            pi.ioStats.recordRead(count, System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.capacity() != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        PartitionHandle pi = this.lockPartInfo(partNum, true);
+        try {
+            long start = System.nanoTime();
+            pi.writePage(pageNum, buf);
+            pi.ioStats.recordWrite(System.nanoTime() - start);
+        } catch (IOException e) {
+            throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean pageAllocated(long page) {
+        int partNum = DiskSpaceManager.getPartNum(page);
+        int pageNum = DiskSpaceManager.getPageNum(page);
+        // checked against the partition's lock-free copy of its allocation state, since this
+        // is called on every page fetch that misses in the buffer pool
+        return this.getPartInfo(partNum).isAllocatedPage(pageNum);
+    }
+
+    @Override
+    public Map<Integer, PartitionIOStats> getIOStats() {
+        Map<Integer, PartitionIOStats> stats = new HashMap<>();
+        for (Map.Entry<Integer, PartitionHandle> part : this.partInfo.entrySet()) {
+            stats.put(part.getKey(), part.getValue().ioStats);
+        }
+        return stats;
+    }
+
+    /**
+     * @param partNum partition number
+     * @return I/O counters of the partition
+     */
+    PartitionIOStats getIOStats(int partNum) {
+        return getPartInfo(partNum).ioStats;
+    }
+
+    // Creates the handle for a partition, without opening it.
+    private PartitionHandle newPartitionHandle(int partNum, boolean compressed) {
+        PartitionHandle pi = compressed ? new CompressedPartitionHandle(partNum, recoveryManager)
+                             : new PartitionHandle(partNum, recoveryManager, mappedIO);
+        pi.setGrowthChunk(this.fileGrowthChunk);
+        return pi;
+    }
+
+    // Gets the name of the OS file a partition is stored in.
+    private String partFileName(PartitionHandle pi) {
+        String fileName = dbDir + "/" + pi.partNum;
+        return pi instanceof CompressedPartitionHandle ? fileName + COMPRESSED_SUFFIX : fileName;
+    }
+
+    /**
+     * @param partNum partition number
+     * @return whether the partition's pages are stored compressed
+     */
+    boolean isCompressedPart(int partNum) {
+        return getPartInfo(partNum) instanceof CompressedPartitionHandle;
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartitionHandle getPartInfo(int partNum) {
         PartitionHandle pi = this.partInfo.get(partNum);
@@ -339,4 +514,17 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         return pi;
     }
+
+    // Gets PartInfo and acquires its partition lock - shared for reads, exclusive otherwise.
+    // Throws exception if not found, including if the partition is freed while waiting for the lock.
+    private PartitionHandle lockPartInfo(int partNum, boolean exclusive) {
+        PartitionHandle pi = getPartInfo(partNum);
+        Lock lock = exclusive ? pi.partitionLock.writeLock() : pi.partitionLock.readLock();
+        lock.lock();
+        if (this.partInfo.get(partNum) != pi) {
+            lock.unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return pi;
+    }
 }
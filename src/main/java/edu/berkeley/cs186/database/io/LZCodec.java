@@ -0,0 +1,157 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * A small LZ77-family codec for page compression, using the LZ4 block format: a sequence of
+ * (token, literals, match) groups, where the token's high nibble is the literal length and its
+ * low nibble the match length minus 4 (with 15 meaning that further length bytes follow), and
+ * matches are encoded as a 2-byte little-endian backwards offset. The compressor finds matches
+ * with a single-probe hash table, which is fast and works well on the long runs of padding
+ * in fixed-width string columns.
+ */
+class LZCodec {
+    private static final int MIN_MATCH = 4;
+    // the last match must start at least this many bytes before the end of the input
+    private static final int MATCH_FIND_LIMIT = 12;
+    // the last bytes of the input are always literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+
+    private LZCodec() {}
+
+    /**
+     * Compresses src[0, srcLen) into dst.
+     * @return number of bytes written to dst, or -1 if the compressed data does not fit in dst
+     */
+    static int compress(byte[] src, int srcLen, byte[] dst) {
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        int matchLimit = srcLen - LAST_LITERALS;
+        while (ip < srcLen - MATCH_FIND_LIMIT) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            // table entries are position + 1, so that 0 means empty
+            int ref = table[h] - 1;
+            table[h] = ip + 1;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ++ip;
+                continue;
+            }
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < matchLimit && src[ref + matchLen] == src[ip + matchLen]) {
+                ++matchLen;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op);
+            if (op < 0) {
+                return -1;
+            }
+            ip += matchLen;
+            anchor = ip;
+        }
+        return writeSequence(src, anchor, srcLen - anchor, 0, 0, dst, op);
+    }
+
+    /**
+     * Decompresses src[srcOff, srcOff + srcLen) into dst, which must be exactly the size of
+     * the uncompressed data.
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst) {
+        int ip = srcOff;
+        int end = srcOff + srcLen;
+        int op = 0;
+        while (ip < end) {
+            int token = src[ip++] & 0xFF;
+            int litLen = token >>> 4;
+            if (litLen == 15) {
+                int b;
+                do {
+                    checkBounds(ip < end);
+                    b = src[ip++] & 0xFF;
+                    litLen += b;
+                } while (b == 255);
+            }
+            checkBounds(ip + litLen <= end && op + litLen <= dst.length);
+            System.arraycopy(src, ip, dst, op, litLen);
+            ip += litLen;
+            op += litLen;
+            if (ip == end) {
+                break;
+            }
+            checkBounds(ip + 2 <= end);
+            int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+            ip += 2;
+            int matchLen = token & 0xF;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    checkBounds(ip < end);
+                    b = src[ip++] & 0xFF;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+            checkBounds(offset > 0 && offset <= op && op + matchLen <= dst.length);
+            // matches may overlap the bytes they produce, so copy one byte at a time
+            for (int i = 0; i < matchLen; ++i) {
+                dst[op + i] = dst[op - offset + i];
+            }
+            op += matchLen;
+        }
+        checkBounds(op == dst.length);
+    }
+
+    /**
+     * Writes a token, literals, and (if matchLen > 0) a match.
+     * @return new output position, or -1 if dst is too small
+     */
+    private static int writeSequence(byte[] src, int litStart, int litLen, int offset, int matchLen,
+                                     byte[] dst, int op) {
+        int maxLen = 1 + litLen / 255 + 1 + litLen + 2 + matchLen / 255 + 1;
+        if (op + maxLen > dst.length) {
+            return -1;
+        }
+        int tokenPos = op++;
+        int token = Math.min(litLen, 15) << 4;
+        if (litLen >= 15) {
+            op = writeLength(litLen - 15, dst, op);
+        }
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        if (matchLen > 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            int extra = matchLen - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) {
+                op = writeLength(extra - 15, dst, op);
+            }
+        }
+        dst[tokenPos] = (byte) token;
+        return op;
+    }
+
+    private static int writeLength(int len, byte[] dst, int op) {
+        while (len >= 255) {
+            dst[op++] = (byte) 255;
+            len -= 255;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static void checkBounds(boolean ok) {
+        if (!ok) {
+            throw new PageException("corrupt compressed page");
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of operation latencies with power-of-two buckets: bucket 0 counts latencies
+ * of 0ns, and bucket i > 0 counts latencies in [2^(i-1), 2^i) ns, with the last bucket also
+ * counting everything longer. Recording is lock-free, so the histogram may be read while it is
+ * being updated; a read may then miss some of the concurrent updates.
+ */
+public class LatencyHistogram {
+    // Number of buckets; the last covers everything from 2^38ns (about 4.5 minutes) up.
+    public static final int NUM_BUCKETS = 40;
+
+    private final LongAdder[] buckets;
+    private final LongAdder totalNanos;
+
+    LatencyHistogram() {
+        this.buckets = new LongAdder[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.totalNanos = new LongAdder();
+    }
+
+    /**
+     * Records one operation.
+     * @param nanos latency of the operation in nanoseconds
+     */
+    void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), NUM_BUCKETS - 1);
+        this.buckets[bucket].increment();
+        this.totalNanos.add(nanos);
+    }
+
+    /**
+     * @return number of operations recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @param bucket bucket index, from 0 to NUM_BUCKETS - 1
+     * @return number of operations recorded in the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return this.buckets[bucket].sum();
+    }
+
+    /**
+     * @param bucket bucket index, from 0 to NUM_BUCKETS - 1
+     * @return the (exclusive) upper bound in nanoseconds of latencies counted in the bucket
+     */
+    public static long getBucketUpperBound(int bucket) {
+        return 1L << bucket;
+    }
+
+    /**
+     * @return mean latency in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getMeanNanos() {
+        long count = this.getCount();
+        return count == 0 ? 0 : this.totalNanos.sum() / count;
+    }
+
+    /**
+     * Estimates a percentile of the recorded latencies, as the upper bound of the bucket that
+     * it falls into - so the estimate is at most a factor of two above the true value.
+     * @param percentile percentile to estimate, between 0 and 100
+     * @return estimated latency in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+        long[] counts = new long[NUM_BUCKETS];
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            counts[i] = this.buckets[i].sum();
+            count += counts[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return getBucketUpperBound(i);
+            }
+        }
+        return getBucketUpperBound(NUM_BUCKETS - 1);
+    }
+}
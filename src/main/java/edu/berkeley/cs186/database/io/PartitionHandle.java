@@ -3,47 +3,113 @@ package edu.berkeley.cs186.database.io;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.NoSuchElementException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static edu.berkeley.cs186.database.io.DiskSpaceManager.PAGE_SIZE;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
 import static edu.berkeley.cs186.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
 
 class PartitionHandle implements AutoCloseable {
-    // Lock on the partition.
-    ReentrantLock partitionLock;
+    // Size of each memory-mapped region of the OS file when using mapped I/O. Must be
+    // a multiple of the page size, so that no page straddles two regions.
+    static final long MAPPED_CHUNK_SIZE = 2048L * PAGE_SIZE; // 8M
+
+    // Number of contiguous data pages reserved at once for future allocations. Must divide
+    // the number of data pages per header page, and be a multiple of 8.
+    static final int EXTENT_SIZE = 64;
+
+    // Lock on the partition. Data page reads only need the lock in shared mode, since
+    // they use positional reads and never touch the channel's position; anything that
+    // writes to the file or changes the master/header pages needs it in exclusive mode.
+    ReentrantReadWriteLock partitionLock;
 
     // Underlying OS file/file channel.
     private RandomAccessFile file;
-    private FileChannel fileChannel;
+    FileChannel fileChannel;
 
     // Contents of the master page of this partition
     // Ideally would be an unsigned short array but Java doesn't have unsigned types
     private int[] masterPage;
 
     // Contents of the various header pages of this partition
-    private byte[][] headerPages;
+    byte[][] headerPages;
 
     // Recovery manager
-    private RecoveryManager recoveryManager;
+    RecoveryManager recoveryManager;
 
     // Partition number
-    private int partNum;
+    int partNum;
+
+    // I/O counters, updated by the disk space manager
+    PartitionIOStats ioStats;
+
+    // Whether data pages are read and written through memory-mapped regions of the
+    // OS file rather than through the file channel
+    private boolean mappedIO;
+
+    // Memory-mapped regions of the OS file, indexed by offset / MAPPED_CHUNK_SIZE. Regions
+    // are mapped lazily, and remapped when the file grows past the end of a region. The
+    // array is never modified once published, so concurrent readers can use it unlocked.
+    private volatile MappedByteBuffer[] mappedChunks;
+
+    // Data pages reserved for future allocations. Reservations are only kept in memory: a reserved
+    // page is unallocated in the header pages until it is handed out, so nothing is leaked if the
+    // partition is not closed cleanly.
+    private BitSet reservedPages;
+
+    // Whether pages are allocated from extents. The log partition allocates pages one at a time,
+    // since the log manager relies on log pages being allocated consecutively, even across crashes.
+    private boolean useExtents;
+
+    // Which data pages are allocated (and not merely reserved), as one bitmap of 64-bit words per
+    // header page, created when the header page is first used. Mirrors the header pages, but can be
+    // read without holding the partition lock; only changed with the lock held in exclusive mode.
+    private AtomicReferenceArray<AtomicLongArray> allocatedPages;
+
+    // Size of the steps the OS file is grown in when a write goes past its end, so that appends
+    // do not grow (and fragment) the file a page at a time. 0 grows the file only as far as each write.
+    private volatile long growthChunk;
+
+    // Length of the OS file, including space preallocated past the last write.
+    private long physicalEnd;
+
+    // End of the furthest write to the OS file. The file is truncated back to this on close.
+    private long logicalEnd;
 
-    PartitionHandle(int partNum, RecoveryManager recoveryManager) {
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean mappedIO) {
         this.masterPage = new int[MAX_HEADER_PAGES];
         this.headerPages = new byte[MAX_HEADER_PAGES][];
-        this.partitionLock = new ReentrantLock();
+        this.partitionLock = new ReentrantReadWriteLock();
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        this.ioStats = new PartitionIOStats();
+        this.mappedIO = mappedIO;
+        this.mappedChunks = new MappedByteBuffer[0];
+        this.reservedPages = new BitSet();
+        this.useExtents = partNum != LogManager.LOG_PARTITION;
+        this.allocatedPages = new AtomicReferenceArray<>(MAX_HEADER_PAGES);
+        this.growthChunk = 0;
+    }
+
+    /**
+     * Sets the size of the steps the OS file is grown in.
+     * @param growthChunk size in bytes, or 0 to grow the file only as far as each write
+     */
+    void setGrowthChunk(long growthChunk) {
+        this.growthChunk = growthChunk;
     }
 
     /**
@@ -66,14 +132,25 @@ class PartitionHandle implements AutoCloseable {
                 b.position(0);
                 for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
                     this.masterPage[i] = Short.toUnsignedInt(b.getShort());
-                    if (PartitionHandle.headerPageOffset(i) < length) {
+                    if (this.headerOffset(i) < length) {
                         // Load header pages that were already in the file
                         byte[] headerPage = new byte[PAGE_SIZE];
                         this.headerPages[i] = headerPage;
-                        this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
+                        this.fileChannel.read(ByteBuffer.wrap(headerPage), this.headerOffset(i));
+                        // pages handed out from an extent only write their header page, so the
+                        // count on the master page may be behind after a crash
+                        this.masterPage[i] = Bits.countBits(headerPage);
+                        for (int j = 0; j < DATA_PAGES_PER_HEADER; ++j) {
+                            if (Bits.getBit(headerPage, j) == Bits.Bit.ONE) {
+                                this.setAllocated(i * DATA_PAGES_PER_HEADER + j, true);
+                            }
+                        }
                     }
                 }
             }
+            // space preallocated before a crash is kept, since we cannot tell it apart from data
+            this.physicalEnd = this.file.length();
+            this.logicalEnd = this.physicalEnd;
         } catch (IOException e) {
             throw new PageException("Could not open or read file: " + e.getMessage());
         }
@@ -81,13 +158,22 @@ class PartitionHandle implements AutoCloseable {
 
     @Override
     public void close() throws IOException {
-        this.partitionLock.lock();
+        this.partitionLock.writeLock().lock();
         try {
+            this.releaseReservedPages();
+            // bring the counts written by allocations from extents up to date
+            this.writeMasterPage();
             Arrays.fill(this.headerPages, null);
+            // Mappings cannot be explicitly released; they are unmapped once collected.
+            this.mappedChunks = new MappedByteBuffer[0];
+            if (this.physicalEnd > this.logicalEnd) {
+                // give back space preallocated past the last write
+                this.file.setLength(this.logicalEnd);
+            }
             this.file.close();
             this.fileChannel.close();
         } finally {
-            this.partitionLock.unlock();
+            this.partitionLock.writeLock().unlock();
         }
     }
 
@@ -109,14 +195,40 @@ class PartitionHandle implements AutoCloseable {
      */
     private void writeHeaderPage(int headerIndex) throws IOException {
         ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex]);
-        this.fileChannel.write(b, PartitionHandle.headerPageOffset(headerIndex));
+        this.extendTo(this.headerOffset(headerIndex) + PAGE_SIZE);
+        this.fileChannel.write(b, this.headerOffset(headerIndex));
     }
 
     /**
-     * Allocates a new page in the partition.
+     * Prepares for a write ending at end: if the write goes past the end of the OS file, grows
+     * the file to the next multiple of the growth chunk size.
+     * @param end offset in OS file of the end of the write
+     */
+    void extendTo(long end) throws IOException {
+        long chunk = this.growthChunk;
+        if (end > this.physicalEnd && chunk > 0) {
+            long newLength = (end + chunk - 1) / chunk * chunk;
+            this.file.setLength(newLength);
+            this.physicalEnd = newLength;
+        }
+        this.physicalEnd = Math.max(this.physicalEnd, end);
+        this.logicalEnd = Math.max(this.logicalEnd, end);
+    }
+
+    /**
+     * Allocates a new page in the partition. Except in the log partition, pages are handed out
+     * from reserved extents, reserving the next extent when none are left.
      * @return data page number
      */
     int allocPage() throws IOException {
+        if (this.useExtents) {
+            int reservedPage = this.reservedPages.nextSetBit(0);
+            if (reservedPage < 0 && !this.reserveExtent()) {
+                throw new PageException("no free pages - partition has reached max size");
+            }
+            return this.allocReservedPage(this.reservedPages.nextSetBit(0));
+        }
+
         int headerIndex = -1;
         for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
             if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
@@ -155,6 +267,9 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
+        if (this.reservedPages.get(pageIndex + headerIndex * DATA_PAGES_PER_HEADER)) {
+            return this.allocReservedPage(pageIndex + headerIndex * DATA_PAGES_PER_HEADER);
+        }
         byte[] headerBytes = this.headerPages[headerIndex];
         if (headerBytes == null) {
             headerBytes = new byte[PAGE_SIZE];
@@ -172,16 +287,89 @@ class PartitionHandle implements AutoCloseable {
 
         int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
 
+        this.logAllocPage(pageNum);
+        this.writeMasterPage();
+        this.writeHeaderPage(headerIndex);
+        this.setAllocated(pageNum, true);
+
+        return pageNum;
+    }
+
+    /**
+     * Hands out a reserved page, writing its header page. The master page is not written: its
+     * counts are recomputed from the header pages on open, and written out on close.
+     * @param pageNum data page number of a reserved page
+     * @return data page number
+     */
+    private int allocReservedPage(int pageNum) throws IOException {
+        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
+        byte[] headerBytes = this.headerPages[headerIndex];
+        this.reservedPages.clear(pageNum);
+        Bits.setBit(headerBytes, pageNum % DATA_PAGES_PER_HEADER, Bits.Bit.ONE);
+        ++this.masterPage[headerIndex];
+
+        this.logAllocPage(pageNum);
+        this.writeHeaderPage(headerIndex);
+        this.setAllocated(pageNum, true);
+        return pageNum;
+    }
+
+    /**
+     * Logs the allocation of a page, if in a transaction.
+     * @param pageNum data page number
+     */
+    private void logAllocPage(int pageNum) {
         TransactionContext transaction = TransactionContext.getTransaction();
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         if (transaction != null) {
             recoveryManager.logAllocPage(transaction.getTransNum(), vpn);
         }
         recoveryManager.diskIOHook(vpn);
-        this.writeMasterPage();
-        this.writeHeaderPage(headerIndex);
+    }
 
-        return pageNum;
+    /**
+     * Reserves the unallocated pages of the first extent (an EXTENT_SIZE-aligned run of data
+     * pages) that has any, so that they are handed out in order. Nothing is written to disk.
+     * @return whether there were any unallocated pages to reserve
+     */
+    private boolean reserveExtent() throws IOException {
+        for (int headerIndex = 0; headerIndex < MAX_HEADER_PAGES; ++headerIndex) {
+            if (this.masterPage[headerIndex] >= DATA_PAGES_PER_HEADER) {
+                continue;
+            }
+            byte[] headerBytes = this.headerPages[headerIndex];
+            if (headerBytes == null) {
+                headerBytes = new byte[PAGE_SIZE];
+                this.headerPages[headerIndex] = headerBytes;
+            }
+            for (int start = 0; start < DATA_PAGES_PER_HEADER; start += EXTENT_SIZE) {
+                // an aligned extent covers whole bytes of the bitmap
+                boolean full = true;
+                for (int i = start / 8; i < (start + EXTENT_SIZE) / 8; ++i) {
+                    if (headerBytes[i] != (byte) 0xFF) {
+                        full = false;
+                        break;
+                    }
+                }
+                if (full) {
+                    continue;
+                }
+                for (int i = start; i < start + EXTENT_SIZE; ++i) {
+                    if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
+                        this.reservedPages.set(headerIndex * DATA_PAGES_PER_HEADER + i);
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases all reserved pages. They are unallocated in the header pages already.
+     */
+    private void releaseReservedPages() {
+        this.reservedPages.clear();
     }
 
     /**
@@ -224,6 +412,7 @@ class PartitionHandle implements AutoCloseable {
             recoveryManager.logFreePage(transaction.getTransNum(), vpn);
         }
         recoveryManager.diskIOHook(vpn);
+        this.setAllocated(pageNum, false);
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ZERO);
         this.masterPage[headerIndex] = Bits.countBits(headerBytes);
         this.writeMasterPage();
@@ -231,35 +420,216 @@ class PartitionHandle implements AutoCloseable {
     }
 
     /**
-     * Reads in a data page. Assumes that the partition lock is held.
+     * Reads in a data page. Assumes that the partition lock is held in at least shared mode.
      * @param pageNum data page number to read in
      * @param buf output buffer to be filled with page - assumed to be page size
      */
     void readPage(int pageNum, byte[] buf) throws IOException {
+        this.readPage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Reads in a data page directly into a buffer, which need not be backed by an array.
+     * Assumes that the partition lock is held in at least shared mode.
+     * @param pageNum data page number to read in
+     * @param buf output buffer whose first PAGE_SIZE bytes are filled with page (its position
+     *            and limit are left unchanged)
+     */
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
+        ByteBuffer b = (ByteBuffer) buf.duplicate().clear().limit(PAGE_SIZE);
+        if (this.mappedIO) {
+            this.readMappedPage(PartitionHandle.dataPageOffset(pageNum), b);
+            return;
+        }
+        long offset = PartitionHandle.dataPageOffset(pageNum);
+        this.ioStats.recordFileRead();
+        while (b.hasRemaining()) {
+            if (this.fileChannel.read(b, offset + b.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads in a run of consecutive data pages. Pages managed by the same header page are
+     * physically contiguous in the OS file, so each such stretch of the run is read with a
+     * single positional read. Assumes that the partition lock is held in at least shared mode.
+     * @param pageNum data page number of the first page to read in
+     * @param count number of pages to read in
+     * @param bufs output buffers to be filled with pages - assumed to be page size
+     */
+    void readPages(int pageNum, int count, byte[][] bufs) throws IOException {
+        ByteBuffer[] wrapped = new ByteBuffer[count];
+        for (int i = 0; i < count; ++i) {
+            wrapped[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        this.readPages(pageNum, count, wrapped);
     }
 
     /**
-     * Writes to a data page. Assumes that the partition lock is held.
+     * Reads in a run of consecutive data pages directly into buffers, which need not be backed
+     * by arrays, with one positional read per stretch of the run managed by the same header page.
+     * Assumes that the partition lock is held in at least shared mode.
+     * @param pageNum data page number of the first page to read in
+     * @param count number of pages to read in
+     * @param bufs output buffers to be filled with pages, as in readPage(int, ByteBuffer)
+     */
+    void readPages(int pageNum, int count, ByteBuffer[] bufs) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            if (this.isNotAllocatedPage(pageNum + i)) {
+                throw new PageException("page " + (pageNum + i) + " is not allocated");
+            }
+        }
+        int start = 0;
+        while (start < count) {
+            // a stretch ends at the last data page managed by the current header page
+            int headerEnd = (pageNum + start) / DATA_PAGES_PER_HEADER * DATA_PAGES_PER_HEADER
+                            + DATA_PAGES_PER_HEADER;
+            int end = Math.min(count, headerEnd - pageNum);
+            long offset = PartitionHandle.dataPageOffset(pageNum + start);
+            if (this.mappedIO) {
+                for (int i = start; i < end; ++i) {
+                    this.readMappedPage(offset + (long) (i - start) * PAGE_SIZE,
+                                        (ByteBuffer) bufs[i].duplicate().clear().limit(PAGE_SIZE));
+                }
+            } else {
+                // scattering reads go through the channel's shared position, so read the
+                // stretch positionally into one buffer and split it up afterwards instead
+                ByteBuffer stretch = ByteBuffer.allocate((end - start) * PAGE_SIZE);
+                this.ioStats.recordFileRead();
+                while (stretch.hasRemaining()) {
+                    if (this.fileChannel.read(stretch, offset + stretch.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = start; i < end; ++i) {
+                    stretch.limit((i - start + 1) * PAGE_SIZE).position((i - start) * PAGE_SIZE);
+                    ((ByteBuffer) bufs[i].duplicate().clear().limit(PAGE_SIZE)).put(stretch);
+                }
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Writes to a data page. Assumes that the partition lock is held in exclusive mode.
      * @param pageNum data page number to write to
      * @param buf input buffer with new contents of page - assumed to be page size
      */
     void writePage(int pageNum, byte[] buf) throws IOException {
+        this.writePage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Writes to a data page directly from a buffer, which need not be backed by an array.
+     * Assumes that the partition lock is held in exclusive mode.
+     * @param pageNum data page number to write to
+     * @param buf input buffer whose first PAGE_SIZE bytes are the new contents of page (its
+     *            position and limit are left unchanged)
+     */
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
+        this.extendTo(PartitionHandle.dataPageOffset(pageNum) + PAGE_SIZE);
+        ByteBuffer b = (ByteBuffer) buf.duplicate().clear().limit(PAGE_SIZE);
+        if (this.mappedIO) {
+            this.writeMappedPage(PartitionHandle.dataPageOffset(pageNum), b);
+        } else {
+            long offset = PartitionHandle.dataPageOffset(pageNum);
+            while (b.hasRemaining()) {
+                this.fileChannel.write(b, offset + b.position());
+            }
+            this.fileChannel.force(false);
+        }
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Copies a page out of the mapped region of the file containing it.
+     * @param offset offset in OS file of the page
+     * @param buf output buffer to be filled with page, from its position to its limit
+     */
+    private void readMappedPage(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = this.mappedChunk(offset, false).duplicate();
+        b.position((int) (offset % MAPPED_CHUNK_SIZE));
+        b.limit(b.position() + PAGE_SIZE);
+        buf.put(b);
+    }
+
+    /**
+     * Copies a page into the mapped region of the file containing it, extending the file
+     * if necessary, and forces the region to disk.
+     * @param offset offset in OS file of the page
+     * @param buf input buffer with new contents of page, from its position to its limit
+     */
+    private void writeMappedPage(long offset, ByteBuffer buf) throws IOException {
+        MappedByteBuffer chunk = this.mappedChunk(offset, true);
+        ByteBuffer b = chunk.duplicate();
+        b.position((int) (offset % MAPPED_CHUNK_SIZE));
+        b.put(buf);
+        // force must be called on the mapping itself - duplicates do not flush
+        chunk.force();
+    }
+
+    /**
+     * Gets the mapped region of the file containing the page at offset, mapping (or remapping
+     * a region that has since grown) as necessary.
+     * @param offset offset in OS file of the page
+     * @param extend whether to extend the file if the page lies past its end
+     * @return mapped region containing the entire page
+     */
+    private MappedByteBuffer mappedChunk(long offset, boolean extend) throws IOException {
+        int chunkIndex = (int) (offset / MAPPED_CHUNK_SIZE);
+        long required = offset + PAGE_SIZE - chunkIndex * MAPPED_CHUNK_SIZE;
+        MappedByteBuffer[] chunks = this.mappedChunks;
+        if (chunkIndex < chunks.length) {
+            MappedByteBuffer chunk = chunks[chunkIndex];
+            if (chunk != null && chunk.capacity() >= required) {
+                return chunk;
+            }
+        }
+        return this.remapChunk(offset, extend);
+    }
+
+    /**
+     * Maps the region of the file containing the page at offset, and publishes a new copy of
+     * the region array containing it. Synchronized, since readers holding the partition lock
+     * in shared mode may race to map the same region.
+     * @param offset offset in OS file of the page
+     * @param extend whether to extend the file if the page lies past its end
+     * @return mapped region containing the entire page
+     */
+    private synchronized MappedByteBuffer remapChunk(long offset, boolean extend) throws IOException {
+        int chunkIndex = (int) (offset / MAPPED_CHUNK_SIZE);
+        long chunkStart = chunkIndex * MAPPED_CHUNK_SIZE;
+        long required = offset + PAGE_SIZE - chunkStart;
+        MappedByteBuffer[] chunks = Arrays.copyOf(this.mappedChunks,
+                                                  Math.max(this.mappedChunks.length, chunkIndex + 1));
+        MappedByteBuffer chunk = chunks[chunkIndex];
+        if (chunk == null || chunk.capacity() < required) {
+            long length = this.fileChannel.size();
+            if (length < offset + PAGE_SIZE) {
+                if (!extend) {
+                    throw new PageException("page at offset " + offset + " is past the end of the file");
+                }
+                // mapping past the end of the file is not allowed, so grow it first
+                this.file.setLength(offset + PAGE_SIZE);
+                length = offset + PAGE_SIZE;
+            }
+            long size = Math.min(MAPPED_CHUNK_SIZE, length - chunkStart);
+            chunk = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, chunkStart, size);
+            chunks[chunkIndex] = chunk;
+            this.mappedChunks = chunks;
+        }
+        return chunk;
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
@@ -277,6 +647,95 @@ class PartitionHandle implements AutoCloseable {
         return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO;
     }
 
+    /**
+     * Checks if page number is for an allocated data page, without needing the partition lock.
+     * @param pageNum data page number
+     * @return true if the page is allocated (and not just reserved), false otherwise
+     */
+    boolean isAllocatedPage(int pageNum) {
+        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
+        if (headerIndex < 0 || headerIndex >= MAX_HEADER_PAGES) {
+            return false;
+        }
+        AtomicLongArray bitmap = this.allocatedPages.get(headerIndex);
+        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        return bitmap != null && (bitmap.get(pageIndex / 64) & (1L << (pageIndex % 64))) != 0;
+    }
+
+    /**
+     * Updates the lock-free allocation bitmap. Assumes that the partition lock is held in exclusive
+     * mode (or that the partition is not yet visible to other threads), so there is only ever one
+     * writer, and each word can be replaced outright.
+     */
+    private void setAllocated(int pageNum, boolean allocated) {
+        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
+        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        AtomicLongArray bitmap = this.allocatedPages.get(headerIndex);
+        if (bitmap == null) {
+            bitmap = new AtomicLongArray(DATA_PAGES_PER_HEADER / 64);
+            this.allocatedPages.set(headerIndex, bitmap);
+        }
+        long mask = 1L << (pageIndex % 64);
+        long word = bitmap.get(pageIndex / 64);
+        bitmap.set(pageIndex / 64, allocated ? word | mask : word & ~mask);
+    }
+
+    /**
+     * Truncates the OS file after the last allocated data page, if that leaves it shorter than the
+     * data written so far. Unused reservations are released first if they may lie past the new
+     * end, or if there are free pages below the last allocated page (so that those are handed
+     * out first from now on). Assumes that the partition lock is held in exclusive mode.
+     */
+    void shrink() throws IOException {
+        int lastPage = this.lastAllocatedPage();
+        int numAllocated = 0;
+        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            AtomicLongArray bitmap = this.allocatedPages.get(i);
+            for (int w = 0; bitmap != null && w < bitmap.length(); ++w) {
+                numAllocated += Long.bitCount(bitmap.get(w));
+            }
+        }
+        if (numAllocated <= lastPage) {
+            this.releaseReservedPages();
+        }
+        // if no pages are allocated, only the master page is kept
+        long end = lastPage < 0 ? PAGE_SIZE : PartitionHandle.dataPageOffset(lastPage) + PAGE_SIZE;
+        if (end >= this.logicalEnd) {
+            return;
+        }
+        this.releaseReservedPages();
+        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+            if (this.headerOffset(i) >= end) {
+                // no allocated pages left under these; they are recreated when next used
+                this.headerPages[i] = null;
+            }
+        }
+        // mappings past the new end must not be touched again
+        this.mappedChunks = new MappedByteBuffer[0];
+        this.file.setLength(end);
+        this.physicalEnd = end;
+        this.logicalEnd = end;
+    }
+
+    /**
+     * @return highest allocated (and not merely reserved) data page number, or -1 if none are
+     */
+    private int lastAllocatedPage() {
+        for (int i = MAX_HEADER_PAGES - 1; i >= 0; --i) {
+            AtomicLongArray bitmap = this.allocatedPages.get(i);
+            if (bitmap == null) {
+                continue;
+            }
+            for (int w = bitmap.length() - 1; w >= 0; --w) {
+                long word = bitmap.get(w);
+                if (word != 0) {
+                    return i * DATA_PAGES_PER_HEADER + w * 64 + 63 - Long.numberOfLeadingZeros(word);
+                }
+            }
+        }
+        return -1;
+    }
+
     /**
      * Frees all data pages from partition for use
      * @throws IOException
@@ -294,6 +753,14 @@ class PartitionHandle implements AutoCloseable {
         }
     }
 
+    /**
+     * @param headerIndex which header page
+     * @return offset in OS file for header page, in this partition's file layout
+     */
+    long headerOffset(int headerIndex) {
+        return PartitionHandle.headerPageOffset(headerIndex);
+    }
+
     /**
      * @return offset in OS file for master page
      */
@@ -322,7 +789,7 @@ class PartitionHandle implements AutoCloseable {
      * @param pageNum data page number
      * @return offset in OS file for data page
      */
-    private static long dataPageOffset(int pageNum) {
+    static long dataPageOffset(int pageNum) {
         // Consider the layout if we had 4 data pages per header:
         // Offset (in pages):  0  1  2  3  4  5  6  7  8  9 10
         // Page Type:         [M][H][D][D][D][D][H][D][D][D][D]
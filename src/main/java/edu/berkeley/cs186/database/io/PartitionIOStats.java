@@ -0,0 +1,128 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O counters for a single partition: data page reads and writes (with the bytes transferred,
+ * and latency histograms), and page allocations and frees. Counters are lock-free, so they are
+ * cheap to update on every I/O and may be sampled while the database is running.
+ *
+ * Bytes are counted as page bytes transferred to and from the caller, so pages of compressed
+ * partitions count as a full page each, whatever their size on disk.
+ */
+public class PartitionIOStats {
+    private final LongAdder reads;
+    private final LongAdder writes;
+    private final LongAdder bytesRead;
+    private final LongAdder bytesWritten;
+    private final LongAdder allocs;
+    private final LongAdder frees;
+    // reads issued to the OS file, each of which may cover several pages
+    private final LongAdder fileReads;
+    // latency of each read call, which may read several pages
+    private final LatencyHistogram readLatency;
+    private final LatencyHistogram writeLatency;
+
+    PartitionIOStats() {
+        this.reads = new LongAdder();
+        this.writes = new LongAdder();
+        this.bytesRead = new LongAdder();
+        this.bytesWritten = new LongAdder();
+        this.allocs = new LongAdder();
+        this.frees = new LongAdder();
+        this.fileReads = new LongAdder();
+        this.readLatency = new LatencyHistogram();
+        this.writeLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Records a read of one or more consecutive pages.
+     * @param numPages number of pages read
+     * @param nanos latency of the read in nanoseconds
+     */
+    void recordRead(int numPages, long nanos) {
+        this.reads.add(numPages);
+        this.bytesRead.add((long) numPages * DiskSpaceManager.PAGE_SIZE);
+        this.readLatency.record(nanos);
+    }
+
+    /**
+     * Records a write of one page.
+     * @param nanos latency of the write in nanoseconds
+     */
+    void recordWrite(long nanos) {
+        this.writes.increment();
+        this.bytesWritten.add(DiskSpaceManager.PAGE_SIZE);
+        this.writeLatency.record(nanos);
+    }
+
+    void recordFileRead() {
+        this.fileReads.increment();
+    }
+
+    void recordAlloc() {
+        this.allocs.increment();
+    }
+
+    void recordFree() {
+        this.frees.increment();
+    }
+
+    /**
+     * @return number of data pages read
+     */
+    public long getReads() {
+        return this.reads.sum();
+    }
+
+    /**
+     * @return number of data pages written
+     */
+    public long getWrites() {
+        return this.writes.sum();
+    }
+
+    /**
+     * @return number of reads issued to the partition's OS file: a run of pages read with one
+     * read counts once, and pages copied out of memory-mapped regions are not counted
+     */
+    public long getFileReads() {
+        return this.fileReads.sum();
+    }
+
+    public long getBytesRead() {
+        return this.bytesRead.sum();
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    /**
+     * @return number of data pages allocated
+     */
+    public long getAllocs() {
+        return this.allocs.sum();
+    }
+
+    /**
+     * @return number of data pages freed
+     */
+    public long getFrees() {
+        return this.frees.sum();
+    }
+
+    public LatencyHistogram getReadLatency() {
+        return this.readLatency;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return this.writeLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionIOStats(reads=" + getReads() + ", writes=" + getWrites() + ", allocs=" +
+               getAllocs() + ", frees=" + getFrees() + ")";
+    }
+}
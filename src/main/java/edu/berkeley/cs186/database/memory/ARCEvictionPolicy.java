@@ -0,0 +1,136 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy. Frames are split
+ * between pages referenced once since being loaded (T1) and pages referenced at least twice
+ * (T2), each in LRU order, and the page numbers of pages recently evicted from each are
+ * remembered (B1 and B2). Loading a page that was recently evicted from T1 grows the target
+ * size of T1, and loading one recently evicted from T2 shrinks it, so the split adapts to
+ * whether the workload favours recency or frequency. Pages that are only used once, such as
+ * those of a large sequential scan, stay on T1 and do not displace the pages on T2.
+ *
+ * Repeated hits on a frame, with no hits on other frames in between, count as a single reference
+ * (e.g. reading several records of a page one after another).
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    private FrameList t1;
+    private FrameList t2;
+    private PageHistory b1;
+    private PageHistory b2;
+
+    // Target size of T1
+    private int target;
+
+    // Number of frames, as of the last call to evict
+    private int numFrames;
+
+    // Frame hit most recently
+    private BufferFrame lastHit;
+
+    // Frame returned by the last call to evict, until it is cleaned up
+    private BufferFrame evicting;
+
+    public ARCEvictionPolicy() {
+        this.t1 = new FrameList();
+        this.t2 = new FrameList();
+        this.b1 = new PageHistory();
+        this.b2 = new PageHistory();
+        this.target = 0;
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public void init(BufferFrame frame) {
+        FrameList.Node node = new FrameList.Node(frame);
+        frame.tag = node;
+        long pageNum = frame.getPageNum();
+        if (this.b1.remove(pageNum)) {
+            this.target = Math.min(this.numFrames, this.target + Math.max(1, this.b2.size() / (this.b1.size() + 1)));
+            this.t2.addLast(node);
+        } else if (this.b2.remove(pageNum)) {
+            this.target = Math.max(0, this.target - Math.max(1, this.b1.size() / (this.b2.size() + 1)));
+            this.t2.addLast(node);
+        } else {
+            this.t1.addLast(node);
+        }
+        // the read that follows loading the page is part of the same reference
+        this.lastHit = frame;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        if (frame == this.lastHit) {
+            return;
+        }
+        this.lastHit = frame;
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (node.list == this.t1) {
+            this.t1.remove(node);
+            this.t2.addLast(node);
+        } else if (node.list == this.t2) {
+            this.t2.moveToLast(node);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (whose length changes if the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        FrameList.Node node = null;
+        if (this.t1.size() > this.target) {
+            node = this.t1.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.t2.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.t1.firstUnpinned();
+        }
+        if (node == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        this.evicting = node.cur;
+        return node.cur;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public void cleanup(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (frame == this.evicting) {
+            // T1 and B1 together hold at most as many pages as there are frames, and all four
+            // lists at most twice as many
+            if (node.list == this.t1) {
+                this.b1.add(frame.getPageNum(), this.numFrames - this.t1.size() + 1);
+            } else {
+                this.b2.add(frame.getPageNum(), 2 * this.numFrames - this.t1.size() - this.t2.size()
+                            - this.b1.size() + 1);
+            }
+            this.evicting = null;
+        }
+        if (frame == this.lastHit) {
+            this.lastHit = null;
+        }
+        if (node.list != null) {
+            node.list.remove(node);
+        }
+    }
+}
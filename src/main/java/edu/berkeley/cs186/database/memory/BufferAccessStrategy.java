@@ -0,0 +1,70 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Strategy for how an operation that uses many pages once, such as a large sequential scan or
+ * the runs and partitions spilled by a sort or a hash join, loads pages into the buffer pool.
+ * A ring strategy loads the operation's pages into a small, private ring of frames instead of
+ * evicting the pages that everything else is using: once the ring is full, loading another page
+ * reuses the frame of the page loaded longest ago, as long as that page has not been evicted
+ * since and is not pinned. Otherwise, the page is loaded as usual, and its frame takes that
+ * page's place in the ring. Pages that are already loaded are used where they are.
+ *
+ * Each strategy may only be used by one operation at a time.
+ */
+public class BufferAccessStrategy {
+    // Frames of the pages loaded most recently, in the order they were loaded (oldest at next)
+    private BufferManager.Frame[] ring;
+
+    // Generation of each frame of the ring when the page was loaded into it
+    private int[] generations;
+
+    // Index of the ring slot to reuse next
+    private int next;
+
+    private BufferAccessStrategy(int ringSize) {
+        this.ring = new BufferManager.Frame[ringSize];
+        this.generations = new int[ringSize];
+        this.next = 0;
+    }
+
+    /**
+     * Creates a strategy that loads pages into a private ring of frames.
+     *
+     * @param ringSize number of frames in the ring
+     * @return the strategy
+     */
+    public static BufferAccessStrategy ring(int ringSize) {
+        if (ringSize < 1) {
+            throw new IllegalArgumentException("ring size must be positive");
+        }
+        return new BufferAccessStrategy(ringSize);
+    }
+
+    /**
+     * @return number of frames in the ring
+     */
+    public int getRingSize() {
+        return this.ring.length;
+    }
+
+    /**
+     * @return frame in the slot to reuse next, or null if the slot is empty or the frame has
+     * been reused for another page since
+     */
+    BufferManager.Frame nextFrame() {
+        BufferManager.Frame frame = this.ring[this.next];
+        if (frame == null || frame.getGeneration() != this.generations[this.next]) {
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Puts a newly loaded frame in the slot to reuse next, and moves on to the following slot.
+     */
+    void add(BufferManager.Frame frame) {
+        this.ring[this.next] = frame;
+        this.generations[this.next] = frame.getGeneration();
+        this.next = (this.next + 1) % this.ring.length;
+    }
+}
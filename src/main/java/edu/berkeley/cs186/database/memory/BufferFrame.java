@@ -1,35 +1,37 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
  */
 abstract class BufferFrame {
     Object tag = null;
-    private int pinCount = 0;
+    // atomic, so that whether the frame is pinned can be checked without latching it
+    private final AtomicInteger pinCount = new AtomicInteger();
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        pinCount.incrementAndGet();
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
+        if (pinCount.getAndUpdate(n -> n > 0 ? n - 1 : n) == 0) {
             throw new IllegalStateException("cannot unpin unpinned frame");
         }
-        --pinCount;
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
     }
 
     /**
@@ -42,6 +44,17 @@ abstract class BufferFrame {
      */
     abstract long getPageNum();
 
+    /**
+     * Gets the generation of the frame, which moves on whenever the frame is reused for another
+     * page, so that a page handle can tell whether the frame still holds its page. Frames that
+     * are never reused stay at generation 0.
+     *
+     * @return generation of this frame
+     */
+    int getGeneration() {
+        return 0;
+    }
+
     /**
      * Flushes this buffer frame to disk, but does not unload it.
      */
@@ -55,6 +68,33 @@ abstract class BufferFrame {
      */
     abstract void readBytes(short position, short num, byte[] buf);
 
+    /**
+     * Read from the buffer frame, if it still holds the page it held at the given generation.
+     * Frames that are never reused ignore the generation.
+     * @param generation generation of the frame when it held the page to read
+     * @param position position in buffer frame to start reading
+     * @param num number of bytes to read
+     * @param buf output buffer
+     */
+    void readBytes(int generation, short position, short num, byte[] buf) {
+        this.readBytes(position, num, buf);
+    }
+
+    /**
+     * Reads from the buffer frame without pinning it. The read only succeeds if the frame is
+     * valid, still at the given generation, and nothing writes to it in the meantime; otherwise,
+     * buf may be left with any contents. Frames that do not support unpinned reads always fail.
+     *
+     * @param generation generation of the frame when it held the page to read
+     * @param position position in buffer frame to start reading
+     * @param num number of bytes to read
+     * @param buf output buffer
+     * @return whether the read succeeded
+     */
+    boolean tryReadBytes(int generation, short position, short num, byte[] buf) {
+        return false;
+    }
+
     /**
      * Write to the buffer frame, and mark frame as dirtied.
      * @param position position in buffer frame to start writing
@@ -63,12 +103,37 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Write to the buffer frame, if it still holds the page it held at the given generation, and
+     * mark frame as dirtied. Frames that are never reused ignore the generation.
+     * @param generation generation of the frame when it held the page to write
+     * @param position position in buffer frame to start writing
+     * @param num number of bytes to write
+     * @param buf input buffer
+     */
+    void writeBytes(int generation, short position, short num, byte[] buf) {
+        this.writeBytes(position, num, buf);
+    }
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
      */
     abstract BufferFrame requestValidFrame();
 
+    /**
+     * Requests a valid Frame object for a page that this frame held at some generation (if the
+     * frame has been reused for another page since, the frame the page is loaded into is
+     * returned). Frame is pinned on return. Frames that are never reused return
+     * requestValidFrame().
+     *
+     * @param pageNum page number of the page
+     * @param generation generation of the frame when it held the page
+     */
+    BufferFrame requestValidFrame(long pageNum, int generation) {
+        return this.requestValidFrame();
+    }
+
     /**
      * @return amount of space available to user of the frame
      */
@@ -81,8 +146,26 @@ abstract class BufferFrame {
      */
     abstract void setPageLSN(long pageLSN);
 
+    /**
+     * @param generation generation of the frame when it held the page; frames that are never
+     *                   reused ignore it
+     * @param pageLSN new pageLSN of the page
+     */
+    void setPageLSN(int generation, long pageLSN) {
+        this.setPageLSN(pageLSN);
+    }
+
     /**
      * @return pageLSN of the page loaded in this frame
      */
     abstract long getPageLSN();
+
+    /**
+     * @param generation generation of the frame when it held the page; frames that are never
+     *                   reused ignore it
+     * @return pageLSN of the page
+     */
+    long getPageLSN(int generation) {
+        return this.getPageLSN();
+    }
 }
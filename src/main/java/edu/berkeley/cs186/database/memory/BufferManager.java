@@ -8,17 +8,57 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.LogManager;
 import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
- * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * Data is stored in page-sized byte buffers, and returned in a Frame object that lives as
+ * long as its buffer: evicting a page and loading another one into the frame resets the
+ * Frame object for the new page, so that loading a page allocates nothing. Each reset
+ * moves the frame on to a new generation, which page handles check to tell whether the
+ * frame still holds their page. Freeing a page is the exception, as the page may still be
+ * pinned: the Frame object of a freed page is left marked as freed, and replaced by a new
+ * one backed by the same buffer.
+ *
+ * Frame buffers are byte arrays on the heap by default. Off-heap, they are instead slices of a
+ * few large direct buffers (slabs), which the garbage collector never scans or moves, so that
+ * large buffer pools do not lengthen GC pauses; pages are read and written straight from and to
+ * the slabs. Off-heap buffer pools are limited by the JVM's maximum direct memory size
+ * (-XX:MaxDirectMemorySize) rather than its heap size.
+ *
+ * If the disk space manager supports asynchronous I/O, dirty pages evicted to make room for
+ * another page are written back asynchronously: the page's contents are copied out so that
+ * the frame can be reused immediately, and loading the evicted page again waits for its
+ * write-back to complete. Log pages are always written back before their frame is reused, since
+ * a commit must not return before its log records are on disk.
+ *
+ * The buffer pool may be split into shards: independent sub-pools that each cache the pages
+ * whose numbers hash to them, with their own frames, page table, free list, eviction policy and
+ * lock. Fetches of pages in different shards never contend with each other, at the cost of each
+ * shard evicting only from its own frames. By default, the buffer pool is a single shard.
+ *
+ * A background page cleaner may be started to write dirty pages out ahead of eviction, so that
+ * loading a page rarely has to wait for the write of the page it replaces.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
@@ -29,61 +69,187 @@ public class BufferManager implements AutoCloseable {
     // Effective page size available to users of buffer manager.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // Number of consecutive pages of a partition that must be fetched in a row to start read-ahead
+    private static final int READ_AHEAD_TRIGGER = 2;
 
-    // Reference to the disk space manager underneath this buffer manager instance.
-    private DiskSpaceManager diskSpaceManager;
+    // Number of pages the first read-ahead of a sequential run loads
+    private static final int READ_AHEAD_INITIAL_WINDOW = 4;
+
+    // Maximum number of frames a shard retires at a time while the buffer pool shrinks
+    private static final int RESIZE_BATCH = 16;
+
+    // Maximum number of pages a warm-up of the buffer pool reads at once
+    private static final int WARM_UP_BATCH = 32;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Maximum number of frames that share a slab of direct memory, in off-heap buffer pools
+    private static final int SLAB_FRAMES = 16384;
 
-    // Lock on buffer manager
-    private ReentrantLock managerLock;
+    // Shards of the buffer pool
+    private Shard[] shards;
 
-    // Eviction policy
-    private EvictionPolicy evictionPolicy;
+    // Whether frames are stored off-heap, in direct buffers
+    private final boolean offHeap;
 
-    // Index of first free frame
-    private int firstFreeIndex;
+    // Reference to the disk space manager underneath this buffer manager instance.
+    private DiskSpaceManager diskSpaceManager;
 
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Count of number of I/Os
-    private long numIOs = 0;
+    private AtomicLong numIOs = new AtomicLong();
+
+    // Number of pages sequential scans load per read
+    private int readBatchSize = 1;
+
+    // Whether evicted dirty pages are written back without waiting for the write
+    private boolean asyncWriteBack;
+
+    // Write-backs of evicted pages that have not completed yet, by page number
+    private Map<Long, CompletableFuture<Void>> pendingWrites;
+
+    // Thread that asynchronous prefetches run on, created on first use
+    private ExecutorService prefetchExecutor;
+
+    // Background page cleaner, if running
+    private Thread cleanerThread;
+
+    // Counted down to stop the page cleaner
+    private CountDownLatch stopCleaner;
+
+    // Number of pages written by the page cleaner
+    private AtomicLong cleanerWrites = new AtomicLong();
+
+    // Number of dirty frames the page cleaner's last pass left for lack of budget
+    private volatile int cleanerBacklog;
+
+    // Number of evictions of frames that were only clean because the page cleaner wrote them
+    private AtomicLong foregroundWritesAvoided = new AtomicLong();
+
+    // Trace that fetched pages are recorded to, if any
+    private volatile PageTrace pageTrace;
+
+    // Maximum number of pages a read-ahead loads, or 0 if read-ahead is off
+    private volatile int maxReadAhead;
+
+    // Sequential run of page fetches in each partition, for read-ahead
+    private Map<Integer, SequentialRun> sequentialRuns = new ConcurrentHashMap<>();
+
+    // Counters for the whole buffer pool
+    private final BufferPoolStats stats = new BufferPoolStats();
+
+    // Counters for the pages of each partition
+    private final Map<Integer, BufferPoolStats> partitionStats = new ConcurrentHashMap<>();
+
+    // File that loaded pages are listed in, to warm up the buffer pool after a restart
+    private volatile Path warmUpFile;
+
+    // Background warm-up of the buffer pool, if one was started
+    private Thread warmUpThread;
+
+    // Completes once the background warm-up is done
+    private CompletableFuture<Void> warmUp;
+
+    // Set to stop the background warm-up (which is not interrupted, as that would close the
+    // file channels of the partitions it is reading)
+    private volatile boolean stopWarmUp;
+
+    /**
+     * Pages fetched from a partition one after the other, as tracked to detect sequential access.
+     */
+    private static class SequentialRun {
+        // page fetched last
+        long lastPage = DiskSpaceManager.INVALID_PAGE_NUM;
+        // number of consecutive pages fetched in a row, up to and including lastPage
+        int length;
+        // number of pages the next read-ahead loads
+        int window;
+        // page after the last page read ahead
+        long readAheadEnd;
+    }
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
+     * underlying page-sized buffer. Free frames use the index field to create a (singly) linked
      * list between free frames.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
+        ByteBuffer contents;
         private int index;
         private long pageNum;
         private boolean dirty;
         private ReentrantLock frameLock;
         private boolean logPage;
+        private Shard shard;
+        // set when the page cleaner writes the frame, and cleared when it is next written to
+        private boolean cleaned;
+        // set when the frame is evicted with asynchronous write-back; completed once written back
+        private CompletableFuture<Void> writeBack;
+        // seqlock for unpinned reads: write-locked while the contents change, from creation until
+        // the page is loaded, and for good once the frame is invalidated or freed
+        private final StampedLock version;
+        // System.nanoTime() of the last fetch of the page, to list pages by recency for warm-up
+        private long lastFetched;
+        // incremented whenever the page is unloaded from the frame, except when it is freed
+        private volatile int generation;
 
-        Frame(byte[] contents, int nextFree) {
-            this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
+        Frame(Shard shard, ByteBuffer contents, int nextFree) {
+            this(shard, contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM, 0);
         }
 
         Frame(Frame frame) {
-            this(frame.contents, frame.index, frame.pageNum);
+            this(frame.shard, frame.contents, frame.index, frame.pageNum, frame.generation + 1);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(Shard shard, ByteBuffer contents, int index, long pageNum, int generation) {
+            this.shard = shard;
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
+            this.generation = generation;
             this.dirty = false;
             this.frameLock = new ReentrantLock();
             int partNum = DiskSpaceManager.getPartNum(pageNum);
             this.logPage = partNum == LogManager.LOG_PARTITION;
+            this.version = new StampedLock();
+            this.version.writeLock();
+        }
+
+        /**
+         * Marks the page as loaded into the frame, allowing unpinned reads. The frame lock must
+         * be held.
+         */
+        private void setLoaded() {
+            this.version.tryUnlockWrite();
+        }
+
+        /**
+         * Locks and pins a frame that claimFrame picked to load another page into, so that it
+         * cannot be picked again until the page is loaded. The frame need not be valid.
+         */
+        private void claim() {
+            this.frameLock.lock();
+            super.pin();
+        }
+
+        /**
+         * Resets a claimed frame for another page: unloads the page it holds, and takes on the
+         * new page number. The page is not loaded (and unpinned reads fail) until setLoaded.
+         *
+         * @param pageNum page number of the page to be loaded
+         */
+        private void retarget(long pageNum) {
+            try {
+                this.unload();
+            } finally {
+                this.pageNum = pageNum;
+                this.logPage = DiskSpaceManager.getPartNum(pageNum) == LogManager.LOG_PARTITION;
+                this.dirty = false;
+                this.cleaned = false;
+                this.writeBack = null;
+            }
         }
 
         /**
@@ -92,7 +258,10 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
+            if (!this.frameLock.tryLock()) {
+                recordPinWait(this.pageNum);
+                this.frameLock.lock();
+            }
 
             if (!this.isValid()) {
                 throw new IllegalStateException("pinning invalidated frame");
@@ -126,16 +295,68 @@ public class BufferManager implements AutoCloseable {
         }
 
         /**
-         * Invalidates the frame, flushing it if necessary.
+         * Unloads the page from the frame, flushing it if necessary, and moves the frame on to
+         * the next generation. The frame lock must be held.
          */
-        private void invalidate() {
-            if (this.isValid()) {
-                this.flush();
+        private void unload() {
+            // unpinned reads fail from now on (the contents are about to be reused)
+            this.version.tryWriteLock();
+            try {
+                if (this.writeBack != null) {
+                    this.writeBackAsync();
+                } else if (this.isValid()) {
+                    this.flush();
+                }
+            } finally {
+                ++this.generation;
             }
+        }
+
+        /**
+         * Invalidates the frame for good, flushing it if necessary.
+         */
+        private void invalidate() {
+            this.unload();
             this.index = INVALID_INDEX;
             this.contents = null;
         }
 
+        /**
+         * Issues a write of this frame's page if it is dirty, without waiting for the write to
+         * complete, and completes writeBack once it has. The contents are copied, since the
+         * underlying buffer is reused as soon as the page is unloaded. Never used for log pages.
+         */
+        private void writeBackAsync() {
+            CompletableFuture<Void> writeBack = this.writeBack;
+            long pageNum = this.pageNum;
+            if (!this.isValid() || !this.dirty) {
+                pendingWrites.remove(pageNum, writeBack);
+                writeBack.complete(null);
+                return;
+            }
+            recoveryManager.pageFlushHook(this.getPageLSN());
+            byte[] contents = new byte[DiskSpaceManager.PAGE_SIZE];
+            getBytes(this.contents, 0, contents, contents.length);
+            CompletableFuture<Void> write;
+            try {
+                write = BufferManager.this.diskSpaceManager.writePageAsync(pageNum, contents);
+            } catch (RuntimeException e) {
+                pendingWrites.remove(pageNum, writeBack);
+                writeBack.completeExceptionally(e);
+                throw e;
+            }
+            BufferManager.this.incrementIOs();
+            this.dirty = false;
+            write.whenComplete((result, exc) -> {
+                pendingWrites.remove(pageNum, writeBack);
+                if (exc == null) {
+                    writeBack.complete(null);
+                } else {
+                    writeBack.completeExceptionally(exc);
+                }
+            });
+        }
+
         /**
          * Marks the frame as free.
          */
@@ -143,8 +364,9 @@ public class BufferManager implements AutoCloseable {
             if (isFreed()) {
                 throw new IllegalStateException("cannot free free frame");
             }
-            int nextFreeIndex = firstFreeIndex;
-            firstFreeIndex = this.index;
+            this.version.tryWriteLock();
+            int nextFreeIndex = shard.firstFreeIndex;
+            shard.firstFreeIndex = this.index;
             this.index = ~nextFreeIndex;
         }
 
@@ -152,8 +374,8 @@ public class BufferManager implements AutoCloseable {
             if (!isFreed()) {
                 throw new IllegalStateException("cannot unfree used frame");
             }
-            int index = firstFreeIndex;
-            firstFreeIndex = ~this.index;
+            int index = shard.firstFreeIndex;
+            shard.firstFreeIndex = ~this.index;
             this.index = index;
         }
 
@@ -165,6 +387,11 @@ public class BufferManager implements AutoCloseable {
             return this.pageNum;
         }
 
+        @Override
+        int getGeneration() {
+            return this.generation;
+        }
+
         /**
          * Flushes this buffer frame to disk, but does not unload it.
          */
@@ -191,6 +418,32 @@ public class BufferManager implements AutoCloseable {
             }
         }
 
+        /**
+         * Writes this frame's page on behalf of the page cleaner, if it is still dirty and
+         * unpinned and the log has been flushed up to its pageLSN. Unlike flush, this never
+         * waits for the log, since an eviction may be waiting for the frame lock, which must
+         * be held.
+         *
+         * @param flushedLSN LSN up to which the log is known to have been flushed
+         * @return whether the page was written
+         */
+        private boolean clean(long flushedLSN) {
+            if (!this.isValid() || !this.dirty || this.isPinned() || this.getPageLSN() > flushedLSN) {
+                return false;
+            }
+            // pinned during the write, so that the eviction policy passes over the frame
+            super.pin();
+            try {
+                BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
+                BufferManager.this.incrementIOs();
+                this.dirty = false;
+                this.cleaned = true;
+                return true;
+            } finally {
+                super.unpin();
+            }
+        }
+
         /**
          * Read from the buffer frame.
          * @param position position in buffer frame to start reading
@@ -199,18 +452,61 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void readBytes(short position, short num, byte[] buf) {
+            this.readBytes(this.generation, position, num, buf);
+        }
+
+        /**
+         * Read from the buffer frame, if it still holds the page it held at the given generation.
+         * The generation is checked once the frame is pinned, since it only moves on with the
+         * frame lock held.
+         */
+        @Override
+        void readBytes(int generation, short position, short num, byte[] buf) {
             this.pin();
             try {
-                if (!this.isValid()) {
+                if (!this.isValid() || this.generation != generation) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
-                BufferManager.this.evictionPolicy.hit(this);
+                getBytes(this.contents, position + dataOffset(), buf, num);
+                this.shard.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
             }
         }
 
+        /**
+         * Reads from the buffer frame without pinning it or taking the frame lock, validating
+         * against the frame's seqlock that no write (or unload) happened during the read.
+         * The read counts as a hit only if the frame lock happens to be free.
+         */
+        @Override
+        boolean tryReadBytes(int generation, short position, short num, byte[] buf) {
+            long stamp = this.version.tryOptimisticRead();
+            if (stamp == 0) {
+                return false;
+            }
+            ByteBuffer contents = this.contents;
+            if (contents == null || !this.isValid() || this.generation != generation) {
+                return false;
+            }
+            getBytes(contents, position + dataOffset(), buf, num);
+            if (!this.version.validate(stamp)) {
+                return false;
+            }
+            recordHit(this.pageNum);
+            this.lastFetched = System.nanoTime();
+            if (this.frameLock.tryLock()) {
+                try {
+                    if (this.isValid()) {
+                        this.shard.evictionPolicy.hit(this);
+                    }
+                } finally {
+                    this.frameLock.unlock();
+                }
+            }
+            return true;
+        }
+
         /**
          * Write to the buffer frame, and mark frame as dirtied.
          * @param position position in buffer frame to start writing
@@ -219,52 +515,86 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
+            this.writeBytes(this.generation, position, num, buf);
+        }
+
+        /**
+         * Write to the buffer frame, if it still holds the page it held at the given generation,
+         * and mark frame as dirtied. The generation is checked once the frame is pinned, before
+         * anything is logged.
+         */
+        @Override
+        void writeBytes(int generation, short position, short num, byte[] buf) {
             this.pin();
             try {
-                if (!this.isValid()) {
+                if (!this.isValid() || this.generation != generation) {
                     throw new IllegalStateException("writing to invalid buffer frame");
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
+                long pageLSN = -1;
                 if (transaction != null && !logPage) {
                     List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = new byte[len];
+                        getBytes(contents, start + offset, before, len);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
-                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
-                                       after);
-                        this.setPageLSN(pageLSN);
+                        pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
+                                  after);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                long stamp = this.version.writeLock();
+                try {
+                    if (pageLSN != -1) {
+                        this.putPageLSN(pageLSN);
+                    }
+                    putBytes(buf, num, this.contents, offset);
+                } finally {
+                    this.version.unlockWrite(stamp);
+                }
                 this.dirty = true;
-                BufferManager.this.evictionPolicy.hit(this);
+                this.cleaned = false;
+                this.shard.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
             }
         }
 
         /**
-         * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
-         * Page is pinned on return.
+         * Requests a valid Frame object for the page the frame holds now. Page is pinned on
+         * return.
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
-            try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
-                if (this.isValid()) {
-                    this.pin();
-                    return this;
+            return this.requestValidFrame(this.pageNum, this.generation);
+        }
+
+        /**
+         * Requests a valid Frame object for a page that this frame held at some generation:
+         * this frame if it still holds the page, and otherwise the frame the page is loaded into
+         * (loading it if necessary). Page is pinned on return.
+         */
+        @Override
+        Frame requestValidFrame(long pageNum, int generation) {
+            if (this.generation == generation) {
+                this.frameLock.lock();
+                try {
+                    if (this.generation == generation) {
+                        if (this.isFreed()) {
+                            throw new PageException("page already freed");
+                        }
+                        if (this.isValid()) {
+                            this.pin();
+                            return this;
+                        }
+                    }
+                } finally {
+                    this.frameLock.unlock();
                 }
-                return BufferManager.this.fetchPageFrame(this.pageNum);
-            } finally {
-                this.frameLock.unlock();
             }
+            return BufferManager.this.fetchPageFrame(pageNum);
         }
 
         @Override
@@ -278,7 +608,7 @@ public class BufferManager implements AutoCloseable {
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            return this.contents.getLong(8);
         }
 
         @Override
@@ -307,7 +637,7 @@ public class BufferManager implements AutoCloseable {
                     ranges.add(new Pair<>(startIndex, maxRange));
                     startIndex = -1;
                     skip = -1;
-                } else if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                } else if (buf[i] == contents.get(offset + i) && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -315,7 +645,7 @@ public class BufferManager implements AutoCloseable {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != contents.get(offset + i)) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -329,7 +659,44 @@ public class BufferManager implements AutoCloseable {
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.setPageLSN(this.generation, pageLSN);
+        }
+
+        @Override
+        void setPageLSN(int generation, long pageLSN) {
+            this.pin();
+            try {
+                // only frames that are not loaded (or no longer are) are write-locked, since
+                // writers hold the frame lock
+                long stamp = this.generation == generation ? this.version.tryWriteLock() : 0;
+                if (stamp == 0) {
+                    throw new IllegalStateException("setting pageLSN of invalid buffer frame");
+                }
+                try {
+                    this.putPageLSN(pageLSN);
+                } finally {
+                    this.version.unlockWrite(stamp);
+                }
+            } finally {
+                this.unpin();
+            }
+        }
+
+        @Override
+        long getPageLSN(int generation) {
+            this.pin();
+            try {
+                if (this.generation != generation) {
+                    throw new IllegalStateException("reading pageLSN of invalid buffer frame");
+                }
+                return this.getPageLSN();
+            } finally {
+                this.unpin();
+            }
+        }
+
+        private void putPageLSN(long pageLSN) {
+            this.contents.putLong(8, pageLSN);
         }
 
         private short dataOffset() {
@@ -341,6 +708,187 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Shard of the buffer pool: a set of frames, holding only pages whose numbers hash to the
+     * shard. Frame indices are relative to the shard. The page table and free list may only be
+     * changed while holding the shard's lock.
+     *
+     * The free list ends at index frames.length, so the frames added when the shard grows are
+     * linked onto the end of the list as they are created.
+     */
+    class Shard {
+        // Buffer frames (replaced when the shard is resized, and read without the lock by
+        // unpinned reads and sampling)
+        private volatile Frame[] frames;
+
+        // Map of page number to frame index
+        private PageTable pageToFrame;
+
+        // Lock on shard
+        private ReentrantLock lock;
+
+        // Eviction policy
+        private EvictionPolicy evictionPolicy;
+
+        // Index of first free frame
+        private int firstFreeIndex;
+
+        // Index of the frame the page cleaner looks at next
+        private int cleanerHand;
+
+        // Number of frames the shard is to have, which it has more of while it shrinks
+        private int targetSize;
+
+        Shard(int numFrames, EvictionPolicy evictionPolicy) {
+            this.frames = new Frame[numFrames];
+            ByteBuffer[] buffers = allocateFrameBuffers(numFrames);
+            for (int i = 0; i < numFrames; ++i) {
+                this.frames[i] = new Frame(this, buffers[i], i + 1);
+            }
+            this.firstFreeIndex = 0;
+            this.targetSize = numFrames;
+            this.pageToFrame = new PageTable(numFrames);
+            this.lock = new ReentrantLock();
+            this.evictionPolicy = evictionPolicy;
+        }
+
+        /**
+         * Claims a frame to load a page that is not currently loaded into: the next frame of the
+         * strategy's ring if it can be reused, and otherwise a free frame if there is one, or
+         * the frame chosen by the eviction policy. Updates shard state, so the shard lock must
+         * be held. The frame is locked and pinned on return (see Frame#claim), still holding the
+         * page it held before, and the caller must retarget it and read the page into it before
+         * unlocking it.
+         *
+         * @param pageNum page number of the page to be loaded
+         * @param strategy access strategy of the load, or null
+         * @return the claimed frame
+         */
+        private Frame claimFrame(long pageNum, BufferAccessStrategy strategy) {
+            if (this.frames.length > this.targetSize) {
+                this.retireFrames(1);
+            }
+            Frame frame = strategy == null ? null : strategy.nextFrame();
+            // the ring's frame is only reused if it still holds the page the ring loaded into it
+            if (frame != null && (frame.shard != this || !frame.isValid() || frame.index >= this.frames.length ||
+                    this.frames[frame.index] != frame || frame.isPinned())) {
+                frame = null;
+            }
+            // prioritize free frames over eviction
+            boolean evicting = frame != null || this.firstFreeIndex >= this.frames.length;
+            if (!evicting) {
+                frame = this.frames[this.firstFreeIndex];
+                frame.setUsed();
+            } else {
+                if (frame == null) {
+                    frame = (Frame) evictionPolicy.evict(frames);
+                }
+                this.pageToFrame.remove(frame.pageNum, frame.index);
+                evictionPolicy.cleanup(frame);
+                // log pages are written out before the eviction completes: the log manager only
+                // flushes the pages still loaded, so a pending write would count as flushed
+                if (asyncWriteBack && !frame.logPage) {
+                    // registered now, so that loading the page again waits for the write-back
+                    frame.writeBack = new CompletableFuture<>();
+                    pendingWrites.put(frame.pageNum, frame.writeBack);
+                }
+            }
+
+            frame.claim();
+            if (evicting) {
+                if (frame.cleaned && !frame.dirty) {
+                    foregroundWritesAvoided.incrementAndGet();
+                }
+                recordEviction(frame.pageNum, frame.dirty);
+            }
+            evictionPolicy.init(frame);
+
+            this.pageToFrame.put(pageNum, frame.index);
+            return frame;
+        }
+
+        /**
+         * Sets the number of frames the shard is to have. Frames are added right away, as free
+         * frames, but are only taken away by retireFrames. The shard lock must be held.
+         *
+         * @param numFrames new number of frames
+         */
+        private void resize(int numFrames) {
+            this.targetSize = numFrames;
+            if (numFrames <= this.frames.length) {
+                return;
+            }
+            Frame[] frames = Arrays.copyOf(this.frames, numFrames);
+            ByteBuffer[] buffers = allocateFrameBuffers(numFrames - this.frames.length);
+            for (int i = this.frames.length; i < numFrames; ++i) {
+                frames[i] = new Frame(this, buffers[i - this.frames.length], i + 1);
+            }
+            this.frames = frames;
+        }
+
+        /**
+         * Retires up to max frames from the end of the frame array, while the shard has more
+         * frames than it is to have: the pages loaded in them are evicted, and the frame array is
+         * cut short. Stops at the first frame that is in use (by any thread, including this one),
+         * rather than waiting for it. The shard lock must be held.
+         *
+         * @param max maximum number of frames to retire
+         * @return whether the shard is down to the number of frames it is to have
+         */
+        private boolean retireFrames(int max) {
+            int length = this.frames.length;
+            int end = Math.max(this.targetSize, length - max);
+            for (; length > end; --length) {
+                Frame frame = this.frames[length - 1];
+                if (frame.frameLock.isHeldByCurrentThread() || !frame.frameLock.tryLock()) {
+                    break;
+                }
+                try {
+                    if (frame.isPinned()) {
+                        break;
+                    }
+                    if (frame.isValid()) {
+                        this.pageToFrame.remove(frame.pageNum, frame.index);
+                        evictionPolicy.cleanup(frame);
+                        frame.invalidate();
+                    }
+                } finally {
+                    frame.frameLock.unlock();
+                }
+            }
+            if (length < this.frames.length) {
+                this.frames = Arrays.copyOf(this.frames, length);
+                // free frames may have been linked to retired ones, so the free list is rebuilt
+                int next = length;
+                for (int i = length - 1; i >= 0; --i) {
+                    if (this.frames[i].isFreed()) {
+                        this.frames[i].index = ~next;
+                        next = i;
+                    }
+                }
+                this.firstFreeIndex = next;
+            }
+            return length <= this.targetSize;
+        }
+
+        private void evict(int i) {
+            Frame frame = frames[i];
+            frame.frameLock.lock();
+            try {
+                if (frame.isValid() && !frame.isPinned()) {
+                    this.pageToFrame.remove(frame.pageNum, frame.index);
+                    evictionPolicy.cleanup(frame);
+
+                    frame.unload();
+                    frame.index = ~this.firstFreeIndex;
+                    this.firstFreeIndex = i;
+                }
+            } finally {
+                frame.frameLock.unlock();
+            }
+        }
+    }
+
     /**
      * Creates a new buffer manager.
      *
@@ -350,40 +898,95 @@ public class BufferManager implements AutoCloseable {
      */
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
-        this.frames = new Frame[bufferSize];
-        for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+        this(diskSpaceManager, recoveryManager, bufferSize, 1, () -> evictionPolicy);
+    }
+
+    /**
+     * Creates a new buffer manager, splitting the buffer into shards of (nearly) equal size.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param numShards number of shards, at most bufferSize
+     * @param evictionPolicies supplies a new eviction policy for each shard
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, int numShards, Supplier<EvictionPolicy> evictionPolicies) {
+        this(diskSpaceManager, recoveryManager, bufferSize, numShards, evictionPolicies, false);
+    }
+
+    /**
+     * Creates a new buffer manager, splitting the buffer into shards of (nearly) equal size,
+     * and optionally storing frames off-heap.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param numShards number of shards, at most bufferSize
+     * @param evictionPolicies supplies a new eviction policy for each shard
+     * @param offHeap whether to store frames in direct memory rather than on the heap
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, int numShards, Supplier<EvictionPolicy> evictionPolicies,
+                         boolean offHeap) {
+        if (numShards < 1 || numShards > bufferSize) {
+            throw new IllegalArgumentException("number of shards must be between 1 and the buffer size");
+        }
+        this.offHeap = offHeap;
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; ++i) {
+            int numFrames = bufferSize / numShards + (i < bufferSize % numShards ? 1 : 0);
+            this.shards[i] = new Shard(numFrames, evictionPolicies.get());
         }
-        this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
-        this.managerLock = new ReentrantLock();
-        this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
+        this.asyncWriteBack = diskSpaceManager.supportsAsyncIO();
+        this.pendingWrites = new ConcurrentHashMap<>();
     }
 
     @Override
     public void close() {
-        this.managerLock.lock();
-        try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
+        this.writeWarmUpFile();
+        this.stopPageCleaner();
+        synchronized (this) {
+            if (this.warmUpThread != null) {
+                this.stopWarmUp = true;
                 try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
-                    if (!frame.isValid()) {
-                        continue;
+                    this.warmUpThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (this.prefetchExecutor != null) {
+                this.prefetchExecutor.shutdown();
+                try {
+                    this.prefetchExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        for (Shard shard : this.shards) {
+            shard.lock.lock();
+            try {
+                for (Frame frame : shard.frames) {
+                    frame.frameLock.lock();
+                    try {
+                        if (frame.isPinned()) {
+                            throw new IllegalStateException("closing buffer manager but frame still pinned");
+                        }
+                        if (!frame.isValid()) {
+                            continue;
+                        }
+                        shard.evictionPolicy.cleanup(frame);
+                        frame.invalidate();
+                    } finally {
+                        frame.frameLock.unlock();
                     }
-                    evictionPolicy.cleanup(frame);
-                    frame.invalidate();
-                } finally {
-                    frame.frameLock.unlock();
                 }
+            } finally {
+                shard.lock.unlock();
             }
-        } finally {
-            this.managerLock.unlock();
         }
+        this.awaitWriteBacks();
     }
 
     /**
@@ -395,60 +998,634 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
-        Frame newFrame;
-        Frame evictedFrame;
+        return this.fetchPageFrame(pageNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, loading it according to an access
+     * strategy if it is not already loaded. Pins the buffer frame. Cannot be used outside the
+     * package.
+     *
+     * @param pageNum page number
+     * @param strategy access strategy, or null to load the page as usual
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum, BufferAccessStrategy strategy) {
+        PageTrace trace = this.pageTrace;
+        if (trace != null) {
+            trace.record(pageNum);
+        }
+        // read-ahead loads pages as usual, so it is skipped when loading into a ring
+        if (strategy == null && this.maxReadAhead > 0) {
+            this.readAhead(pageNum);
+        }
+        Shard shard = this.getShard(pageNum);
+        shard.lock.lock();
+        Frame frame;
         // figure out what frame to load data to, and update manager state
         try {
+            // pages are only cached while allocated (freeing a page evicts it), so hits skip
+            // the allocation check
+            int frameIndex = shard.pageToFrame.get(pageNum);
+            if (frameIndex != PageTable.NOT_FOUND) {
+                frame = shard.frames[frameIndex];
+                frame.pin();
+                frame.lastFetched = System.nanoTime();
+                this.recordHit(pageNum);
+                return frame;
+            }
             if (!this.diskSpaceManager.pageAllocated(pageNum)) {
                 throw new PageException("page " + pageNum + " not allocated");
             }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+            this.recordMiss(pageNum);
+            frame = shard.claimFrame(pageNum, strategy);
+        } finally {
+            shard.lock.unlock();
+        }
+        // flush the page being replaced, and read the new page into the frame, which is left
+        // pinned by the claim
+        try {
+            frame.retarget(pageNum);
+            if (strategy != null) {
+                strategy.add(frame);
             }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
+            frame.lastFetched = System.nanoTime();
+            this.awaitWriteBack(pageNum);
+            BufferManager.this.diskSpaceManager.readPage(pageNum, frame.contents);
+            this.incrementIOs();
+            frame.setLoaded();
+            return frame;
+        } catch (RuntimeException e) {
+            // leave nothing half-loaded behind
+            frame.unpin();
+            this.evict(pageNum);
+            throw e;
+        }
+    }
 
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+    /**
+     * Loads a run of consecutive pages of a partition into the buffer pool without pinning
+     * them, reading all of the pages that are not already loaded with a single call to
+     * DiskSpaceManager#readPages. Unallocated pages end the run. If frames run out (because
+     * everything else is pinned), only a prefix of the run is loaded. A page that is already
+     * loaded after pages that are not also ends the read, leaving the rest of the run for
+     * another call.
+     *
+     * @param firstPage page number of the first page of the run
+     * @param count number of pages in the run
+     * @return number of pages at the start of the run that this call went over
+     */
+    public int prefetchPages(long firstPage, int count) {
+        return this.prefetchPages(firstPage, count, false);
+    }
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
-        }
-        // flush evicted frame
+    /**
+     * Loads a run of consecutive pages, as prefetchPages(firstPage, count) does, optionally only
+     * into free frames: the run then also ends at a page whose shard has no free frames left.
+     *
+     * @param firstPage page number of the first page of the run
+     * @param count number of pages in the run
+     * @param freeFramesOnly whether to leave the pages that are loaded in place
+     * @return number of pages at the start of the run that this call went over
+     */
+    private int prefetchPages(long firstPage, int count, boolean freeFramesOnly) {
+        List<Frame> newFrames = new ArrayList<>();
+        long pageNum = firstPage;
+        // the run is claimed as a whole, with every shard it maps to locked
+        List<Shard> runShards = this.lockShards(firstPage, count);
         try {
-            evictedFrame.invalidate();
+            int partNum = DiskSpaceManager.getPartNum(firstPage);
+            for (; pageNum < firstPage + count; ++pageNum) {
+                if (DiskSpaceManager.getPartNum(pageNum) != partNum ||
+                        !this.diskSpaceManager.pageAllocated(pageNum)) {
+                    break;
+                }
+                Shard shard = this.getShard(pageNum);
+                if (shard.pageToFrame.containsKey(pageNum)) {
+                    // already loaded, so the pages read must be split around it
+                    if (!newFrames.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (freeFramesOnly && shard.firstFreeIndex >= shard.frames.length) {
+                    break;
+                }
+                try {
+                    newFrames.add(shard.claimFrame(pageNum, null));
+                } catch (IllegalStateException e) {
+                    // everything else is pinned
+                    break;
+                }
+            }
         } finally {
-            evictedFrame.frameLock.unlock();
+            for (Shard shard : runShards) {
+                shard.lock.unlock();
+            }
+        }
+        if (newFrames.isEmpty()) {
+            return (int) (pageNum - firstPage);
+        }
+        // the pages claimed are the ones just before the page the run ended at
+        long readStart = pageNum - newFrames.size();
+        ByteBuffer[] bufs = new ByteBuffer[newFrames.size()];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = newFrames.get(i).contents;
         }
-        // read new page into frame
         try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
-            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
-            return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
+            for (int i = 0; i < bufs.length; ++i) {
+                newFrames.get(i).retarget(readStart + i);
+            }
+            for (Frame newFrame : newFrames) {
+                this.awaitWriteBack(newFrame.pageNum);
+            }
+            this.diskSpaceManager.readPages(readStart, bufs.length, bufs);
+            for (int i = 0; i < bufs.length; ++i) {
+                this.incrementIOs();
+            }
+        } catch (RuntimeException e) {
+            // leave nothing half-loaded behind: unload every frame that was claimed
+            for (int i = 0; i < bufs.length; ++i) {
+                newFrames.get(i).unpin();
+                this.evict(readStart + i);
+            }
             throw e;
-        } finally {
-            newFrame.frameLock.unlock();
+        }
+        for (Frame newFrame : newFrames) {
+            newFrame.setLoaded();
+            newFrame.unpin();
+        }
+        this.stats.recordPrefetch(newFrames.size());
+        this.getPartitionStats(DiskSpaceManager.getPartNum(firstPage)).recordPrefetch(newFrames.size());
+        return (int) (pageNum - firstPage);
+    }
+
+    /**
+     * Runs prefetchPages on a background thread, so that the caller can continue without waiting
+     * for the read, calling it again for what is left of the run whenever a page that is already
+     * loaded ends a read. Fetching a page of the run while it is being loaded waits for it to load.
+     *
+     * @param firstPage page number of the first page of the run
+     * @param count number of pages in the run
+     * @return future that completes once the run has been loaded
+     */
+    public CompletableFuture<Void> prefetchPagesAsync(long firstPage, int count) {
+        ExecutorService executor;
+        synchronized (this) {
+            if (this.prefetchExecutor == null) {
+                this.prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "buffer-prefetch");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            executor = this.prefetchExecutor;
+        }
+        return CompletableFuture.runAsync(() -> {
+            long pageNum = firstPage;
+            int remaining = count;
+            while (remaining > 0) {
+                int done = this.prefetchPages(pageNum, remaining);
+                if (done == 0) {
+                    break;
+                }
+                pageNum += done;
+                remaining -= done;
+            }
+        }, executor);
+    }
+
+    /**
+     * Records the fetch of a page for sequential access detection, and loads the pages that
+     * follow it in the background if the page continues a sequential run. Once READ_AHEAD_TRIGGER
+     * consecutive pages of a partition have been fetched in a row, the next window of pages is
+     * loaded, and each time the fetches get within half a window of the end of the pages loaded
+     * so far, the window after that is. The window starts at READ_AHEAD_INITIAL_WINDOW pages and
+     * doubles with each read-ahead, up to maxReadAhead pages. Fetching a page again does not end
+     * a run (scans fetch a page once per record); fetching any other page starts a new one.
+     *
+     * @param pageNum page number of the page being fetched
+     */
+    private void readAhead(long pageNum) {
+        int maxWindow = this.maxReadAhead;
+        SequentialRun run = this.sequentialRuns.computeIfAbsent(DiskSpaceManager.getPartNum(pageNum),
+                partNum -> new SequentialRun());
+        long firstPage;
+        int count;
+        synchronized (run) {
+            if (pageNum == run.lastPage) {
+                return;
+            }
+            if (pageNum != run.lastPage + 1) {
+                run.lastPage = pageNum;
+                run.length = 1;
+                run.window = Math.min(READ_AHEAD_INITIAL_WINDOW, maxWindow);
+                run.readAheadEnd = pageNum + 1;
+                return;
+            }
+            run.lastPage = pageNum;
+            ++run.length;
+            if (run.length < READ_AHEAD_TRIGGER || run.readAheadEnd - pageNum > run.window / 2) {
+                return;
+            }
+            firstPage = Math.max(run.readAheadEnd, pageNum + 1);
+            count = run.window;
+            run.readAheadEnd = firstPage + count;
+            run.window = Math.min(2 * run.window, maxWindow);
+        }
+        // failures (such as the partition being freed) only mean the pages are loaded on demand
+        this.prefetchPagesAsync(firstPage, count);
+    }
+
+    /**
+     * Waits for every asynchronous prefetch issued so far to complete.
+     */
+    void awaitPrefetches() {
+        ExecutorService executor;
+        synchronized (this) {
+            executor = this.prefetchExecutor;
+        }
+        if (executor != null) {
+            // prefetches run one at a time, in the order they were issued
+            CompletableFuture.runAsync(() -> {}, executor).join();
+        }
+    }
+
+    /**
+     * Sets the file that writeWarmUpFile lists the loaded pages in, and readWarmUpFile reads
+     * them back from.
+     *
+     * @param warmUpFile path of the warm-up file, or null to stop writing it
+     */
+    public void setWarmUpFile(Path warmUpFile) {
+        this.warmUpFile = warmUpFile;
+    }
+
+    /**
+     * Lists the pages loaded in the buffer pool in the warm-up file (if one is set), most
+     * recently fetched first, replacing the file atomically. The file holds the number of pages,
+     * followed by their page numbers. Log pages are left out, as the log manager loads what it
+     * needs of the log. If no other pages are loaded, the file is left as it is, so that the
+     * list written before evicting everything (as when the database is closed) is kept.
+     *
+     * Called when the buffer manager is closed, and at every checkpoint.
+     */
+    public void writeWarmUpFile() {
+        Path warmUpFile = this.warmUpFile;
+        if (warmUpFile == null) {
+            return;
+        }
+        List<Frame> loaded = new ArrayList<>();
+        for (Shard shard : this.shards) {
+            for (Frame frame : shard.frames) {
+                if (frame.isValid() && frame.pageNum != DiskSpaceManager.INVALID_PAGE_NUM && !frame.logPage) {
+                    loaded.add(frame);
+                }
+            }
+        }
+        if (loaded.isEmpty()) {
+            return;
+        }
+        // read once, as the frames may be fetched while they are sorted
+        long[][] pages = new long[loaded.size()][];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = new long[] { loaded.get(i).pageNum, loaded.get(i).lastFetched };
+        }
+        Arrays.sort(pages, (a, b) -> Long.compare(b[1], a[1]));
+        Path tempFile = warmUpFile.resolveSibling(warmUpFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(pages.length);
+            for (long[] page : pages) {
+                out.writeLong(page[0]);
+            }
+        } catch (IOException e) {
+            throw new PageException("could not write warm-up file: " + e.getMessage());
+        }
+        try {
+            Files.move(tempFile, warmUpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new PageException("could not write warm-up file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return pages listed in the warm-up file, most recently fetched first, or an empty list if
+     * no warm-up file is set, or it does not exist or cannot be read
+     */
+    public List<Long> readWarmUpFile() {
+        Path warmUpFile = this.warmUpFile;
+        List<Long> pageNums = new ArrayList<>();
+        if (warmUpFile == null || !Files.exists(warmUpFile)) {
+            return pageNums;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(warmUpFile)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                pageNums.add(in.readLong());
+            }
+        } catch (IOException e) {
+            // a missing warm-up only costs time
+            pageNums.clear();
+        }
+        return pageNums;
+    }
+
+    /**
+     * Loads pages into the buffer pool in the background, such as those listed in the warm-up
+     * file before a restart. As many pages as there are free frames are taken from the front of
+     * the list, and read in physical order, with runs of consecutive pages read in batches of up
+     * to WARM_UP_BATCH pages. Fetches take priority: pages are only loaded into free frames, so
+     * the warm-up never evicts anything, and it runs at low priority, giving way between batches.
+     * Pages that are no longer allocated are skipped.
+     *
+     * @param pageNums pages to load, most important first
+     * @return future that completes once the warm-up is done
+     */
+    public synchronized CompletableFuture<Void> warmUp(List<Long> pageNums) {
+        if (this.warmUpThread != null) {
+            throw new IllegalStateException("buffer pool already warmed up");
+        }
+        int numFree = 0;
+        for (Shard shard : this.shards) {
+            for (Frame frame : shard.frames) {
+                if (frame.isFreed()) {
+                    ++numFree;
+                }
+            }
+        }
+        long[] pages = pageNums.stream().limit(numFree).mapToLong(Long::longValue)
+                .sorted().distinct().toArray();
+        CompletableFuture<Void> warmUp = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                for (int i = 0; i < pages.length && !this.stopWarmUp; ) {
+                    int count = 1;
+                    while (i + count < pages.length && count < WARM_UP_BATCH && pages[i + count] == pages[i] + count) {
+                        ++count;
+                    }
+                    int loaded;
+                    try {
+                        loaded = this.prefetchPages(pages[i], count, true);
+                    } catch (RuntimeException e) {
+                        // such as a partition dropped since the warm-up file was written; the
+                        // pages are loaded on demand instead
+                        loaded = count;
+                    }
+                    i += Math.max(loaded, 1);
+                    Thread.yield();
+                }
+            } finally {
+                warmUp.complete(null);
+            }
+        }, "buffer-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        this.warmUpThread = thread;
+        this.warmUp = warmUp;
+        thread.start();
+        return warmUp;
+    }
+
+    /**
+     * Waits for the background warm-up of the buffer pool to complete, if one was started.
+     */
+    public void awaitWarmUp() {
+        CompletableFuture<Void> warmUp;
+        synchronized (this) {
+            warmUp = this.warmUp;
+        }
+        if (warmUp != null) {
+            warmUp.join();
+        }
+    }
+
+    /**
+     * Starts writing out dirty pages in the background. Every intervalMillis, the page cleaner
+     * goes over the frames of each shard that has no free frames left (and so will have to evict
+     * to load another page), writing dirty unpinned pages until it runs out of budget. The budget
+     * accrues at pagesPerSecond pages per second, and up to a second's worth of unused budget is
+     * carried over between passes. Log records are flushed up to a page's pageLSN before it is
+     * written, as when it is evicted. Log pages are left to the log manager.
+     *
+     * @param pagesPerSecond maximum rate at which the page cleaner writes pages
+     * @param intervalMillis pause between passes, in milliseconds
+     */
+    public synchronized void startPageCleaner(int pagesPerSecond, long intervalMillis) {
+        if (pagesPerSecond <= 0) {
+            throw new IllegalArgumentException("pagesPerSecond must be positive");
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis must be positive");
+        }
+        if (this.cleanerThread != null) {
+            throw new IllegalStateException("page cleaner is already running");
+        }
+        CountDownLatch stop = new CountDownLatch(1);
+        this.stopCleaner = stop;
+        this.cleanerThread = new Thread(() -> {
+            double budget = 0;
+            long last = System.nanoTime();
+            try {
+                while (!stop.await(intervalMillis, TimeUnit.MILLISECONDS)) {
+                    long now = System.nanoTime();
+                    budget = Math.min(pagesPerSecond, budget + pagesPerSecond * ((now - last) / 1e9));
+                    last = now;
+                    budget -= this.cleanPages((int) budget);
+                }
+            } catch (InterruptedException e) {
+                // stop cleaning
+            }
+        }, "buffer-page-cleaner");
+        this.cleanerThread.setDaemon(true);
+        this.cleanerThread.start();
+    }
+
+    /**
+     * Stops the page cleaner, waiting for the pass in progress (if any) to finish. Does nothing
+     * if the page cleaner is not running.
+     */
+    public void stopPageCleaner() {
+        Thread thread;
+        synchronized (this) {
+            thread = this.cleanerThread;
+            if (thread == null) {
+                return;
+            }
+            this.stopCleaner.countDown();
+            this.cleanerThread = null;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Makes one page cleaner pass, resuming in each shard after the last page that the previous
+     * pass wrote.
+     *
+     * @param budget maximum number of pages to write
+     * @return number of pages written
+     */
+    int cleanPages(int budget) {
+        int written = 0;
+        int backlog = 0;
+        for (Shard shard : this.shards) {
+            Frame[] frames = shard.frames;
+            if (shard.firstFreeIndex < frames.length) {
+                // nothing will be evicted until the free frames run out
+                continue;
+            }
+            int hand = shard.cleanerHand;
+            for (int n = 0; n < frames.length; ++n) {
+                int i = (hand + n) % frames.length;
+                Frame frame = frames[i];
+                if (!frame.isValid() || !frame.dirty || frame.logPage) {
+                    continue;
+                }
+                if (written >= budget) {
+                    ++backlog;
+                    continue;
+                }
+                // in use frames are skipped rather than waited for
+                if (!frame.frameLock.tryLock()) {
+                    ++backlog;
+                    continue;
+                }
+                long pageLSN;
+                try {
+                    if (!frame.isValid()) {
+                        continue;
+                    }
+                    pageLSN = frame.getPageLSN();
+                } finally {
+                    frame.frameLock.unlock();
+                }
+                // without the frame lock, since flushing the log may have to load log pages
+                this.recoveryManager.pageFlushHook(pageLSN);
+                if (!frame.frameLock.tryLock()) {
+                    ++backlog;
+                    continue;
+                }
+                try {
+                    if (frame.clean(pageLSN)) {
+                        ++written;
+                        shard.cleanerHand = (i + 1) % frames.length;
+                    }
+                } catch (PageException | NoSuchElementException e) {
+                    // the page was freed while being written
+                } finally {
+                    frame.frameLock.unlock();
+                }
+            }
+        }
+        this.cleanerWrites.addAndGet(written);
+        this.cleanerBacklog = backlog;
+        return written;
+    }
+
+    /**
+     * @return number of pages written by the page cleaner since the buffer manager was started
+     */
+    public long getCleanerWrites() {
+        return this.cleanerWrites.get();
+    }
+
+    /**
+     * @return number of dirty pages that the page cleaner's last pass could not write, either for
+     * lack of budget or because they were in use
+     */
+    public int getCleanerBacklog() {
+        return this.cleanerBacklog;
+    }
+
+    /**
+     * @return number of evicted pages that did not have to be written when they were evicted,
+     * because the page cleaner had already written them
+     */
+    public long getForegroundWritesAvoided() {
+        return this.foregroundWritesAvoided.get();
+    }
+
+    /**
+     * Waits for the write-back of an evicted page to complete, if one is in progress.
+     * @param pageNum page number
+     */
+    private void awaitWriteBack(long pageNum) {
+        // write-backs are only ever pending with asynchronous write-back (the check saves boxing
+        // the page number on every load otherwise)
+        if (!this.asyncWriteBack) {
+            return;
+        }
+        CompletableFuture<Void> pending = this.pendingWrites.get(pageNum);
+        if (pending != null) {
+            DiskSpaceManager.awaitIO(pending);
+        }
+    }
+
+    /**
+     * Waits for every write-back in progress to complete.
+     */
+    private void awaitWriteBacks() {
+        for (CompletableFuture<Void> pending : new ArrayList<>(this.pendingWrites.values())) {
+            DiskSpaceManager.awaitIO(pending);
         }
     }
 
+    /**
+     * Sets the number of pages that sequential scans over page directories should load with each
+     * read. A batch size of 1 (the default) loads each page when it is first fetched.
+     *
+     * @param readBatchSize number of pages to read at once
+     */
+    public void setReadBatchSize(int readBatchSize) {
+        if (readBatchSize < 1) {
+            throw new IllegalArgumentException("read batch size must be positive");
+        }
+        this.readBatchSize = readBatchSize;
+    }
+
+    /**
+     * Starts recording the page number of every page fetched to a trace, replacing the trace
+     * being recorded to before (if any).
+     *
+     * @param pageTrace trace to record to, or null to stop recording
+     */
+    public void setPageTrace(PageTrace pageTrace) {
+        this.pageTrace = pageTrace;
+    }
+
+    /**
+     * Turns read-ahead on or off. With read-ahead on, fetching pages of a partition in sequence
+     * (as full table scans, merges over sorted runs and scans over the log do) loads the pages that
+     * follow in the background, into unpinned frames, so that they are already loaded when
+     * fetched. Pages loaded with an access strategy do not take part in read-ahead.
+     *
+     * @param maxReadAhead maximum number of pages to read ahead at once (capped at a quarter of
+     *                     the buffer pool), or 0 to turn read-ahead off (the default)
+     */
+    public void setMaxReadAhead(int maxReadAhead) {
+        if (maxReadAhead < 0) {
+            throw new IllegalArgumentException("maximum read-ahead must not be negative");
+        }
+        this.maxReadAhead = maxReadAhead == 0 ? 0 : Math.max(1, Math.min(maxReadAhead, this.getBufferSize() / 4));
+    }
+
+    /**
+     * @return maximum number of pages to read ahead at once, or 0 if read-ahead is off
+     */
+    public int getMaxReadAhead() {
+        return this.maxReadAhead;
+    }
+
+    /**
+     * @return number of pages that sequential scans should load with each read
+     */
+    public int getReadBatchSize() {
+        return this.readBatchSize;
+    }
+
     /**
      * Fetches the specified page, with a loaded and pinned buffer frame.
      *
@@ -457,7 +1634,51 @@ public class BufferManager implements AutoCloseable {
      * @return specified page
      */
     public Page fetchPage(LockContext parentContext, long pageNum) {
-        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
+        return this.fetchPage(parentContext, pageNum, null);
+    }
+
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame, loading it according to
+     * an access strategy if it is not already loaded.
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param strategy      access strategy, or null to load the page as usual
+     * @return specified page
+     */
+    public Page fetchPage(LockContext parentContext, long pageNum, BufferAccessStrategy strategy) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, strategy));
+    }
+
+    /**
+     * Gets a handle to the specified page if it is loaded, without pinning it or taking any lock
+     * (not even the lock on the page's shard). The page can be read through the handle with
+     * Page#tryReadBytes, which also does not pin it, or pinned and used like any other page (in
+     * which case it is loaded again if it has been evicted since).
+     *
+     * @param parentContext lock context of the **parent** of the page
+     * @param pageNum       page number
+     * @return handle to the page, or null if it does not appear to be loaded
+     */
+    public Page getLoadedPage(LockContext parentContext, long pageNum) {
+        Shard shard = this.getShard(pageNum);
+        int frameIndex = shard.pageToFrame.getOptimistic(pageNum);
+        Frame[] frames = shard.frames;
+        if (frameIndex == PageTable.NOT_FOUND || frameIndex >= frames.length) {
+            return null;
+        }
+        Frame frame = frames[frameIndex];
+        if (frame == null) {
+            return null;
+        }
+        // the generation is only taken if the frame holds the page throughout (no unload
+        // happens without write-locking the seqlock), and unpinned reads validate against it
+        long stamp = frame.version.tryOptimisticRead();
+        int generation = frame.generation;
+        if (stamp == 0 || frame.pageNum != pageNum || !frame.isValid() || !frame.version.validate(stamp)) {
+            return null;
+        }
+        return new Page(parentContext.childContext(pageNum), frame, pageNum, generation);
     }
 
     /**
@@ -467,13 +1688,22 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame for the new page
      */
     Frame fetchNewPageFrame(int partNum) {
+        return this.fetchNewPageFrame(partNum, null);
+    }
+
+    /**
+     * Fetches a buffer frame for a new page, loaded according to an access strategy. Pins the
+     * buffer frame. Cannot be used outside the package.
+     *
+     * @param partNum partition number for new page
+     * @param strategy access strategy, or null to load the page as usual
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(int partNum, BufferAccessStrategy strategy) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        // no other thread knows of the page yet, and fetchPageFrame claims its frame atomically,
+        // so the shard lock is not held while the evicted page is flushed and the new one read
+        return fetchPageFrame(pageNum, strategy);
     }
 
     /**
@@ -484,7 +1714,20 @@ public class BufferManager implements AutoCloseable {
      * @return the new page
      */
     public Page fetchNewPage(LockContext parentContext, int partNum) {
-        Frame newFrame = this.fetchNewPageFrame(partNum);
+        return this.fetchNewPage(parentContext, partNum, null);
+    }
+
+    /**
+     * Fetches a new page, with a loaded and pinned buffer frame, loaded according to an access
+     * strategy.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param partNum       partition number for new page
+     * @param strategy      access strategy, or null to load the page as usual
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, int partNum, BufferAccessStrategy strategy) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, strategy);
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
@@ -496,21 +1739,22 @@ public class BufferManager implements AutoCloseable {
      * @param page page to free
      */
     public void freePage(Page page) {
-        this.managerLock.lock();
+        Shard shard = this.getShard(page.getPageNum());
+        shard.lock.lock();
         try {
             TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            int frameIndex = shard.pageToFrame.get(page.getPageNum());
 
-            Frame frame = this.frames[frameIndex];
+            Frame frame = shard.frames[frameIndex];
             if (transaction != null) page.flush();
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
-            evictionPolicy.cleanup(frame);
+            shard.pageToFrame.remove(page.getPageNum(), frameIndex);
+            shard.evictionPolicy.cleanup(frame);
             frame.setFree();
 
-            this.frames[frameIndex] = new Frame(frame);
+            shard.frames[frameIndex] = new Frame(frame);
             diskSpaceManager.freePage(page.getPageNum());
         } finally {
-            this.managerLock.unlock();
+            shard.lock.unlock();
         }
     }
 
@@ -522,22 +1766,32 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
-        this.managerLock.lock();
+        // in index order, as in lockShards
+        for (Shard shard : this.shards) {
+            shard.lock.lock();
+        }
         try {
-            for (int i = 0; i < frames.length; ++i) {
-                Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
-                    evictionPolicy.cleanup(frame);
-                    frame.flush();
-                    frame.setFree();
-                    frames[i] = new Frame(frame);
+            for (Shard shard : this.shards) {
+                for (int i = 0; i < shard.frames.length; ++i) {
+                    Frame frame = shard.frames[i];
+                    // frames of pages freed earlier keep their page numbers, but are already free
+                    if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum && !frame.isFreed()) {
+                        shard.pageToFrame.remove(frame.getPageNum(), i);
+                        shard.evictionPolicy.cleanup(frame);
+                        frame.flush();
+                        frame.setFree();
+                        shard.frames[i] = new Frame(frame);
+                    }
                 }
             }
 
             diskSpaceManager.freePart(partNum);
+            this.sequentialRuns.remove(partNum);
+            this.partitionStats.remove(partNum);
         } finally {
-            this.managerLock.unlock();
+            for (Shard shard : this.shards) {
+                shard.lock.unlock();
+            }
         }
     }
 
@@ -547,42 +1801,39 @@ public class BufferManager implements AutoCloseable {
      * @param pageNum page number of page to evict
      */
     public void evict(long pageNum) {
-        managerLock.lock();
+        Shard shard = this.getShard(pageNum);
+        shard.lock.lock();
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
+            int frameIndex = shard.pageToFrame.get(pageNum);
+            if (frameIndex == PageTable.NOT_FOUND) {
                 return;
             }
-            evict(pageToFrame.get(pageNum));
-        } finally {
-            managerLock.unlock();
-        }
-    }
-
-    private void evict(int i) {
-        Frame frame = frames[i];
-        frame.frameLock.lock();
-        try {
-            if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
-
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex);
-                this.firstFreeIndex = i;
-
-                frame.invalidate();
-            }
+            shard.evict(frameIndex);
         } finally {
-            frame.frameLock.unlock();
+            shard.lock.unlock();
         }
     }
 
     /**
-     * Calls evict on every frame in sequence.
+     * Calls evict on every frame in sequence, and waits for any write-backs of previously
+     * evicted pages to complete.
      */
     public void evictAll() {
-        for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+        for (Shard shard : this.shards) {
+            // the shard is locked for one frame at a time, as it may shrink in between
+            for (int i = 0; ; ++i) {
+                shard.lock.lock();
+                try {
+                    if (i >= shard.frames.length) {
+                        break;
+                    }
+                    shard.evict(i);
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
         }
+        this.awaitWriteBacks();
     }
 
     /**
@@ -592,18 +1843,100 @@ public class BufferManager implements AutoCloseable {
      *                (has an unflushed change).
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
-        for (Frame frame : frames) {
-            frame.frameLock.lock();
-            try {
-                if (frame.isValid()) {
-                    process.accept(frame.pageNum, frame.dirty);
+        for (Shard shard : this.shards) {
+            for (Frame frame : shard.frames) {
+                frame.frameLock.lock();
+                try {
+                    if (frame.isValid()) {
+                        process.accept(frame.pageNum, frame.dirty);
+                    }
+                } finally {
+                    frame.frameLock.unlock();
                 }
-            } finally {
-                frame.frameLock.unlock();
             }
         }
     }
 
+    /**
+     * Calls the passed in method with the page number of every loaded page, like iterPageNums, but
+     * without locking anything: pages that are loaded or evicted (or written to) during the call
+     * may or may not be reported, or reported with a stale dirty flag. Meant for sampling the
+     * contents of the buffer pool while it is in use, as iterPageNums waits for every pinned page
+     * to be unpinned.
+     *
+     * @param process method to consume page numbers, as in iterPageNums
+     */
+    public void samplePageNums(BiConsumer<Long, Boolean> process) {
+        for (Shard shard : this.shards) {
+            for (Frame frame : shard.frames) {
+                long pageNum = frame.pageNum;
+                if (frame.isValid() && pageNum != DiskSpaceManager.INVALID_PAGE_NUM) {
+                    process.accept(pageNum, frame.dirty);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of loaded pages with unflushed changes, sampled as in samplePageNums
+     */
+    public int getNumDirtyPages() {
+        int[] numDirty = new int[1];
+        this.samplePageNums((pageNum, dirty) -> {
+            if (dirty) {
+                ++numDirty[0];
+            }
+        });
+        return numDirty[0];
+    }
+
+    /**
+     * @return counters for the whole buffer pool, since the buffer manager was started. The
+     * counters are live: they keep counting after this call.
+     */
+    public BufferPoolStats getStats() {
+        return this.stats;
+    }
+
+    /**
+     * Gets counters for the pages of each partition that has been used since the buffer manager
+     * was started. The counters are live, like those of getStats. A freed partition's counters
+     * are discarded.
+     *
+     * @return map from partition number to that partition's counters
+     */
+    public Map<Integer, BufferPoolStats> getPartitionStats() {
+        return Collections.unmodifiableMap(this.partitionStats);
+    }
+
+    private BufferPoolStats getPartitionStats(int partNum) {
+        BufferPoolStats stats = this.partitionStats.get(partNum);
+        if (stats == null) {
+            stats = this.partitionStats.computeIfAbsent(partNum, p -> new BufferPoolStats());
+        }
+        return stats;
+    }
+
+    private void recordHit(long pageNum) {
+        this.stats.recordHit();
+        this.getPartitionStats(DiskSpaceManager.getPartNum(pageNum)).recordHit();
+    }
+
+    private void recordMiss(long pageNum) {
+        this.stats.recordMiss();
+        this.getPartitionStats(DiskSpaceManager.getPartNum(pageNum)).recordMiss();
+    }
+
+    private void recordEviction(long pageNum, boolean dirty) {
+        this.stats.recordEviction(dirty);
+        this.getPartitionStats(DiskSpaceManager.getPartNum(pageNum)).recordEviction(dirty);
+    }
+
+    private void recordPinWait(long pageNum) {
+        this.stats.recordPinWait();
+        this.getPartitionStats(DiskSpaceManager.getPartNum(pageNum)).recordPinWait();
+    }
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
      * space management, and not counting allocation/free. This is not really useful except as a
@@ -611,7 +1944,7 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.get();
     }
 
     public static boolean logIOs;
@@ -626,7 +1959,168 @@ public class BufferManager implements AutoCloseable {
                 }
             }
         }
-        ++numIOs;
+        numIOs.incrementAndGet();
+    }
+
+    /**
+     * Resizes the buffer pool, dividing the new size between the shards as the constructor does.
+     * Growing adds free frames right away. Shrinking evicts the pages in the frames at the end of
+     * each shard and retires those frames, RESIZE_BATCH frames at a time, releasing the shard's
+     * lock in between so that fetches are not held up for long. Frames that are in use are not
+     * waited for: they are retired later, by a fetch that has to load a page into the shard.
+     * Until then, the buffer pool remains larger than bufferSize.
+     *
+     * The maximum read-ahead is capped anew at a quarter of the new size.
+     *
+     * @param bufferSize new size of the buffer pool (in pages), at least the number of shards
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < this.shards.length) {
+            throw new IllegalArgumentException("buffer size must be at least the number of shards");
+        }
+        for (int i = 0; i < this.shards.length; ++i) {
+            Shard shard = this.shards[i];
+            int numFrames = bufferSize / this.shards.length + (i < bufferSize % this.shards.length ? 1 : 0);
+            shard.lock.lock();
+            try {
+                shard.resize(numFrames);
+            } finally {
+                shard.lock.unlock();
+            }
+            boolean done = false;
+            while (!done) {
+                shard.lock.lock();
+                try {
+                    int length = shard.frames.length;
+                    // no progress means the next frame to retire is in use
+                    done = shard.retireFrames(RESIZE_BATCH) || shard.frames.length == length;
+                } finally {
+                    shard.lock.unlock();
+                }
+            }
+        }
+        int maxReadAhead = this.maxReadAhead;
+        if (maxReadAhead > 0) {
+            this.setMaxReadAhead(maxReadAhead);
+        }
+    }
+
+    /**
+     * @return size of the buffer pool (in pages). While the buffer pool shrinks, this is the
+     * number of frames that have not been retired yet.
+     */
+    public int getBufferSize() {
+        int bufferSize = 0;
+        for (Shard shard : this.shards) {
+            bufferSize += shard.frames.length;
+        }
+        return bufferSize;
+    }
+
+    /**
+     * @return number of shards the buffer pool is split into
+     */
+    public int getNumShards() {
+        return this.shards.length;
+    }
+
+    /**
+     * @return whether frames are stored off-heap, in direct buffers
+     */
+    public boolean isOffHeap() {
+        return this.offHeap;
+    }
+
+    /**
+     * Allocates the buffers of new frames. Off-heap, the buffers are slices of slabs of at most
+     * SLAB_FRAMES pages, so that direct memory is allocated in a few large pieces; a slab is only
+     * released once all of its frames have been retired.
+     *
+     * @param numFrames number of frames
+     * @return a page-sized buffer for each frame
+     */
+    private ByteBuffer[] allocateFrameBuffers(int numFrames) {
+        ByteBuffer[] buffers = new ByteBuffer[numFrames];
+        if (!this.offHeap) {
+            for (int i = 0; i < numFrames; ++i) {
+                buffers[i] = ByteBuffer.wrap(new byte[DiskSpaceManager.PAGE_SIZE]);
+            }
+            return buffers;
+        }
+        for (int i = 0; i < numFrames; i += SLAB_FRAMES) {
+            int slabFrames = Math.min(SLAB_FRAMES, numFrames - i);
+            ByteBuffer slab = ByteBuffer.allocateDirect(slabFrames * DiskSpaceManager.PAGE_SIZE);
+            for (int j = 0; j < slabFrames; ++j) {
+                slab.limit((j + 1) * DiskSpaceManager.PAGE_SIZE).position(j * DiskSpaceManager.PAGE_SIZE);
+                buffers[i + j] = slab.slice();
+            }
+        }
+        return buffers;
+    }
+
+    /**
+     * Copies num bytes from a frame buffer, starting at offset, to the start of buf.
+     */
+    private static void getBytes(ByteBuffer contents, int offset, byte[] buf, int num) {
+        if (contents.hasArray()) {
+            System.arraycopy(contents.array(), contents.arrayOffset() + offset, buf, 0, num);
+        } else {
+            ((ByteBuffer) contents.duplicate().position(offset)).get(buf, 0, num);
+        }
+    }
+
+    /**
+     * Copies the first num bytes of buf to a frame buffer, starting at offset.
+     */
+    private static void putBytes(byte[] buf, int num, ByteBuffer contents, int offset) {
+        if (contents.hasArray()) {
+            System.arraycopy(buf, 0, contents.array(), contents.arrayOffset() + offset, num);
+        } else {
+            ((ByteBuffer) contents.duplicate().position(offset)).put(buf, 0, num);
+        }
+    }
+
+    /**
+     * Gets the index of the shard that caches a page. Page numbers are mixed before being reduced,
+     * so that runs of consecutive pages, and the same page of different partitions, are spread
+     * across all shards.
+     * @param pageNum page number
+     * @return shard index
+     */
+    private int getShardIndex(long pageNum) {
+        long hash = (pageNum * 0x9E3779B97F4A7C15L) >>> 32;
+        return (int) (hash % this.shards.length);
+    }
+
+    private Shard getShard(long pageNum) {
+        return this.shards[this.getShardIndex(pageNum)];
+    }
+
+    /**
+     * Locks every shard that caches one of a run of consecutive pages. Shards are always locked in
+     * index order, so that threads locking more than one shard at a time cannot deadlock.
+     * @param firstPage page number of the first page of the run
+     * @param count number of pages in the run
+     * @return the locked shards, which the caller must unlock
+     */
+    private List<Shard> lockShards(long firstPage, int count) {
+        boolean[] used = new boolean[this.shards.length];
+        int numUsed = 0;
+        for (long pageNum = firstPage; pageNum < firstPage + count && numUsed < used.length; ++pageNum) {
+            int index = this.getShardIndex(pageNum);
+            if (!used[index]) {
+                used[index] = true;
+                ++numUsed;
+            }
+        }
+        List<Shard> locked = new ArrayList<>();
+        for (int i = 0; i < used.length; ++i) {
+            if (used[i]) {
+                this.shards[i].lock.lock();
+                locked.add(this.shards[i]);
+            }
+        }
+        return locked;
     }
 
     /**
@@ -0,0 +1,114 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffer pool counters, either for the whole buffer pool or for the pages of a single partition:
+ * page fetches that found the page loaded (hits) or had to read it (misses), evictions of clean
+ * and dirty pages, pins that had to wait for another thread to unpin the frame, and pages loaded
+ * by prefetches (including read-ahead). Counters are lock-free, so they are cheap to update on
+ * every fetch and may be sampled while the database is running.
+ */
+public class BufferPoolStats {
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder cleanEvictions;
+    private final LongAdder dirtyEvictions;
+    private final LongAdder pinWaits;
+    private final LongAdder prefetchedPages;
+
+    BufferPoolStats() {
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.cleanEvictions = new LongAdder();
+        this.dirtyEvictions = new LongAdder();
+        this.pinWaits = new LongAdder();
+        this.prefetchedPages = new LongAdder();
+    }
+
+    void recordHit() {
+        this.hits.increment();
+    }
+
+    void recordMiss() {
+        this.misses.increment();
+    }
+
+    /**
+     * Records the eviction of a page to load another one in its place.
+     * @param dirty whether the page had to be written out
+     */
+    void recordEviction(boolean dirty) {
+        if (dirty) {
+            this.dirtyEvictions.increment();
+        } else {
+            this.cleanEvictions.increment();
+        }
+    }
+
+    void recordPinWait() {
+        this.pinWaits.increment();
+    }
+
+    void recordPrefetch(int numPages) {
+        this.prefetchedPages.add(numPages);
+    }
+
+    /**
+     * @return number of page fetches that found the page already loaded
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return number of page fetches that had to read the page from disk
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return fraction of page fetches that were hits, or 0 if there were none
+     */
+    public double getHitRatio() {
+        long hits = this.getHits();
+        long fetches = hits + this.getMisses();
+        return fetches == 0 ? 0 : (double) hits / fetches;
+    }
+
+    /**
+     * @return number of evicted pages that did not have to be written out
+     */
+    public long getCleanEvictions() {
+        return this.cleanEvictions.sum();
+    }
+
+    /**
+     * @return number of evicted pages that had to be written out
+     */
+    public long getDirtyEvictions() {
+        return this.dirtyEvictions.sum();
+    }
+
+    /**
+     * @return number of pins that waited for another thread to unpin the frame
+     */
+    public long getPinWaits() {
+        return this.pinWaits.sum();
+    }
+
+    /**
+     * @return number of pages loaded by prefetches, before they were fetched
+     */
+    public long getPrefetchedPages() {
+        return this.prefetchedPages.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPoolStats(hits=" + getHits() + ", misses=" + getMisses() + ", cleanEvictions=" +
+               getCleanEvictions() + ", dirtyEvictions=" + getDirtyEvictions() + ", pinWaits=" +
+               getPinWaits() + ", prefetchedPages=" + getPrefetchedPages() + ")";
+    }
+}
@@ -33,12 +33,16 @@ public class ClockEvictionPolicy implements EvictionPolicy {
 
     /**
      * Called when a frame needs to be evicted.
-     * @param frames Array of all frames (same length every call)
+     * @param frames Array of all frames (whose length changes if the buffer is resized)
      * @return index of frame to be evicted
      * @throws IllegalStateException if everything is pinned
      */
     @Override
     public BufferFrame evict(BufferFrame[] frames) {
+        // the buffer may have shrunk since the last call
+        if (this.arm >= frames.length) {
+            this.arm = 0;
+        }
         int iters = 0;
         // loop around the frames looking for a frame that has bit 0
         // iters is used to ensure that we don't loop forever - after two
@@ -0,0 +1,84 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Doubly-linked list of buffer frames, in the order they were added (or last moved to the end),
+ * for eviction policies that keep frames on more than one list. Each frame is on at most one list
+ * at a time, through the Node stored in its tag.
+ */
+class FrameList {
+    private Node listHead;
+    private Node listTail;
+    private int size;
+
+    static class Node {
+        Node prev = null;
+        Node next = null;
+        BufferFrame cur;
+        // list the node is on, or null
+        FrameList list = null;
+
+        Node(BufferFrame cur) {
+            this.cur = cur;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(cur);
+        }
+    }
+
+    FrameList() {
+        this.listHead = new Node(null);
+        this.listTail = new Node(null);
+        this.listHead.next = this.listTail;
+        this.listTail.prev = this.listHead;
+        this.size = 0;
+    }
+
+    /**
+     * Adds a node, which must not be on any list, to the end of this list.
+     */
+    void addLast(Node node) {
+        node.next = this.listTail;
+        node.prev = this.listTail.prev;
+        this.listTail.prev.next = node;
+        this.listTail.prev = node;
+        node.list = this;
+        ++this.size;
+    }
+
+    /**
+     * Removes a node from this list.
+     */
+    void remove(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+        node.list = null;
+        --this.size;
+    }
+
+    /**
+     * Moves a node on this list to its end.
+     */
+    void moveToLast(Node node) {
+        this.remove(node);
+        this.addLast(node);
+    }
+
+    /**
+     * @return the node closest to the start of the list whose frame is not pinned, or null if
+     * every frame on the list is pinned
+     */
+    Node firstUnpinned() {
+        Node node = this.listHead.next;
+        while (node.cur != null && node.cur.isPinned()) {
+            node = node.next;
+        }
+        return node.cur == null ? null : node;
+    }
+
+    int size() {
+        return this.size;
+    }
+}
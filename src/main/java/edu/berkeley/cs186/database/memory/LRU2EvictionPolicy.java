@@ -0,0 +1,117 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Implementation of an LRU-2 eviction policy, which evicts the page whose second most recent
+ * reference is the oldest. Pages that have only been referenced once (whose second most recent
+ * reference is infinitely old) are evicted first, in LRU order, so pages that are only used once,
+ * such as those of a large sequential scan, do not displace pages in repeated use. The history of
+ * evicted pages is retained for as many pages as there are frames, so a page that is loaded again
+ * soon after being evicted counts as referenced twice.
+ *
+ * To keep hit and evict O(1), pages referenced at least twice are kept in order of their most
+ * recent reference rather than their second most recent one. Repeated hits on a frame, with no
+ * hits on other frames in between, count as a single reference (e.g. reading several records of a
+ * page one after another).
+ */
+public class LRU2EvictionPolicy implements EvictionPolicy {
+    // Pages referenced once, and pages referenced at least twice, in order of least to most
+    // recently used
+    private FrameList once;
+    private FrameList twice;
+
+    // Page numbers of recently evicted pages
+    private PageHistory history;
+
+    // Number of frames, as of the last call to evict
+    private int numFrames;
+
+    // Frame hit most recently
+    private BufferFrame lastHit;
+
+    // Frame returned by the last call to evict, until it is cleaned up
+    private BufferFrame evicting;
+
+    public LRU2EvictionPolicy() {
+        this.once = new FrameList();
+        this.twice = new FrameList();
+        this.history = new PageHistory();
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public void init(BufferFrame frame) {
+        FrameList.Node node = new FrameList.Node(frame);
+        frame.tag = node;
+        if (this.history.remove(frame.getPageNum())) {
+            this.twice.addLast(node);
+        } else {
+            this.once.addLast(node);
+        }
+        // the read that follows loading the page is part of the same reference
+        this.lastHit = frame;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        if (frame == this.lastHit) {
+            return;
+        }
+        this.lastHit = frame;
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (node.list == this.once) {
+            this.once.remove(node);
+            this.twice.addLast(node);
+        } else if (node.list == this.twice) {
+            this.twice.moveToLast(node);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (whose length changes if the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        FrameList.Node node = this.once.firstUnpinned();
+        if (node == null) {
+            node = this.twice.firstUnpinned();
+        }
+        if (node == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        this.evicting = node.cur;
+        return node.cur;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public void cleanup(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (frame == this.evicting) {
+            this.history.add(frame.getPageNum(), this.numFrames);
+            this.evicting = null;
+        }
+        if (frame == this.lastHit) {
+            this.lastHit = null;
+        }
+        if (node.list != null) {
+            node.list.remove(node);
+        }
+    }
+}
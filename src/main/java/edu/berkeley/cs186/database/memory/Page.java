@@ -16,18 +16,40 @@ public class Page {
     // lock context for this page
     private LockContext lockContext;
 
-    // buffer manager frame for this page's data (potentially invalidated)
+    // buffer manager frame for this page's data (potentially invalidated, or reused for
+    // another page)
     private BufferFrame frame;
 
+    // page number of this page
+    private long pageNum;
+
+    // generation of frame when it held this page
+    private int generation;
+
     /**
-     * Create a page handle with the given buffer frame
+     * Create a page handle with the given buffer frame, which must be pinned
      *
      * @param lockContext the lock context
      * @param frame the buffer manager frame for this page
      */
     Page(LockContext lockContext, BufferFrame frame) {
+        this(lockContext, frame, frame.getPageNum(), frame.getGeneration());
+    }
+
+    /**
+     * Create a page handle with the given buffer frame, which held the page at the given
+     * generation
+     *
+     * @param lockContext the lock context
+     * @param frame the buffer manager frame for this page
+     * @param pageNum the page number
+     * @param generation generation of the frame when it held the page
+     */
+    Page(LockContext lockContext, BufferFrame frame, long pageNum, int generation) {
         this.lockContext = lockContext;
         this.frame = frame;
+        this.pageNum = pageNum;
+        this.generation = generation;
     }
 
     /**
@@ -38,6 +60,8 @@ public class Page {
     protected Page(Page page) {
         this.lockContext = page.lockContext;
         this.frame = page.frame;
+        this.pageNum = page.pageNum;
+        this.generation = page.generation;
     }
 
     /**
@@ -73,8 +97,33 @@ public class Page {
         if (buf.length < num) {
             throw new PageException("num bytes to read is longer than buffer");
         }
+        // the frame may have been reused for another page, unless the page is pinned
+        this.frame.readBytes(this.generation, (short) position, (short) num, buf);
+    }
 
-        this.frame.readBytes((short) position, (short) num, buf);
+    /**
+     * Reads num bytes from offset position into buf without pinning the page, if the page is
+     * loaded and not written to during the read. Unlike reads through getBuffer, this never
+     * loads the page, and never waits for a writer or for whoever has the page pinned.
+     *
+     * @param position the offset in the page to read from
+     * @param num the number of bytes to read
+     * @param buf the buffer to put the bytes into
+     * @return whether the read succeeded - if not, buf may be left with any contents, and the
+     * page should be pinned and read as usual instead
+     */
+    public boolean tryReadBytes(int position, int num, byte[] buf) {
+        if (position < 0 || num < 0) {
+            throw new PageException("position or num can't be negative");
+        }
+        if (frame.getEffectivePageSize() < position + num) {
+            throw new PageException("readBytes is out of bounds");
+        }
+        if (buf.length < num) {
+            throw new PageException("num bytes to read is longer than buffer");
+        }
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        return this.frame.tryReadBytes(this.generation, (short) position, (short) num, buf);
     }
 
     /**
@@ -108,7 +157,7 @@ public class Page {
             throw new PageException("writeBytes would go out of bounds");
         }
 
-        this.frame.writeBytes((short) position, (short) num, buf);
+        this.frame.writeBytes(this.generation, (short) position, (short) num, buf);
     }
 
     /**
@@ -130,14 +179,18 @@ public class Page {
      * Force the page to disk.
      */
     public void flush() {
-        this.frame.flush();
+        // if the frame has moved on to another page, this page was written out when it was unloaded
+        if (this.frame.getGeneration() == this.generation) {
+            this.frame.flush();
+        }
     }
 
     /**
      * Loads the page into a frame (if necessary) and pins it.
      */
     public void pin() {
-        this.frame = this.frame.requestValidFrame();
+        this.frame = this.frame.requestValidFrame(this.pageNum, this.generation);
+        this.generation = this.frame.getGeneration();
     }
 
     /**
@@ -151,26 +204,26 @@ public class Page {
      * @return the virtual page number of this page
      */
     public long getPageNum() {
-        return this.frame.getPageNum();
+        return this.pageNum;
     }
 
     /**
      * @param pageLSN the new pageLSN of this page - should only be used by recovery
      */
     public void setPageLSN(long pageLSN) {
-        this.frame.setPageLSN(pageLSN);
+        this.frame.setPageLSN(this.generation, pageLSN);
     }
 
     /**
      * @return the pageLSN of this page
      */
     public long getPageLSN() {
-        return this.frame.getPageLSN();
+        return this.frame.getPageLSN(this.generation);
     }
 
     @Override
     public String toString() {
-        return "Page " + this.frame.getPageNum();
+        return "Page " + this.pageNum;
     }
 
     @Override
@@ -0,0 +1,50 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Bounded set of the page numbers of recently evicted pages ("ghost" entries), for eviction
+ * policies that treat a page differently when it is loaded again soon after being evicted.
+ * Once full, adding a page number drops the oldest one.
+ */
+class PageHistory {
+    private LinkedHashSet<Long> pageNums;
+
+    PageHistory() {
+        this.pageNums = new LinkedHashSet<>();
+    }
+
+    /**
+     * Adds a page number as the newest entry.
+     * @param pageNum page number
+     * @param capacity maximum number of entries to keep
+     */
+    void add(long pageNum, int capacity) {
+        this.pageNums.remove(pageNum);
+        this.pageNums.add(pageNum);
+        this.trim(capacity);
+    }
+
+    /**
+     * @return whether the page number was in the history
+     */
+    boolean remove(long pageNum) {
+        return this.pageNums.remove(pageNum);
+    }
+
+    /**
+     * Drops the oldest entries, until at most capacity are left.
+     */
+    void trim(int capacity) {
+        Iterator<Long> iter = this.pageNums.iterator();
+        while (this.pageNums.size() > Math.max(0, capacity)) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    int size() {
+        return this.pageNums.size();
+    }
+}
@@ -0,0 +1,239 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Map from page number to frame index, used as the page table of the buffer pool. Keys and values
+ * are stored unboxed in two parallel arrays, using open addressing with linear probing, so lookups,
+ * inserts and removals allocate nothing (inserts only allocate when the table has to grow). Removals
+ * shift later entries of the probe sequence back rather than leaving tombstones, so the table never
+ * needs to be rebuilt because of churn.
+ *
+ * Not thread-safe: callers synchronize access, except for getOptimistic, which may run concurrently
+ * with anything (changes are bracketed by a seqlock that it validates against).
+ */
+class PageTable {
+    // Value returned by get for page numbers that are not in the table
+    static final int NOT_FOUND = -1;
+
+    // Key of empty slots
+    private static final long EMPTY = DiskSpaceManager.INVALID_PAGE_NUM;
+
+    // Page numbers, or EMPTY
+    private long[] keys;
+
+    // Frame index of the page number in the same slot
+    private int[] values;
+
+    // Number of entries
+    private int size;
+
+    // keys.length - 1 (the capacity is a power of two)
+    private int mask;
+
+    // Write-locked while the table changes, for getOptimistic
+    private final StampedLock version = new StampedLock();
+
+    /**
+     * Creates a page table that can hold expectedSize entries without growing.
+     *
+     * @param expectedSize number of entries to size the table for
+     */
+    PageTable(int expectedSize) {
+        this.allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * @param pageNum page number
+     * @return frame index of pageNum, or NOT_FOUND if pageNum is not in the table
+     */
+    int get(long pageNum) {
+        for (int i = this.slot(pageNum); ; i = (i + 1) & this.mask) {
+            long key = this.keys[i];
+            if (key == pageNum) {
+                return this.values[i];
+            }
+            if (key == EMPTY) {
+                return NOT_FOUND;
+            }
+        }
+    }
+
+    /**
+     * Looks up a page number without synchronizing with changes to the table. Fails (returning
+     * NOT_FOUND) rather than returning a wrong result if the table changes during the lookup.
+     *
+     * @param pageNum page number
+     * @return frame index of pageNum, or NOT_FOUND if pageNum is not in the table or the table
+     * changed during the lookup
+     */
+    int getOptimistic(long pageNum) {
+        long stamp = this.version.tryOptimisticRead();
+        if (stamp == 0) {
+            return NOT_FOUND;
+        }
+        // the arrays are read once, and the probe bounded, as they may change underneath
+        long[] keys = this.keys;
+        int[] values = this.values;
+        if (keys.length != values.length) {
+            return NOT_FOUND;
+        }
+        int mask = keys.length - 1;
+        int frameIndex = NOT_FOUND;
+        for (int i = slot(pageNum, mask), n = 0; n < keys.length; i = (i + 1) & mask, ++n) {
+            long key = keys[i];
+            if (key == pageNum) {
+                frameIndex = values[i];
+                break;
+            }
+            if (key == EMPTY) {
+                break;
+            }
+        }
+        return this.version.validate(stamp) ? frameIndex : NOT_FOUND;
+    }
+
+    /**
+     * @param pageNum page number
+     * @return whether pageNum is in the table
+     */
+    boolean containsKey(long pageNum) {
+        return this.get(pageNum) != NOT_FOUND;
+    }
+
+    /**
+     * Maps a page number to a frame index, replacing any previous mapping.
+     *
+     * @param pageNum page number
+     * @param frameIndex frame index, which must not be negative
+     */
+    void put(long pageNum, int frameIndex) {
+        if (pageNum == EMPTY) {
+            throw new IllegalArgumentException("cannot map invalid page number");
+        }
+        if (frameIndex < 0) {
+            throw new IllegalArgumentException("frame index must not be negative");
+        }
+        long stamp = this.version.writeLock();
+        try {
+            this.insert(pageNum, frameIndex);
+        } finally {
+            this.version.unlockWrite(stamp);
+        }
+    }
+
+    private void insert(long pageNum, int frameIndex) {
+        int i = this.slot(pageNum);
+        while (this.keys[i] != EMPTY) {
+            if (this.keys[i] == pageNum) {
+                this.values[i] = frameIndex;
+                return;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.keys[i] = pageNum;
+        this.values[i] = frameIndex;
+        // kept at most half full, so that probe sequences stay short
+        if (++this.size > (this.mask + 1) / 2) {
+            this.rehash(capacityFor(this.size));
+        }
+    }
+
+    /**
+     * Removes the mapping of a page number, if it is mapped to the given frame index.
+     *
+     * @param pageNum page number
+     * @param frameIndex frame index
+     * @return whether the mapping was removed
+     */
+    boolean remove(long pageNum, int frameIndex) {
+        for (int i = this.slot(pageNum); ; i = (i + 1) & this.mask) {
+            long key = this.keys[i];
+            if (key == EMPTY) {
+                return false;
+            }
+            if (key == pageNum) {
+                if (this.values[i] != frameIndex) {
+                    return false;
+                }
+                long stamp = this.version.writeLock();
+                try {
+                    this.removeSlot(i);
+                } finally {
+                    this.version.unlockWrite(stamp);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Empties slot i, moving back entries later in its probe sequence that would otherwise no
+     * longer be reachable from their home slots.
+     */
+    private void removeSlot(int i) {
+        int hole = i;
+        for (int j = (i + 1) & this.mask; this.keys[j] != EMPTY; j = (j + 1) & this.mask) {
+            int home = this.slot(this.keys[j]);
+            // the entry at j may fill the hole unless its home slot lies cyclically in (hole, j]
+            if (((j - home) & this.mask) >= ((j - hole) & this.mask)) {
+                this.keys[hole] = this.keys[j];
+                this.values[hole] = this.values[j];
+                hole = j;
+            }
+        }
+        this.keys[hole] = EMPTY;
+        --this.size;
+    }
+
+    private int slot(long pageNum) {
+        return slot(pageNum, this.mask);
+    }
+
+    private static int slot(long pageNum, int mask) {
+        // finalizer of MurmurHash3 - page numbers of a partition are consecutive, and partitions
+        // are 10^10 apart, so neither the low nor the high bits can be used directly
+        long h = pageNum;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        this.size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.allocate(capacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                this.insert(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * @return smallest power of two that is at least twice expectedSize (and at least 2)
+     */
+    private static int capacityFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1;
+        return Math.max(2, capacity);
+    }
+}
@@ -0,0 +1,168 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sequence of page references, for comparing eviction policies on real workloads. A trace is
+ * recorded by attaching it to a buffer manager (see BufferManager#setPageTrace), which then
+ * appends the page number of every page fetched, and can be saved to and loaded from a file.
+ * Replaying a trace simulates a buffer pool of a given size under some eviction policy, and
+ * reports the fraction of references that found their page already loaded.
+ */
+public class PageTrace {
+    // Page numbers referenced, in order; only the first size are used
+    private long[] pageNums;
+    private int size;
+
+    public PageTrace() {
+        this.pageNums = new long[1024];
+        this.size = 0;
+    }
+
+    /**
+     * Appends a reference to a page.
+     * @param pageNum page number
+     */
+    public synchronized void record(long pageNum) {
+        if (this.size == this.pageNums.length) {
+            this.pageNums = Arrays.copyOf(this.pageNums, 2 * this.size);
+        }
+        this.pageNums[this.size++] = pageNum;
+    }
+
+    /**
+     * @return number of references recorded
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Replays the trace against an eviction policy: each reference to a page that is not loaded
+     * in the simulated buffer pool loads it, evicting the page chosen by the policy once the pool
+     * is full, and is followed by a hit on the page, as a fetch and a read would be.
+     *
+     * @param policy newly created eviction policy to replay the trace against
+     * @param numFrames size of the simulated buffer pool (in pages)
+     * @return fraction of references whose page was already loaded
+     */
+    public synchronized double replay(EvictionPolicy policy, int numFrames) {
+        if (numFrames < 1) {
+            throw new IllegalArgumentException("numFrames must be positive");
+        }
+        ReplayFrame[] frames = new ReplayFrame[numFrames];
+        Map<Long, Integer> loaded = new HashMap<>();
+        int numUsed = 0;
+        long hits = 0;
+        for (int i = 0; i < this.size; ++i) {
+            long pageNum = this.pageNums[i];
+            Integer frameIndex = loaded.get(pageNum);
+            if (frameIndex != null) {
+                ++hits;
+                policy.hit(frames[frameIndex]);
+                continue;
+            }
+            if (numUsed < numFrames) {
+                frameIndex = numUsed++;
+            } else {
+                ReplayFrame evicted = (ReplayFrame) policy.evict(frames);
+                policy.cleanup(evicted);
+                loaded.remove(evicted.pageNum);
+                frameIndex = evicted.index;
+            }
+            frames[frameIndex] = new ReplayFrame(frameIndex, pageNum);
+            loaded.put(pageNum, frameIndex);
+            policy.init(frames[frameIndex]);
+            policy.hit(frames[frameIndex]);
+        }
+        return this.size == 0 ? 0.0 : (double) hits / this.size;
+    }
+
+    /**
+     * Writes the trace to a file.
+     * @param path path of the file
+     */
+    public synchronized void save(String path) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(this.size);
+            for (int i = 0; i < this.size; ++i) {
+                out.writeLong(this.pageNums[i]);
+            }
+        } catch (IOException e) {
+            throw new PageException("could not save page trace: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a trace written by save.
+     * @param path path of the file
+     * @return the trace
+     */
+    public static PageTrace load(String path) {
+        PageTrace trace = new PageTrace();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            int size = in.readInt();
+            for (int i = 0; i < size; ++i) {
+                trace.record(in.readLong());
+            }
+        } catch (IOException e) {
+            throw new PageException("could not load page trace: " + e.getMessage());
+        }
+        return trace;
+    }
+
+    /**
+     * Frame of the simulated buffer pool; holds no data, and is never pinned.
+     */
+    private static class ReplayFrame extends BufferFrame {
+        private int index;
+        private long pageNum;
+
+        private ReplayFrame(int index, long pageNum) {
+            this.index = index;
+            this.pageNum = pageNum;
+        }
+
+        @Override
+        boolean isValid() {
+            return true;
+        }
+
+        @Override
+        long getPageNum() {
+            return this.pageNum;
+        }
+
+        @Override
+        void flush() {}
+
+        @Override
+        void readBytes(short position, short num, byte[] buf) {}
+
+        @Override
+        void writeBytes(short position, short num, byte[] buf) {}
+
+        @Override
+        BufferFrame requestValidFrame() {
+            return this;
+        }
+
+        @Override
+        void setPageLSN(long pageLSN) {}
+
+        @Override
+        long getPageLSN() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Replay Frame " + index + ", Page " + pageNum;
+        }
+    }
+}
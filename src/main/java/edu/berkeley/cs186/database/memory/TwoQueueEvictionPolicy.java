@@ -0,0 +1,118 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Implementation of the (full) 2Q eviction policy. Newly loaded pages go on a FIFO queue (A1in),
+ * and are only promoted to the main LRU list (Am) if they are loaded again soon after being
+ * evicted from it, which is detected through a queue of the page numbers of pages recently
+ * evicted from A1in (A1out). Pages that are only used once, such as those of a large sequential
+ * scan, therefore pass through A1in without displacing the pages on Am.
+ *
+ * Repeated hits on a frame, with no hits on other frames in between, count as a single reference
+ * (e.g. reading several records of a page one after another).
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    private FrameList a1in;
+    private FrameList am;
+    private PageHistory a1out;
+
+    // Number of frames, as of the last call to evict
+    private int numFrames;
+
+    // Frame hit most recently
+    private BufferFrame lastHit;
+
+    // Frame returned by the last call to evict, until it is cleaned up
+    private BufferFrame evicting;
+
+    public TwoQueueEvictionPolicy() {
+        this.a1in = new FrameList();
+        this.am = new FrameList();
+        this.a1out = new PageHistory();
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public void init(BufferFrame frame) {
+        FrameList.Node node = new FrameList.Node(frame);
+        frame.tag = node;
+        if (this.a1out.remove(frame.getPageNum())) {
+            this.am.addLast(node);
+        } else {
+            this.a1in.addLast(node);
+        }
+        // the read that follows loading the page is part of the same reference
+        this.lastHit = frame;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public void hit(BufferFrame frame) {
+        if (frame == this.lastHit) {
+            return;
+        }
+        this.lastHit = frame;
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        // hits on A1in are not enough to promote a page, since they may be correlated
+        if (node.list == this.am) {
+            this.am.moveToLast(node);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (whose length changes if the buffer is resized)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        // A1in holds a quarter of the frames, as recommended by the paper
+        FrameList.Node node = null;
+        if (this.a1in.size() > Math.max(1, frames.length / 4)) {
+            node = this.a1in.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.am.firstUnpinned();
+        }
+        if (node == null) {
+            node = this.a1in.firstUnpinned();
+        }
+        if (node == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        this.evicting = node.cur;
+        return node.cur;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public void cleanup(BufferFrame frame) {
+        FrameList.Node node = (FrameList.Node) frame.tag;
+        if (frame == this.evicting) {
+            if (node.list == this.a1in) {
+                // A1out remembers half as many pages as there are frames
+                this.a1out.add(frame.getPageNum(), Math.max(1, this.numFrames / 2));
+            }
+            this.evicting = null;
+        }
+        if (frame == this.lastHit) {
+            this.lastHit = null;
+        }
+        if (node.list != null) {
+            node.list.remove(node);
+        }
+    }
+}
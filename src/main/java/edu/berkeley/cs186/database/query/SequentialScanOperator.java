@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -9,6 +10,9 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 import java.util.Iterator;
 
 public class SequentialScanOperator extends QueryOperator {
+    // number of frames in the ring that scans of large tables load pages into
+    static final int SCAN_RING_SIZE = 32;
+
     private TransactionContext transaction;
     private String tableName;
 
@@ -57,6 +61,12 @@ public class SequentialScanOperator extends QueryOperator {
 
     @Override
     public BacktrackingIterator<Record> backtrackingIterator() {
+        // a scan of more than a quarter of the buffer pool loads its pages into a ring, rather
+        // than evicting the pages everything else is using (as long as the ring itself is small)
+        int bufferSize = this.transaction.getBufferSize();
+        if (this.estimateIOCost() > bufferSize / 4 && SCAN_RING_SIZE <= bufferSize / 8) {
+            return this.transaction.getRecordIterator(tableName, BufferAccessStrategy.ring(SCAN_RING_SIZE));
+        }
         return this.transaction.getRecordIterator(tableName);
     }
 
@@ -28,6 +28,12 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     // Log manager
     LogManager logManager;
+    // Group commit delay of the log manager, in microseconds
+    private long groupCommitDelayMicros = 0;
+    // Number of pages of the log buffer, or 0 to keep the log tail in the buffer manager
+    private final int logBufferPages;
+    // Directory of the log segment files, or null to keep the log in the log partition
+    private final String logSegmentDir;
     // Dirty page table (page number -> recLSN).
     Map<Long, Long> dirtyPageTable = new ConcurrentHashMap<>();
     // Transaction table (transaction number -> entry).
@@ -37,7 +43,33 @@ public class ARIESRecoveryManager implements RecoveryManager {
     boolean redoComplete;
 
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
+        this(newTransaction, 0);
+    }
+
+    /**
+     * @param newTransaction function to create a new transaction for recovery
+     * @param logBufferPages number of pages of the log buffer that transactions append to
+     *                       concurrently (see LogBuffer), or 0 to append to log pages in the
+     *                       buffer manager under a lock
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction, int logBufferPages) {
+        this(newTransaction, logBufferPages, null);
+    }
+
+    /**
+     * @param newTransaction function to create a new transaction for recovery
+     * @param logBufferPages number of pages of the log buffer that transactions append to
+     *                       concurrently (see LogBuffer), or 0 to append to log pages in the
+     *                       buffer manager under a lock (or to use a log buffer of the default
+     *                       size, if the log is kept in segment files)
+     * @param logSegmentDir directory to keep the log in, in segment files of its own (see
+     *                      SegmentLogStorage), or null to keep the log in the log partition
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction, int logBufferPages,
+                                String logSegmentDir) {
         this.newTransaction = newTransaction;
+        this.logBufferPages = logBufferPages;
+        this.logSegmentDir = logSegmentDir;
     }
 
     /**
@@ -65,7 +97,15 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManager(bufferManager);
+        if (this.logSegmentDir != null) {
+            int logBufferPages = this.logBufferPages > 0 ? this.logBufferPages : LogBuffer.DEFAULT_NUM_PAGES;
+            this.logManager = new LogManager(new SegmentLogStorage(this.logSegmentDir), logBufferPages);
+        } else if (this.logBufferPages > 0) {
+            this.logManager = new LogManager(new PartitionLogStorage(diskSpaceManager), this.logBufferPages);
+        } else {
+            this.logManager = new LogManager(bufferManager);
+        }
+        this.logManager.setGroupCommitDelay(this.groupCommitDelayMicros);
     }
 
     // Forward Processing //////////////////////////////////////////////////////
@@ -99,7 +139,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long commitRecordLsn = logManager.appendToLog(new CommitTransactionLogRecord(transNum, prevLSN));
         curTransTblEntry.transaction.setStatus(Transaction.Status.COMMITTING);
         curTransTblEntry.lastLSN = commitRecordLsn;
-        logManager.flushToLSN(commitRecordLsn);
+        logManager.groupCommit(commitRecordLsn);
         return commitRecordLsn;
     }
 
@@ -503,6 +543,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
+
+        // Keep the list of pages to warm the buffer pool up with after a restart current
+        bufferManager.writeWarmUpFile();
     }
 
     /**
@@ -517,6 +560,17 @@ public class ARIESRecoveryManager implements RecoveryManager {
         this.logManager.flushToLSN(LSN);
     }
 
+    @Override
+    public void setGroupCommitDelay(long delayMicros) {
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("group commit delay must not be negative");
+        }
+        this.groupCommitDelayMicros = delayMicros;
+        if (this.logManager != null) {
+            this.logManager.setGroupCommitDelay(delayMicros);
+        }
+    }
+
     @Override
     public void dirtyPage(long pageNum, long LSN) {
         dirtyPageTable.putIfAbsent(pageNum, LSN);
@@ -94,6 +94,9 @@ public class DummyRecoveryManager implements RecoveryManager {
     @Override
     public void flushToLSN(long LSN) {}
 
+    @Override
+    public void setGroupCommitDelay(long delayMicros) {}
+
     @Override
     public void dirtyPage(long pageNum, long LSN) {}
 
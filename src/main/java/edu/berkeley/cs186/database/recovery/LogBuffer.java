@@ -0,0 +1,245 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory buffer for the tail of the log, which transactions append to without taking a lock.
+ * An append reserves space for its record with a compare-and-set on the tail (the page number
+ * and offset at which the next record starts), and then copies the record into its page, in
+ * parallel with other appends. A record that does not fit in the rest of the tail page starts
+ * the next page, sealing the tail page: no more records are appended to it.
+ *
+ * Pages are written to log storage (see LogStorage), bypassing the buffer manager, in page order,
+ * once they are sealed and all records reserved on them have been copied in. Consecutive pages
+ * are written together. A page is written when the log is flushed up to it (which seals it, if it
+ * is the tail page), or when its slot in the buffer is needed for a later page. Log records are
+ * laid out and numbered exactly as by the log manager without a log buffer (see LogManager).
+ */
+class LogBuffer {
+    // Number of pages of a log buffer, unless configured otherwise
+    static final int DEFAULT_NUM_PAGES = 32;
+
+    // Number of low bits of the tail that hold the offset within the tail page
+    private static final int OFFSET_BITS = 16;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final LogStorage logStorage;
+
+    // Buffered pages; page p is held in slots[p % slots.length]
+    private final Slot[] slots;
+
+    // Page number (high bits) and offset (low bits) at which the next record is appended
+    private final AtomicLong tail;
+
+    // First page not yet written to disk (all earlier pages have been)
+    private volatile long firstUnwrittenPage;
+
+    // Held while writing pages
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private static class Slot {
+        final byte[] bytes = new byte[DiskSpaceManager.PAGE_SIZE];
+        // Page held in the slot, or INVALID_PAGE_NUM while the slot changes pages
+        volatile long pageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+        // Number of bytes of records copied into the page
+        final AtomicInteger filled = new AtomicInteger();
+        // Offset at which the page was sealed, or -1 if records may still be appended to it
+        volatile int end = -1;
+
+        boolean isComplete() {
+            int end = this.end;
+            return end >= 0 && this.filled.get() == end;
+        }
+    }
+
+    /**
+     * @param logStorage log storage to write log pages to
+     * @param firstPageNum page number of the first page to append to; it and all later pages
+     *                     must not hold any records
+     * @param numPages number of pages to buffer
+     */
+    LogBuffer(LogStorage logStorage, long firstPageNum, int numPages) {
+        if (numPages < 2) {
+            throw new IllegalArgumentException("log buffer must hold at least 2 pages");
+        }
+        this.logStorage = logStorage;
+        this.slots = new Slot[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            this.slots[i] = new Slot();
+        }
+        for (long pageNum = firstPageNum; pageNum < firstPageNum + numPages; ++pageNum) {
+            this.slot(pageNum).pageNum = pageNum;
+        }
+        this.tail = new AtomicLong(pack(firstPageNum, 0));
+        this.firstUnwrittenPage = firstPageNum;
+    }
+
+    /**
+     * Appends a record to the log.
+     * @param record serialized log record
+     * @return LSN of the record
+     */
+    long append(byte[] record) {
+        int length = record.length;
+        if (length > DiskSpaceManager.PAGE_SIZE) {
+            throw new IllegalArgumentException("log record does not fit on a page");
+        }
+        long pageNum;
+        int offset;
+        while (true) {
+            long tail = this.tail.get();
+            pageNum = tail >>> OFFSET_BITS;
+            offset = (int) (tail & OFFSET_MASK);
+            if (offset + length <= DiskSpaceManager.PAGE_SIZE) {
+                if (this.tail.compareAndSet(tail, pack(pageNum, offset + length))) {
+                    break;
+                }
+            } else if (this.tail.compareAndSet(tail, pack(pageNum + 1, length))) {
+                this.awaitSlot(pageNum).end = offset;
+                ++pageNum;
+                offset = 0;
+                break;
+            }
+        }
+        Slot slot = this.awaitSlot(pageNum);
+        System.arraycopy(record, 0, slot.bytes, offset, length);
+        slot.filled.addAndGet(length);
+        return LogManager.makeLSN(pageNum, offset);
+    }
+
+    /**
+     * Writes the log to disk up to and including the page containing LSN, sealing that page if
+     * it is the tail page. Waits for appends in progress on the pages to finish copying.
+     * @param LSN LSN up to which the log is written
+     * @return number of pages written
+     */
+    int writeTo(long LSN) {
+        return this.writeThrough(LogManager.getLSNPage(LSN));
+    }
+
+    /**
+     * Writes all appended records to disk.
+     * @return number of pages written
+     */
+    int writeAll() {
+        long tail = this.tail.get();
+        // an empty tail page is left to be appended to
+        return this.writeThrough((tail >>> OFFSET_BITS) - ((tail & OFFSET_MASK) == 0 ? 1 : 0));
+    }
+
+    private int writeThrough(long pageNum) {
+        this.writeLock.lock();
+        try {
+            // pages after the tail page have no records yet
+            return this.writePages(Math.min(pageNum, this.tail.get() >>> OFFSET_BITS));
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the first page not yet written to disk
+     */
+    long getFirstUnwrittenPage() {
+        return this.firstUnwrittenPage;
+    }
+
+    /**
+     * Copies a page out of the buffer. The records on the page that have been appended (that is,
+     * whose append has returned) are complete in the copy.
+     * @param pageNum page number
+     * @return copy of the page, or null if the page is not buffered (it has been written out,
+     * or nothing has been appended to it yet)
+     */
+    byte[] copyPage(long pageNum) {
+        Slot slot = this.slot(pageNum);
+        if (slot.pageNum != pageNum) {
+            return null;
+        }
+        byte[] copy = slot.bytes.clone();
+        // the slot may have moved on to another page during the copy
+        return slot.pageNum == pageNum ? copy : null;
+    }
+
+    /**
+     * Writes the pages from the first unwritten page up to lastPageNum, in order, as many at a
+     * time as the buffer holds. The write lock must be held.
+     */
+    private int writePages(long lastPageNum) {
+        byte[][] run = new byte[this.slots.length][];
+        int numWritten = 0;
+        while (this.firstUnwrittenPage <= lastPageNum) {
+            long firstPageNum = this.firstUnwrittenPage;
+            int runLength = (int) Math.min(lastPageNum - firstPageNum + 1, this.slots.length);
+            for (int i = 0; i < runLength; ++i) {
+                run[i] = this.awaitComplete(firstPageNum + i).bytes;
+            }
+            this.logStorage.writePages(firstPageNum, run, runLength);
+            numWritten += runLength;
+            this.firstUnwrittenPage = firstPageNum + runLength;
+
+            for (int i = 0; i < runLength; ++i) {
+                Slot slot = this.slot(firstPageNum + i);
+                slot.pageNum = DiskSpaceManager.INVALID_PAGE_NUM;
+                Arrays.fill(slot.bytes, (byte) 0);
+                slot.filled.set(0);
+                slot.end = -1;
+                slot.pageNum = firstPageNum + i + this.slots.length;
+            }
+        }
+        return numWritten;
+    }
+
+    /**
+     * Waits for all records reserved on a buffered page to be copied in, sealing the page first
+     * if it is the tail page.
+     */
+    private Slot awaitComplete(long pageNum) {
+        Slot slot = this.slot(pageNum);
+        while (!slot.isComplete()) {
+            long tail = this.tail.get();
+            if (slot.end < 0 && tail >>> OFFSET_BITS == pageNum) {
+                if (this.tail.compareAndSet(tail, pack(pageNum + 1, 0))) {
+                    slot.end = (int) (tail & OFFSET_MASK);
+                }
+            } else {
+                // an append is still copying its record, or sealing the page
+                Thread.yield();
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Waits for the slot of a page to hold the page, writing out the page it holds if necessary.
+     */
+    private Slot awaitSlot(long pageNum) {
+        Slot slot = this.slot(pageNum);
+        while (slot.pageNum != pageNum) {
+            // the thread holding the write lock may be waiting for this thread's append, so it
+            // must not be waited for
+            if (this.writeLock.tryLock()) {
+                try {
+                    this.writePages(pageNum - this.slots.length);
+                } finally {
+                    this.writeLock.unlock();
+                }
+            }
+            Thread.yield();
+        }
+        return slot;
+    }
+
+    private Slot slot(long pageNum) {
+        return this.slots[(int) (pageNum % this.slots.length)];
+    }
+
+    private static long pack(long pageNum, int offset) {
+        return (pageNum << OFFSET_BITS) | offset;
+    }
+}
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
@@ -33,6 +34,21 @@ import java.util.*;
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
  * These must be called from the buffer manager to ensure that pageLSN is up to date, and
  * that flushedLSN >= any pageLSN on disk.
+ *
+ * Flushes are grouped: a thread that needs the log flushed waits while another thread is
+ * flushing it, and the next flush is then done by one of the waiting threads for all of them
+ * at once, so concurrent commits share log writes instead of each writing the log in turn.
+ * The pages are written outside of the monitor that appends hold, so that transactions may
+ * keep appending to the log (to the page after) while it is being flushed. Committing
+ * transactions (groupCommit) may additionally be asked to wait a little before flushing, when
+ * other transactions are waiting to commit as well, so that more commits join the flush.
+ *
+ * Optionally, the tail of the log is kept in a log buffer (see LogBuffer) instead of in log
+ * pages of the buffer manager. Appends then take no lock and may copy their records in
+ * parallel, and the log is written to and read from log storage (see LogStorage) directly,
+ * without going through the buffer manager: either the log partition, or segment files of
+ * its own (see SegmentLogStorage), in which case the buffer manager only ever holds data and
+ * index pages.
  */
 public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private BufferManager bufferManager;
@@ -40,7 +56,30 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private Page logTail;
     private Buffer logTailBuffer;
     private boolean logTailPinned = false;
-    private long flushedLSN;
+    private volatile long flushedLSN;
+
+    // Guards flushing, requestedLSN, numCommitters and numFlushes, and updates to flushedLSN; threads
+    // waiting for a flush wait on it. Never held while acquiring the monitor of this object.
+    private final Object flushLock = new Object();
+    // Whether a thread is currently flushing the log on behalf of the waiting threads
+    private boolean flushing = false;
+    // Highest LSN that a thread has asked to be flushed
+    private long requestedLSN = 0;
+    // Number of threads in groupCommit
+    private int numCommitters = 0;
+    // Number of times pages of the log were written out
+    private long numFlushes = 0;
+    // Pages being written by the flushing thread, or empty
+    private volatile List<Page> flushingPages = Collections.emptyList();
+    // How long (in microseconds) a commit waits for other commits to join its flush
+    private volatile long groupCommitDelayMicros = 0;
+    // Tail of the log, if kept in a log buffer rather than in the buffer manager, or null
+    private LogBuffer logBuffer;
+    // Where the log buffer writes the log to, or null
+    private LogStorage logStorage;
+
+    // Number of log pages read at a time by scans of the log in log storage
+    private static final int SCAN_READ_AHEAD_PAGES = 16;
 
     public static final int LOG_PARTITION = 0;
 
@@ -56,11 +95,36 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
     }
 
+    /**
+     * Creates a log manager that keeps the tail of the log in a log buffer, so that transactions
+     * may append to the log concurrently, and reads and writes the log through log storage.
+     * @param logStorage where the log is stored
+     * @param logBufferPages number of pages in the log buffer (at least 2)
+     */
+    LogManager(LogStorage logStorage, int logBufferPages) {
+        this.unflushedLogTail = new ArrayDeque<>();
+        this.logStorage = logStorage;
+
+        long firstPageNum = logStorage.startAppending();
+        this.logBuffer = new LogBuffer(logStorage, firstPageNum, logBufferPages);
+
+        this.flushedLSN = maxLSN(firstPageNum - 1L);
+    }
+
     /**
      * Writes to the first record in the log.
      * @param record log record to replace first record with
      */
     public synchronized void rewriteMasterRecord(MasterLogRecord record) {
+        if (this.logBuffer != null) {
+            // rewritten in place in log storage, so the first page must have been written out
+            this.logBuffer.writeTo(0L);
+            byte[] firstPage = this.readLogPage(0L);
+            byte[] bytes = record.toBytes();
+            System.arraycopy(bytes, 0, firstPage, 0, bytes.length);
+            this.logStorage.writePages(0L, new byte[][] { firstPage }, 1);
+            return;
+        }
         Page firstPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
         try {
             firstPage.getBuffer().put(record.toBytes());
@@ -75,7 +139,16 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @param record log record to append to the log
      * @return LSN of new log record
      */
-    public synchronized long appendToLog(LogRecord record) {
+    public long appendToLog(LogRecord record) {
+        if (this.logBuffer != null) {
+            long LSN = this.logBuffer.append(record.toBytes());
+            record.LSN = LSN;
+            return LSN;
+        }
+        return this.appendToLogTail(record);
+    }
+
+    private synchronized long appendToLogTail(LogRecord record) {
         byte[] bytes = record.toBytes();
         // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
         do {
@@ -110,6 +183,17 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return log record with the specified LSN
      */
     public LogRecord fetchLogRecord(long LSN) {
+        if (this.logBuffer != null) {
+            try {
+                Buffer buf = ByteBuffer.wrap(this.readLogPage(getLSNPage(LSN)));
+                buf.position(getLSNIndex(LSN));
+                Optional<LogRecord> record = LogRecord.fromBytes(buf);
+                record.ifPresent((LogRecord e) -> e.setLSN(LSN));
+                return record.orElse(null);
+            } catch (PageException e) {
+                return null;
+            }
+        }
         try {
             Page logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), getLSNPage(LSN));
             try {
@@ -132,7 +216,137 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * that contains the record specified by the LSN.
      * @param LSN LSN up to which the log should be flushed
      */
-    public synchronized void flushToLSN(long LSN) {
+    public void flushToLSN(long LSN) {
+        this.flushToLSN(LSN, false);
+    }
+
+    /**
+     * Flushes the log to at least the commit record of a transaction, like flushToLSN, but
+     * first waits for up to the group commit delay for other commits to join the flush, if
+     * other transactions are waiting to commit.
+     * @param commitLSN LSN of the commit record
+     */
+    public void groupCommit(long commitLSN) {
+        this.flushToLSN(commitLSN, true);
+    }
+
+    /**
+     * Sets how long a commit waits for other commits to join its flush when other transactions
+     * are waiting to commit; 0 (the default) never delays a flush. A small delay trades commit
+     * latency for fewer log writes when many transactions commit concurrently.
+     * @param delayMicros delay, in microseconds
+     */
+    public void setGroupCommitDelay(long delayMicros) {
+        if (delayMicros < 0) {
+            throw new IllegalArgumentException("group commit delay must not be negative");
+        }
+        this.groupCommitDelayMicros = delayMicros;
+    }
+
+    /**
+     * @return how long a commit waits for other commits to join its flush, in microseconds
+     */
+    public long getGroupCommitDelay() {
+        return this.groupCommitDelayMicros;
+    }
+
+    private void flushToLSN(long LSN, boolean commit) {
+        if (LSN <= this.flushedLSN) {
+            return;
+        }
+        if (Thread.holdsLock(this)) {
+            // called while appending (to evict a page for the log tail), so the flushing thread
+            // may be waiting for this thread: flush directly, including the pages in flight
+            if (this.logBuffer != null) {
+                int numWritten = this.logBuffer.writeTo(LSN);
+                this.advanceFlushedLSN(maxLSN(getLSNPage(LSN)), numWritten > 0);
+                return;
+            }
+            for (Page page : this.flushingPages) {
+                page.flush();
+            }
+            List<Page> pages = this.takeUnflushedPages(LSN);
+            for (Page page : pages) {
+                page.flush();
+            }
+            this.advanceFlushedLSN(maxLSN(getLSNPage(LSN)), !pages.isEmpty());
+            return;
+        }
+
+        long targetLSN;
+        boolean interrupted = false;
+        synchronized (this.flushLock) {
+            this.requestedLSN = Math.max(this.requestedLSN, LSN);
+            if (commit) {
+                ++this.numCommitters;
+            }
+            try {
+                while (this.flushing && LSN > this.flushedLSN) {
+                    try {
+                        this.flushLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (LSN <= this.flushedLSN) {
+                    // flushed by another thread
+                    return;
+                }
+                this.flushing = true;
+                if (commit && this.numCommitters > 1 && this.groupCommitDelayMicros > 0) {
+                    // other commits are waiting, so more are likely to follow: let them join
+                    long deadline = System.nanoTime() + this.groupCommitDelayMicros * 1000L;
+                    for (long remaining; (remaining = deadline - System.nanoTime()) > 0; ) {
+                        try {
+                            this.flushLock.wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+                targetLSN = this.requestedLSN;
+            } finally {
+                if (commit) {
+                    --this.numCommitters;
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        try {
+            if (this.logBuffer != null) {
+                int numWritten = this.logBuffer.writeTo(targetLSN);
+                this.advanceFlushedLSN(maxLSN(getLSNPage(targetLSN)), numWritten > 0);
+                return;
+            }
+            List<Page> pages;
+            synchronized (this) {
+                pages = this.takeUnflushedPages(targetLSN);
+                this.flushingPages = pages;
+            }
+            for (Page page : pages) {
+                page.flush();
+            }
+            this.advanceFlushedLSN(maxLSN(getLSNPage(targetLSN)), !pages.isEmpty());
+        } finally {
+            this.flushingPages = Collections.emptyList();
+            synchronized (this.flushLock) {
+                this.flushing = false;
+                this.flushLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Removes the pages up to and including the page containing LSN from the unflushed log
+     * tail. Appends go to a new page from then on, if the last page is removed.
+     * @param LSN LSN up to which the log is to be flushed
+     * @return removed pages, to be flushed
+     */
+    private synchronized List<Page> takeUnflushedPages(long LSN) {
+        List<Page> pages = new ArrayList<>();
         Iterator<Page> iter = unflushedLogTail.iterator();
         long pageNum = getLSNPage(LSN);
         while (iter.hasNext()) {
@@ -140,16 +354,25 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
             if (page.getPageNum() > pageNum) {
                 break;
             }
-            page.flush();
+            pages.add(page);
             iter.remove();
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
         if (unflushedLogTail.size() == 0) {
             if (!logTailPinned) {
                 logTail = null;
             }
             logTailBuffer = null;
         }
+        return pages;
+    }
+
+    private void advanceFlushedLSN(long LSN, boolean wrotePages) {
+        synchronized (this.flushLock) {
+            this.flushedLSN = Math.max(this.flushedLSN, LSN);
+            if (wrotePages) {
+                ++this.numFlushes;
+            }
+        }
     }
 
     /**
@@ -159,6 +382,16 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return flushedLSN;
     }
 
+    /**
+     * @return number of times pages of the log were written out; a single flush may cover the
+     * records of many transactions
+     */
+    public long getNumFlushes() {
+        synchronized (this.flushLock) {
+            return this.numFlushes;
+        }
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -202,6 +435,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      * @return iterator over log entries from LSN
      */
     public Iterator<LogRecord> scanFrom(long LSN) {
+        if (this.logBuffer != null) {
+            // appends may still be copying their records into the log buffer, so the records
+            // appended so far are written out, and read back from log storage
+            this.logBuffer.writeAll();
+        }
         return new ConcatBacktrackingIterator<>(new LogPagesIterator(LSN));
     }
 
@@ -216,27 +454,78 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
     @Override
     public synchronized void close() {
+        if (this.logBuffer != null) {
+            int numWritten = this.logBuffer.writeAll();
+            this.advanceFlushedLSN(maxLSN(this.logBuffer.getFirstUnwrittenPage() - 1L), numWritten > 0);
+            this.logStorage.close();
+            return;
+        }
         if (!this.unflushedLogTail.isEmpty()) {
             this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum()));
         }
     }
 
+    /**
+     * Reads a page of the log, when the log is kept in a log buffer and log storage.
+     * @param pageNum page number of the log page
+     * @return contents of the page
+     * @throws PageException if the page is not in the log
+     */
+    private byte[] readLogPage(long pageNum) {
+        byte[] page = this.logBuffer.copyPage(pageNum);
+        if (page != null) {
+            return page;
+        }
+        // the page is only in log storage if the log buffer has written it out
+        page = new byte[DiskSpaceManager.PAGE_SIZE];
+        if (pageNum >= this.logBuffer.getFirstUnwrittenPage() ||
+                this.logStorage.readPages(pageNum, new byte[][] { page }) == 0) {
+            throw new PageException("log page " + pageNum + " is not in the log");
+        }
+        return page;
+    }
+
     private class LogPageIterator extends IndexBacktrackingIterator<LogRecord> {
+        // Page in the buffer manager, or null if the page was read from the log buffer or storage
         private Page logPage;
+        // Contents of the page, if it was read from the log buffer or storage
+        private Buffer pageBuffer;
+        private long pageNum;
         private int startIndex;
 
         private LogPageIterator(Page logPage, int startIndex) {
             super(DiskSpaceManager.PAGE_SIZE);
             this.logPage = logPage;
+            this.pageNum = logPage.getPageNum();
             this.startIndex = startIndex;
             this.logPage.unpin();
         }
 
+        private LogPageIterator(long pageNum, byte[] page, int startIndex) {
+            super(DiskSpaceManager.PAGE_SIZE);
+            this.pageBuffer = ByteBuffer.wrap(page);
+            this.pageNum = pageNum;
+            this.startIndex = startIndex;
+        }
+
+        private Buffer pinBuffer() {
+            if (logPage == null) {
+                return pageBuffer;
+            }
+            logPage.pin();
+            return logPage.getBuffer();
+        }
+
+        private void unpinBuffer() {
+            if (logPage != null) {
+                logPage.unpin();
+            }
+        }
+
         @Override
         protected int getNextNonEmpty(int currentIndex) {
-            logPage.pin();
+            Buffer buf = pinBuffer();
             try {
-                Buffer buf = logPage.getBuffer();
                 if (currentIndex == -1) {
                     currentIndex = startIndex;
                     buf.position(currentIndex);
@@ -252,21 +541,20 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                     return DiskSpaceManager.PAGE_SIZE;
                 }
             } finally {
-                logPage.unpin();
+                unpinBuffer();
             }
         }
 
         @Override
         protected LogRecord getValue(int index) {
-            logPage.pin();
+            Buffer buf = pinBuffer();
             try {
-                Buffer buf = logPage.getBuffer();
                 buf.position(index);
                 LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
+                record.setLSN(makeLSN(pageNum, index));
                 return record;
             } finally {
-                logPage.unpin();
+                unpinBuffer();
             }
         }
     }
@@ -274,17 +562,43 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private class LogPagesIterator implements BacktrackingIterator<BacktrackingIterable<LogRecord>> {
         private BacktrackingIterator<LogRecord> nextIter;
         private long nextIndex;
+        // Pages read ahead from log storage, starting at page readAheadStart
+        private byte[][] readAhead = new byte[0][];
+        private long readAheadStart;
+        private int readAheadLength;
 
         private LogPagesIterator(long startLSN) {
             nextIndex = getLSNPage(startLSN);
             try {
-                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
+                nextIter = pageIterator(nextIndex, getLSNIndex(startLSN));
             } catch (PageException e) {
                 nextIter = null;
             }
         }
 
+        /**
+         * @throws PageException if the page is not in the log
+         */
+        private LogPageIterator pageIterator(long pageNum, int startIndex) {
+            if (logBuffer == null) {
+                return new LogPageIterator(bufferManager.fetchPage(new DummyLockContext(), pageNum), startIndex);
+            }
+            if (pageNum < readAheadStart || pageNum >= readAheadStart + readAheadLength) {
+                long numStored = logBuffer.getFirstUnwrittenPage() - pageNum;
+                if (numStored <= 0) {
+                    return new LogPageIterator(pageNum, readLogPage(pageNum), startIndex);
+                }
+                // stream through log storage several pages at a time
+                readAhead = new byte[(int) Math.min(numStored, SCAN_READ_AHEAD_PAGES)][DiskSpaceManager.PAGE_SIZE];
+                readAheadStart = pageNum;
+                readAheadLength = logStorage.readPages(pageNum, readAhead);
+                if (readAheadLength == 0) {
+                    throw new PageException("log page " + pageNum + " is not in the log");
+                }
+            }
+            return new LogPageIterator(pageNum, readAhead[(int) (pageNum - readAheadStart)], startIndex);
+        }
+
         @Override
         public void markPrev() {
             throw new UnsupportedOperationException();
@@ -315,8 +629,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 do {
                     ++nextIndex;
                     try {
-                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                        nextIter = new LogPageIterator(page, 0);
+                        nextIter = pageIterator(nextIndex, 0);
                     } catch (PageException e) {
                         break;
                     }
@@ -0,0 +1,34 @@
+package edu.berkeley.cs186.database.recovery;
+
+/**
+ * Where a log buffer (see LogBuffer) writes log pages to, and where they are read back from.
+ * Log pages are numbered from 0 (the page of the master record) in the order they are
+ * appended, and are written once, in order, except for page 0, whose master record may be
+ * rewritten.
+ */
+interface LogStorage extends AutoCloseable {
+    /**
+     * Called once, before any page is written.
+     * @return page number of the first page after the log already stored, where appends start
+     */
+    long startAppending();
+
+    /**
+     * Writes consecutive log pages, and forces them to disk.
+     * @param firstPageNum page number of the first page
+     * @param pages page contents; only the first numPages are written
+     * @param numPages number of pages to write
+     */
+    void writePages(long firstPageNum, byte[][] pages, int numPages);
+
+    /**
+     * Reads consecutive log pages, stopping at the end of the stored log.
+     * @param firstPageNum page number of the first page
+     * @param bufs buffers to read the pages into, one page each
+     * @return number of pages read
+     */
+    int readPages(long firstPageNum, byte[][] bufs);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,48 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+/**
+ * Log storage in the log partition of the disk space manager (LogManager.LOG_PARTITION), page
+ * for page, as the log is laid out when appended to through the buffer manager. Pages are read
+ * and written directly through the disk space manager.
+ */
+class PartitionLogStorage implements LogStorage {
+    private final DiskSpaceManager diskSpaceManager;
+
+    PartitionLogStorage(DiskSpaceManager diskSpaceManager) {
+        this.diskSpaceManager = diskSpaceManager;
+    }
+
+    @Override
+    public long startAppending() {
+        // log pages are never freed, so the pages after this one are free as well
+        return this.diskSpaceManager.allocPage(LogManager.LOG_PARTITION);
+    }
+
+    @Override
+    public void writePages(long firstPageNum, byte[][] pages, int numPages) {
+        for (int i = 0; i < numPages; ++i) {
+            long pageNum = firstPageNum + i;
+            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+                this.diskSpaceManager.allocPage(pageNum);
+            }
+            this.diskSpaceManager.writePage(pageNum, pages[i]);
+        }
+    }
+
+    @Override
+    public int readPages(long firstPageNum, byte[][] bufs) {
+        int numRead = 0;
+        while (numRead < bufs.length && this.diskSpaceManager.pageAllocated(firstPageNum + numRead)) {
+            this.diskSpaceManager.readPage(firstPageNum + numRead, bufs[numRead]);
+            ++numRead;
+        }
+        return numRead;
+    }
+
+    @Override
+    public void close() {
+        // the disk space manager is closed by its owner
+    }
+}
@@ -166,6 +166,14 @@ public interface RecoveryManager extends AutoCloseable {
      */
     void flushToLSN(long LSN);
 
+    /**
+     * Sets how long a committing transaction waits for other commits to join
+     * its log flush, when other transactions are waiting to commit as well.
+     *
+     * @param delayMicros delay in microseconds, or 0 to never delay commits
+     */
+    void setGroupCommitDelay(long delayMicros);
+
     /**
      * Adds the given page number and LSN to the dirty page table if the page
      * is not already present.
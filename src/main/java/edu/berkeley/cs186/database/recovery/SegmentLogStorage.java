@@ -0,0 +1,190 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log storage in segment files of their own, outside of the partitions of the disk space
+ * manager, so that log pages never pass through the buffer manager. Page p of the log is stored
+ * in segment p / segmentPages, at offset (p % segmentPages) * PAGE_SIZE; segments are named
+ * log.00000000, log.00000001, and so on. Consecutive pages are written with a single write per
+ * segment, followed by one force, and read back with a single read per segment.
+ *
+ * A new segment's directory entry is forced to disk (by forcing the directory) before any pages
+ * written to it are reported as written, so that the segment cannot disappear in a crash.
+ *
+ * A partial page at the end of the last segment (from a write cut short by a crash) is not part
+ * of the log, and is overwritten by the next page appended.
+ */
+class SegmentLogStorage implements LogStorage {
+    // Default number of pages per segment (4 MB segments)
+    static final int DEFAULT_SEGMENT_PAGES = 1024;
+
+    private static final String SEGMENT_PREFIX = "log.";
+
+    private final Path dir;
+    private final int segmentPages;
+
+    // Open segment files, by segment number; guarded by this object
+    private final List<FileChannel> segments = new ArrayList<>();
+
+    // Number of pages in the log
+    private volatile long numPages;
+
+    /**
+     * Opens the log segments in a directory, which may contain none yet.
+     * @param dir directory of the segment files
+     */
+    SegmentLogStorage(String dir) {
+        this(dir, DEFAULT_SEGMENT_PAGES);
+    }
+
+    /**
+     * Opens the log segments in a directory, which may contain none yet.
+     * @param dir directory of the segment files
+     * @param segmentPages number of pages per segment; must be the same every time the log is opened
+     */
+    SegmentLogStorage(String dir, int segmentPages) {
+        if (segmentPages <= 0) {
+            throw new IllegalArgumentException("log segments must hold at least one page");
+        }
+        this.dir = Paths.get(dir);
+        this.segmentPages = segmentPages;
+        long numPages = 0;
+        try {
+            Files.createDirectories(this.dir);
+            while (Files.exists(this.segmentPath(this.segments.size()))) {
+                FileChannel segment = this.openSegment(this.segments.size());
+                numPages = (long) (this.segments.size() - 1) * segmentPages + segment.size() / DiskSpaceManager.PAGE_SIZE;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not open log segments in " + dir + ": " + e.getMessage());
+        }
+        this.numPages = numPages;
+    }
+
+    @Override
+    public long startAppending() {
+        return this.numPages;
+    }
+
+    @Override
+    public void writePages(long firstPageNum, byte[][] pages, int numPages) {
+        try {
+            for (int i = 0; i < numPages; ) {
+                long pageNum = firstPageNum + i;
+                int segmentNum = (int) (pageNum / this.segmentPages);
+                int count = (int) Math.min(numPages - i, (segmentNum + 1L) * this.segmentPages - pageNum);
+                ByteBuffer[] bufs = new ByteBuffer[count];
+                for (int j = 0; j < count; ++j) {
+                    bufs[j] = ByteBuffer.wrap(pages[i + j]);
+                }
+                FileChannel segment = this.getSegment(segmentNum, true);
+                synchronized (segment) {
+                    segment.position(this.segmentOffset(pageNum));
+                    while (bufs[count - 1].hasRemaining()) {
+                        segment.write(bufs);
+                    }
+                }
+                segment.force(false);
+                i += count;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not write log pages " + firstPageNum + " to " +
+                                    (firstPageNum + numPages - 1) + ": " + e.getMessage());
+        }
+        this.numPages = Math.max(this.numPages, firstPageNum + numPages);
+    }
+
+    @Override
+    public int readPages(long firstPageNum, byte[][] bufs) {
+        int numRead = (int) Math.max(0, Math.min(bufs.length, this.numPages - firstPageNum));
+        try {
+            for (int i = 0; i < numRead; ) {
+                long pageNum = firstPageNum + i;
+                int segmentNum = (int) (pageNum / this.segmentPages);
+                int count = (int) Math.min(numRead - i, (segmentNum + 1L) * this.segmentPages - pageNum);
+                ByteBuffer[] dsts = new ByteBuffer[count];
+                for (int j = 0; j < count; ++j) {
+                    dsts[j] = ByteBuffer.wrap(bufs[i + j]);
+                }
+                FileChannel segment = this.getSegment(segmentNum, false);
+                synchronized (segment) {
+                    segment.position(this.segmentOffset(pageNum));
+                    while (dsts[count - 1].hasRemaining()) {
+                        if (segment.read(dsts) < 0) {
+                            throw new PageException("log segment " + segmentNum + " is truncated");
+                        }
+                    }
+                }
+                i += count;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read log pages " + firstPageNum + " to " +
+                                    (firstPageNum + numRead - 1) + ": " + e.getMessage());
+        }
+        return numRead;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (FileChannel segment : this.segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                throw new PageException("could not close log segment: " + e.getMessage());
+            }
+        }
+        this.segments.clear();
+    }
+
+    /**
+     * @param create whether to create the segment (and any before it) if it does not exist
+     */
+    private synchronized FileChannel getSegment(int segmentNum, boolean create) throws IOException {
+        if (segmentNum >= this.segments.size()) {
+            if (!create) {
+                throw new PageException("log segment " + segmentNum + " does not exist");
+            }
+            while (segmentNum >= this.segments.size()) {
+                this.openSegment(this.segments.size());
+            }
+            this.forceDirectory();
+        }
+        return this.segments.get(segmentNum);
+    }
+
+    /**
+     * Forces the directory to disk, so that the entries of segments created in it survive a crash.
+     */
+    private void forceDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(this.dir, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private FileChannel openSegment(int segmentNum) throws IOException {
+        FileChannel segment = FileChannel.open(this.segmentPath(segmentNum), StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.segments.add(segment);
+        return segment;
+    }
+
+    private Path segmentPath(int segmentNum) {
+        return this.dir.resolve(String.format("%s%08d", SEGMENT_PREFIX, segmentNum));
+    }
+
+    private long segmentOffset(long pageNum) {
+        return (pageNum % this.segmentPages) * DiskSpaceManager.PAGE_SIZE;
+    }
+}
@@ -11,9 +11,15 @@ import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -73,6 +79,9 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // page directory id
     private int pageDirectoryId;
 
+    // access strategy that data pages are loaded with, or null to load them as usual
+    private BufferAccessStrategy accessStrategy;
+
     /**
      * Creates a new heap file, or loads existing file if one already
      * exists at partNum.
@@ -100,8 +109,18 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
+    /**
+     * Sets the access strategy that data pages are loaded with from now on, such as a ring for a
+     * heap file that is written once and then read once (header pages are always loaded as usual).
+     *
+     * @param accessStrategy access strategy, or null to load data pages as usual
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        this.accessStrategy = accessStrategy;
+    }
+
     public Page getPage(long pageNum) {
-        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum, accessStrategy));
     }
 
     public Page getPageWithSpace(short requiredSpace) {
@@ -146,7 +165,17 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
     @Override
     public BacktrackingIterator<Page> iterator() {
-        return new ConcatBacktrackingIterator<>(new HeaderPageIterator());
+        return this.iterator(accessStrategy);
+    }
+
+    /**
+     * Iterates over the data pages, loading them with an access strategy.
+     *
+     * @param strategy access strategy, or null to load data pages as usual
+     * @return iterator over the data pages
+     */
+    public BacktrackingIterator<Page> iterator(BufferAccessStrategy strategy) {
+        return new ConcatBacktrackingIterator<>(new HeaderPageIterator(strategy));
     }
 
     public int getNumDataPages() {
@@ -163,6 +192,130 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         return partNum;
     }
 
+    /**
+     * Moves data pages to free pages lower down in the partition, so that the directory's pages
+     * end up packed at the start of the partition, and the space after them can be released.
+     * Pages are considered in increasing page number order, and each is moved to the lowest free
+     * page if that is below it - so pages keep their relative order - until maxPages pages have
+     * moved. Header pages are not moved.
+     *
+     * A moved page keeps its contents and its entry in the header pages, so records on it keep
+     * their entry numbers, but their page number changes: callers must update anything that
+     * refers to records by record id. Must be called with the directory locked exclusively.
+     *
+     * @param maxPages maximum number of pages to move
+     * @return map from old to new page number of each page moved, in the order they were moved
+     */
+    public Map<Long, Long> relocateDataPages(int maxPages) {
+        List<EntryLocation> entries = this.getEntryLocations();
+        Map<Long, Long> moved = new LinkedHashMap<>();
+        // the directory's pages (data and header) are the only ones in the partition, so if
+        // they already fill a prefix of it, there is no free page to move anything into
+        int numPages = entries.size();
+        long lastPage = DiskSpaceManager.INVALID_PAGE_NUM;
+        for (HeaderPage header = firstHeader; header != null; header = header.nextPage) {
+            ++numPages;
+            lastPage = Math.max(lastPage, header.page.getPageNum());
+        }
+        for (EntryLocation location : entries) {
+            lastPage = Math.max(lastPage, location.entry.pageNum);
+        }
+        if (DiskSpaceManager.getPageNum(lastPage) < numPages || maxPages <= 0) {
+            return moved;
+        }
+
+        entries.sort(Comparator.comparingLong((EntryLocation e) -> e.entry.pageNum));
+        // lowest free page of the partition, allocated but not yet moved into
+        Page freePage = null;
+        try {
+            for (EntryLocation location : entries) {
+                if (moved.size() >= maxPages) {
+                    break;
+                }
+                if (freePage == null) {
+                    freePage = bufferManager.fetchNewPage(lockContext, partNum);
+                }
+                long oldPageNum = location.entry.pageNum;
+                if (freePage.getPageNum() > oldPageNum) {
+                    continue;
+                }
+                Page oldPage = bufferManager.fetchPage(lockContext, oldPageNum);
+                try {
+                    byte[] contents = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+                    oldPage.getBuffer().get(contents);
+                    freePage.getBuffer().put(contents);
+                    location.entry.pageNum = freePage.getPageNum();
+                    location.header.writeEntry(location.index, location.entry);
+                    bufferManager.freePage(oldPage);
+                } finally {
+                    oldPage.unpin();
+                }
+                freePage.unpin();
+                freePage = null;
+                moved.put(oldPageNum, location.entry.pageNum);
+            }
+        } finally {
+            if (freePage != null) {
+                bufferManager.freePage(freePage);
+                freePage.unpin();
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Reorders the entries in the header pages so that iterating over the directory visits data
+     * pages in increasing page number order, and therefore reads them sequentially. Only the
+     * entries move - pages, and the records on them, stay where they are. Must be called with
+     * the directory locked exclusively.
+     */
+    public void orderDataPages() {
+        List<EntryLocation> entries = this.getEntryLocations();
+        List<DataPageEntry> sorted = new ArrayList<>();
+        for (EntryLocation location : entries) {
+            sorted.add(location.entry);
+        }
+        sorted.sort(Comparator.comparingLong((DataPageEntry e) -> e.pageNum));
+        for (int i = 0; i < entries.size(); ++i) {
+            EntryLocation location = entries.get(i);
+            DataPageEntry dpe = sorted.get(i);
+            if (location.entry == dpe) {
+                continue;
+            }
+            location.header.writeEntry(location.index, dpe);
+            // point the data page back at its new entry
+            Page page = bufferManager.fetchPage(lockContext, dpe.pageNum);
+            try {
+                page.getBuffer().position(4).putInt(location.header.headerOffset).putShort(location.index);
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
+    /**
+     * @return the location of every valid data page entry, in iteration order
+     */
+    private List<EntryLocation> getEntryLocations() {
+        List<EntryLocation> entries = new ArrayList<>();
+        for (HeaderPage header = firstHeader; header != null; header = header.nextPage) {
+            header.page.pin();
+            try {
+                Buffer b = header.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE);
+                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    if (dpe.isValid()) {
+                        entries.add(new EntryLocation(header, i, dpe));
+                    }
+                }
+            } finally {
+                header.page.unpin();
+            }
+        }
+        return entries;
+    }
+
     /**
      * Wrapper around page object to skip the header and verify that it belongs to this
      * page directory.
@@ -231,6 +384,21 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
     }
 
+    /**
+     * A data page entry, and where it is stored in the header pages.
+     */
+    private static class EntryLocation {
+        private final HeaderPage header;
+        private final short index;
+        private final DataPageEntry entry;
+
+        private EntryLocation(HeaderPage header, short index, DataPageEntry entry) {
+            this.header = header;
+            this.index = index;
+            this.entry = entry;
+        }
+    }
+
     /**
      * Represents a single header page.
      */
@@ -332,13 +500,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         b.position(b.position() - DataPageEntry.SIZE);
                         dpe.toBytes(b);
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
+                        return bufferManager.fetchPage(lockContext, dpe.pageNum, accessStrategy);
                     }
                 }
 
                 // if we have any unused slot in this header page, allocate a new data page
                 if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
+                    Page page = bufferManager.fetchNewPage(lockContext, partNum, accessStrategy);
                     DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
                                                           (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
 
@@ -363,6 +531,18 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             }
         }
 
+        // overwrites the data page entry at index
+        private void writeEntry(short index, DataPageEntry dpe) {
+            this.page.pin();
+            try {
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+                dpe.toBytes(b);
+            } finally {
+                this.page.unpin();
+            }
+        }
+
         // updates free space
         private void updateSpace(Page dataPage, short index, short newFreeSpace) {
             this.page.pin();
@@ -389,13 +569,25 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         @Override
         public BacktrackingIterator<Page> iterator() {
-            return new HeaderPageIterator();
+            return this.iterator(accessStrategy);
+        }
+
+        private BacktrackingIterator<Page> iterator(BufferAccessStrategy strategy) {
+            return new HeaderPageIterator(strategy);
         }
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
-            private HeaderPageIterator() {
+            // access strategy to load data pages with, or null
+            private BufferAccessStrategy strategy;
+
+            // index of the first entry whose data page has not been prefetched
+            private int prefetchedUpTo;
+
+            private HeaderPageIterator(BufferAccessStrategy strategy) {
                 super(HEADER_ENTRY_COUNT);
+                this.strategy = strategy;
+                this.prefetchedUpTo = 0;
             }
 
             @Override
@@ -423,7 +615,24 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
+                    // batched reads load pages as usual, so they are skipped when loading into a ring
+                    if (this.strategy == null && index >= this.prefetchedUpTo &&
+                            bufferManager.getReadBatchSize() > 1) {
+                        // load the data pages of the following entries along with this one, as long
+                        // as they are physically consecutive
+                        int runLength = 1;
+                        while (runLength < bufferManager.getReadBatchSize() &&
+                                index + runLength < HEADER_ENTRY_COUNT &&
+                                DataPageEntry.fromBytes(b).pageNum == dpe.pageNum + runLength) {
+                            ++runLength;
+                        }
+                        if (runLength > 1) {
+                            bufferManager.prefetchPages(dpe.pageNum, runLength);
+                        }
+                        this.prefetchedUpTo = index + runLength;
+                    }
+                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum,
+                                        this.strategy));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -438,8 +647,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         private HeaderPage nextPage;
         private HeaderPage prevPage;
         private HeaderPage markedPage;
+        private BufferAccessStrategy strategy;
 
-        private HeaderPageIterator() {
+        private HeaderPageIterator(BufferAccessStrategy strategy) {
+            this.strategy = strategy;
             this.nextPage = firstHeader;
             this.prevPage = null;
             this.markedPage = null;
@@ -451,14 +662,15 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         @Override
-        public HeaderPage next() {
+        public BacktrackingIterable<Page> next() {
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
             HeaderPage next = this.nextPage;
             this.prevPage = next;
             this.nextPage = next.nextPage;
-            return next;
+            BufferAccessStrategy strategy = this.strategy;
+            return () -> next.iterator(strategy);
         }
 
         @Override
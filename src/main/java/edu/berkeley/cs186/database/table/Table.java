@@ -11,6 +11,7 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -168,6 +169,16 @@ public class Table implements BacktrackingIterable<Record> {
         return pageDirectory.getPartNum();
     }
 
+    /**
+     * Sets the access strategy that the table's data pages are loaded with from now on (see
+     * PageDirectory#setAccessStrategy).
+     *
+     * @param accessStrategy access strategy, or null to load data pages as usual
+     */
+    public void setAccessStrategy(BufferAccessStrategy accessStrategy) {
+        pageDirectory.setAccessStrategy(accessStrategy);
+    }
+
     private byte[] getBitMap(Page page) {
         if (bitmapSizeInBytes > 0) {
             byte[] bytes = new byte[bitmapSizeInBytes];
@@ -357,6 +368,41 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * Moves up to maxPages of the table's data pages into free pages earlier in its partition
+     * (see PageDirectory#relocateDataPages), and once there are no more pages to move, orders
+     * the page directory so that scans read the pages sequentially. Records keep their contents
+     * and entry numbers, but records on moved pages get new record ids - it is up to the caller
+     * to update any indices on the table. Requires an X lock on the table.
+     *
+     * @param maxPages maximum number of pages to move
+     * @return map from old to new record id of each record that moved
+     */
+    public synchronized Map<RecordId, RecordId> compact(int maxPages) {
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.X);
+
+        Map<Long, Long> movedPages = pageDirectory.relocateDataPages(maxPages);
+        if (movedPages.size() < maxPages) {
+            pageDirectory.orderDataPages();
+        }
+        Map<RecordId, RecordId> movedRecords = new HashMap<>();
+        for (Map.Entry<Long, Long> moved : movedPages.entrySet()) {
+            Page page = fetchPage(moved.getValue());
+            try {
+                byte[] bitmap = getBitMap(page);
+                for (int i = 0; i < numRecordsPerPage; ++i) {
+                    if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
+                        movedRecords.put(new RecordId(moved.getKey(), (short) i),
+                                         new RecordId(moved.getValue(), (short) i));
+                    }
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+        return movedRecords;
+    }
+
     @Override
     public String toString() {
         return "Table " + name;
@@ -412,6 +458,18 @@ public class Table implements BacktrackingIterable<Record> {
         return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
     }
 
+    /**
+     * @param strategy access strategy to load data pages with
+     * @return Performs a full scan on the table, loading data pages with the
+     * given access strategy, to return id's of all existing records
+     */
+    public BacktrackingIterator<RecordId> ridIterator(BufferAccessStrategy strategy) {
+        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+
+        BacktrackingIterator<Page> iter = pageDirectory.iterator(strategy);
+        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
+    }
+
     /**
      * @param rids an iterator of record IDs for records in this table
      * @return an iterator over the records corresponding to the record IDs. If
@@ -434,6 +492,15 @@ public class Table implements BacktrackingIterable<Record> {
         return new RecordIterator(ridIterator());
     }
 
+    /**
+     * @param strategy access strategy to load data pages with, such as a ring for
+     * a scan that is larger than a good part of the buffer pool
+     * @return an iterator over all the records in this table
+     */
+    public BacktrackingIterator<Record> iterator(BufferAccessStrategy strategy) {
+        return new RecordIterator(ridIterator(strategy));
+    }
+
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
      * page of the table.
@@ -3,10 +3,13 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -20,9 +23,11 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.util.Iterator;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -148,6 +153,235 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testOptionsDurability() {
+        db.close();
+        Database.Options options = new Database.Options().setMappedIO(true).setOffHeapBuffer(true);
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), false, options);
+        assertTrue(db.getBufferManager().isOffHeap());
+        createNamesTable("testTable1", 500);
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), false, options);
+        try(Transaction t1 = db.beginTransaction()) {
+            Iterator<Record> records = t1.query("testTable1").execute();
+            for (int i = 0; i < 500; ++i) {
+                assertEquals("name" + i, records.next().getValue(1).getString());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    public void testCompressedTableDurability() {
+        String tableName = "testTable1";
+        db.setCompressTables(true);
+        createNamesTable(tableName, 500);
+        // a table without records has the same header and map pages, but no data pages
+        createNamesTable("emptyTable", 0);
+        int partNum = getPartNum(tableName);
+        int emptyPartNum = getPartNum("emptyTable");
+        long numPages = 0;
+        while (db.getDiskSpaceManager().pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, (int) numPages))) {
+            ++numPages;
+        }
+
+        db.close();
+        // the table's data pages, padded with zeros, take at most a third of their size on disk
+        long dataBytes = new File(this.filename, partNum + ".lz").length() -
+                new File(this.filename, emptyPartNum + ".lz").length();
+        assertTrue(numPages > 10);
+        assertTrue(dataBytes > 0 && dataBytes * 3 <= (numPages - 1) * DiskSpaceManager.PAGE_SIZE);
+        db = new Database(this.filename, 32);
+
+        try(Transaction t1 = db.beginTransaction()) {
+            Iterator<Record> records = t1.query(tableName).execute();
+            for (int i = 0; i < 500; ++i) {
+                assertTrue(records.hasNext());
+                Record record = records.next();
+                assertEquals(i, record.getValue(0).getInt());
+                assertEquals("name" + i, record.getValue(1).getString());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    public void testIOStats() {
+        String tableName = "testTable1";
+        createNamesTable(tableName, 500);
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createIndex(tableName, "id", false);
+        }
+        // 32 pages of memory is too few for the table, so it has been written out already
+        db.getBufferManager().evictAll();
+
+        Record tableStats = null;
+        Record indexStats = null;
+        for (Record record : db.getIOStatsRecords()) {
+            String name = record.getValue(1).getString();
+            if (name.equals(tableName)) {
+                tableStats = record;
+            } else if (name.equals(tableName + ".id")) {
+                indexStats = record;
+            }
+        }
+        assertTrue(tableStats != null && indexStats != null);
+        // writes and allocations of the table's pages
+        assertTrue(tableStats.getValue(3).getLong() > 0);
+        assertEquals(tableStats.getValue(3).getLong() * 4096, tableStats.getValue(5).getLong());
+        assertTrue(tableStats.getValue(6).getLong() > 1);
+        assertTrue(tableStats.getValue(10).getFloat() > 0);
+        // the index was built by scanning the table
+        assertTrue(tableStats.getValue(2).getLong() > 0);
+        assertTrue(indexStats.getValue(3).getLong() > 0);
+    }
+
+    @Test
+    public void testBufferStats() {
+        String tableName = "testTable1";
+        createNamesTable(tableName, 500);
+        db.getBufferManager().evictAll();
+        try(Transaction t2 = db.beginTransaction()) {
+            // the first scan loads the table's pages, which the second scan finds loaded
+            assertEquals(500, count(t2.getTransactionContext().getRecordIterator(tableName)));
+            assertEquals(500, count(t2.getTransactionContext().getRecordIterator(tableName)));
+        }
+
+        Record tableStats = null;
+        for (Record record : db.getBufferStatsRecords()) {
+            if (record.getValue(1).getString().equals(tableName)) {
+                tableStats = record;
+            }
+        }
+        assertTrue(tableStats != null);
+        // resident pages, all of them clean after the eviction
+        assertTrue(tableStats.getValue(2).getInt() > 0);
+        assertEquals(0, tableStats.getValue(3).getInt());
+        // hits of the second scan, and misses of the first
+        assertTrue(tableStats.getValue(4).getLong() > 0);
+        assertTrue(tableStats.getValue(5).getLong() > 0);
+        float hitRatio = tableStats.getValue(6).getFloat();
+        assertTrue(hitRatio > 0 && hitRatio < 1);
+    }
+
+    @Test
+    public void testWarmUpAfterRestart() {
+        String tableName = "testTable1";
+        createNamesTable(tableName, 500);
+        try(Transaction t2 = db.beginTransaction()) {
+            assertEquals(500, count(t2.getTransactionContext().getRecordIterator(tableName)));
+        }
+        int partNum = getPartNum(tableName);
+        db.close();
+        assertTrue(new File(filename, "_warmup").exists());
+
+        // the table's pages are loaded again in the background after the restart
+        db = new Database(filename, 32);
+        db.getBufferManager().awaitWarmUp();
+        int[] numLoaded = new int[1];
+        int tablePartNum = partNum;
+        db.getBufferManager().iterPageNums((pageNum, dirty) -> {
+            if (DiskSpaceManager.getPartNum(pageNum) == tablePartNum) {
+                ++numLoaded[0];
+            }
+        });
+        assertTrue(numLoaded[0] > 0);
+        try(Transaction t3 = db.beginTransaction()) {
+            assertEquals(500, count(t3.getTransactionContext().getRecordIterator(tableName)));
+        }
+    }
+
+    @Test
+    public void testCompactTable() {
+        String tableName = "testTable1";
+        createNamesTable(tableName, 2000);
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.createIndex(tableName, "id", false);
+            // empties the first three quarters of the table's pages
+            t1.delete(tableName, "id", PredicateOperator.LESS_THAN, new IntDataBox(1500));
+        }
+        int partNum = getPartNum(tableName);
+        File partFile = new File(this.filename, Integer.toString(partNum));
+        db.getDiskSpaceManager().shrinkPart(partNum);
+        long lengthBefore = partFile.length();
+
+        int moved = 0;
+        int batch;
+        while ((batch = db.compactTable(tableName, 4)) > 0) {
+            assertTrue(batch <= 4);
+            moved += batch;
+        }
+        assertTrue(moved > 0);
+        assertTrue(partFile.length() < lengthBefore / 2);
+
+        try(Transaction t1 = db.beginTransaction()) {
+            // scans see the records in order, and the index points at their new locations
+            Iterator<Record> records = t1.query(tableName).execute();
+            for (int i = 1500; i < 2000; ++i) {
+                assertTrue(records.hasNext());
+                assertEquals(i, records.next().getValue(0).getInt());
+                Iterator<Record> lookup = t1.getTransactionContext().lookupKey(tableName, "id", new IntDataBox(i));
+                assertTrue(lookup.hasNext());
+                assertEquals("name" + i, lookup.next().getValue(1).getString());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    public void testBackgroundCompaction() throws InterruptedException {
+        String tableName = "testTable1";
+        createNamesTable(tableName, 1000);
+        try(Transaction t1 = db.beginTransaction()) {
+            t1.delete(tableName, "id", PredicateOperator.LESS_THAN, new IntDataBox(900));
+        }
+        int partNum = getPartNum(tableName);
+        File partFile = new File(this.filename, Integer.toString(partNum));
+        db.startCompaction(2, 1, 1000);
+        // the remaining pages end up at the start of the partition, and the rest is released:
+        // the master page, the partition's header page, the directory's header page, and at
+        // most 4 data pages
+        long deadline = System.currentTimeMillis() + 10000;
+        while (partFile.length() > 7 * 4096 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        db.stopCompaction();
+        assertTrue(partFile.length() <= 7 * 4096);
+
+        try(Transaction t1 = db.beginTransaction()) {
+            Iterator<Record> records = t1.query(tableName).execute();
+            for (int i = 900; i < 1000; ++i) {
+                assertEquals(i, records.next().getValue(0).getInt());
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    /**
+     * Creates a table of (id, name) records, with ids 0 to numRecords - 1 and names "name" + id.
+     */
+    private void createNamesTable(String tableName, int numRecords) {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(100));
+        try(Transaction t = db.beginTransaction()) {
+            t.createTable(s, tableName);
+            for (int i = 0; i < numRecords; ++i) {
+                t.insert(tableName, i, "name" + i);
+            }
+        }
+    }
+
+    private int getPartNum(String tableName) {
+        for (Map.Entry<Integer, String> entry : db.getPartitionNames().entrySet()) {
+            if (entry.getValue().equals(tableName)) {
+                return entry.getKey();
+            }
+        }
+        return -1;
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -259,6 +493,60 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testLargeScanRing() throws Exception {
+        db.close();
+        db = new Database(tempFolder.newFolder("ringDatabase").getAbsolutePath(), 256);
+        db.setWorkMem(4);
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(1000));
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(s, "small");
+            for (int i = 0; i < 10; ++i) {
+                t1.insert("small", i, "small" + i);
+            }
+            // four records per page, so the table is larger than the buffer pool
+            t1.createTable(s, "large");
+            for (int i = 0; i < 1200; ++i) {
+                t1.insert("large", i, "large" + i);
+            }
+            t1.commit();
+        }
+        db.getBufferManager().evictAll();
+
+        try (Transaction t2 = db.beginTransaction()) {
+            assertEquals(10, count(t2.query("small").execute()));
+            long initialIOs = db.getBufferManager().getNumIOs();
+            // scans load the large table into a ring, rather than evicting the small table
+            assertEquals(1200, count(t2.query("large").execute()));
+            assertEquals(1200, count(t2.query("large").execute()));
+            long scanIOs = db.getBufferManager().getNumIOs() - initialIOs;
+            assertTrue(scanIOs > 300);
+            assertEquals(10, count(t2.query("small").execute()));
+            assertEquals(scanIOs, db.getBufferManager().getNumIOs() - initialIOs);
+
+            // spilled runs are loaded into a ring as well
+            QueryPlan queryPlan = t2.query("large");
+            queryPlan.sort("id");
+            Iterator<Record> iter = queryPlan.execute();
+            for (int i = 0; i < 1200; ++i) {
+                assertEquals(i, iter.next().getValue(0).getInt());
+            }
+            assertFalse(iter.hasNext());
+            t2.commit();
+        }
+    }
+
+    private static int count(Iterator<Record> iter) {
+        int count = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            ++count;
+        }
+        return count;
+    }
+
     @Test
     public void testUpdateQuery() {
         try (Transaction t1 = db.beginTransaction()) {
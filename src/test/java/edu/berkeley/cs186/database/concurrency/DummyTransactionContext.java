@@ -5,6 +5,7 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
@@ -92,6 +93,11 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public int getBufferSize() {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public RecordId deleteRecord(String tableName, RecordId rid)  {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -107,6 +113,11 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public BacktrackingIterator<Record> getRecordIterator(String tableName, BufferAccessStrategy strategy) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public RecordId updateRecord(String tableName, RecordId rid, Record record)  {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -0,0 +1,90 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of point lookups in a B+ tree whose pages are all loaded, as the
+ * number of threads grows. Not run as part of the test suite; after mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.index.BPlusTreeLookupBenchmark
+ *
+ * or directly from an IDE. Optional arguments: number of keys (default: 100000), and seconds to
+ * measure each thread count for (default: 2).
+ */
+public class BPlusTreeLookupBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        long millis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000L;
+
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(0);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4096,
+                new ClockEvictionPolicy());
+        BPlusTreeMetadata metadata = new BPlusTreeMetadata("benchmark", "key", Type.intType(), 32,
+                0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, new DummyLockContext());
+        for (int i = 0; i < numKeys; ++i) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+
+        System.out.printf("%8s %16s%n", "threads", "lookups/s");
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(2, 2 * processors); threads *= 2) {
+            System.out.printf("%8d %16.0f%n", threads, run(tree, numKeys, threads, millis));
+        }
+        bufferManager.close();
+        diskSpaceManager.close();
+    }
+
+    /**
+     * Runs lookups of random keys on some number of threads.
+     * @return lookups per second, over all threads
+     */
+    private static double run(BPlusTree tree, int numKeys, int numThreads, long millis)
+            throws InterruptedException {
+        AtomicLong lookups = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline[0]) {
+                    for (int i = 0; i < 256; ++i) {
+                        if (!tree.get(new IntDataBox(random.nextInt(numKeys))).isPresent()) {
+                            throw new IllegalStateException("key not found");
+                        }
+                    }
+                    count += 256;
+                }
+                lookups.addAndGet(count);
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return lookups.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
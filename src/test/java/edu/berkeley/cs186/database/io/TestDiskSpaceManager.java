@@ -10,8 +10,13 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.*;
 
@@ -32,6 +37,14 @@ public class TestDiskSpaceManager {
         return new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
     }
 
+    private DiskSpaceManager getMappedDiskSpaceManager() {
+        return new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true);
+    }
+
+    private DiskSpaceManager getAsyncDiskSpaceManager() {
+        return new AsyncDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager(), 2);
+    }
+
     @Test
     public void testCreateDiskSpaceManager() {
         diskSpaceManager = getDiskSpaceManager();
@@ -224,6 +237,29 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testOtherFilesIgnored() throws IOException {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        buf[0] = 42;
+        diskSpaceManager.writePage(pageNum, buf);
+        diskSpaceManager.close();
+
+        // files that are not partitions are left alone, even if empty
+        Files.write(managerRoot.resolve("_warmup"), new byte[] { 1, 2, 3, 4 });
+        Files.write(managerRoot.resolve("notes"), new byte[0]);
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+        assertEquals(partNum + 1, diskSpaceManager.allocPart());
+        assertTrue(Files.exists(managerRoot.resolve("_warmup")));
+        assertTrue(Files.exists(managerRoot.resolve("notes")));
+        diskSpaceManager.close();
+    }
+
     @Test
     public void testReadWriteMultiplePartitions() {
         diskSpaceManager = getDiskSpaceManager();
@@ -298,5 +334,494 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testReadWriteMapped() {
+        diskSpaceManager = getMappedDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.writePage(pageNum2, buf2);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(buf1, readbuf);
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf2, readbuf);
+
+        // a page allocated after the file was mapped must grow the mapping
+        long pageNum3 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.readPage(pageNum3, readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteMappedPersistent() {
+        diskSpaceManager = getMappedDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum, buf);
+        diskSpaceManager.close();
+
+        // pages written through a mapping must be readable through the file channel, and vice versa
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertArrayEquals(buf, readbuf);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum2, buf);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getMappedDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(buf, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        byte[][] bufs = new byte[4][DiskSpaceManager.PAGE_SIZE];
+        long firstPage = DiskSpaceManager.INVALID_PAGE_NUM;
+        for (int i = 0; i < bufs.length; ++i) {
+            long pageNum = diskSpaceManager.allocPage(partNum);
+            if (i == 0) {
+                firstPage = pageNum;
+            }
+            for (int j = 0; j < bufs[i].length; ++j) {
+                bufs[i][j] = (byte) ((Integer.valueOf(j).hashCode() >> (8 * i)) & 0xFF);
+            }
+            diskSpaceManager.writePage(pageNum, bufs[i]);
+        }
+
+        byte[][] readbufs = new byte[bufs.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(firstPage, bufs.length, readbufs);
+        for (int i = 0; i < bufs.length; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+
+        byte[][] partialbufs = new byte[2][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(firstPage + 1, 2, partialbufs);
+        assertArrayEquals(bufs[1], partialbufs[0]);
+        assertArrayEquals(bufs[2], partialbufs[1]);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteDirectBuffers() {
+        // plain, memory-mapped and compressed partitions
+        for (int kind = 0; kind < 3; ++kind) {
+            diskSpaceManager = kind == 1 ? getMappedDiskSpaceManager() : getDiskSpaceManager();
+            int partNum = kind == 2 ? diskSpaceManager.allocPart(true) : diskSpaceManager.allocPart();
+            // slices of one direct buffer, with positions and limits that the reads and writes ignore
+            ByteBuffer slab = ByteBuffer.allocateDirect(3 * DiskSpaceManager.PAGE_SIZE);
+            ByteBuffer[] bufs = new ByteBuffer[3];
+            byte[][] expected = new byte[3][DiskSpaceManager.PAGE_SIZE];
+            long firstPage = DiskSpaceManager.INVALID_PAGE_NUM;
+            for (int i = 0; i < bufs.length; ++i) {
+                slab.limit((i + 1) * DiskSpaceManager.PAGE_SIZE).position(i * DiskSpaceManager.PAGE_SIZE);
+                bufs[i] = slab.slice();
+                new Random(i).nextBytes(expected[i]);
+                bufs[i].put(expected[i]);
+                long pageNum = diskSpaceManager.allocPage(partNum);
+                if (i == 0) {
+                    firstPage = pageNum;
+                }
+                diskSpaceManager.writePage(pageNum, bufs[i]);
+                bufs[i].clear();
+                bufs[i].put(new byte[DiskSpaceManager.PAGE_SIZE]);
+            }
+
+            diskSpaceManager.readPage(firstPage, bufs[0]);
+            diskSpaceManager.readPages(firstPage + 1, 2, Arrays.copyOfRange(bufs, 1, 3));
+            for (int i = 0; i < bufs.length; ++i) {
+                assertEquals(DiskSpaceManager.PAGE_SIZE, bufs[i].position());
+                byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+                bufs[i].clear();
+                bufs[i].get(actual);
+                assertArrayEquals(expected[i], actual);
+            }
+
+            diskSpaceManager.freePart(partNum);
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadPagesUnallocated() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.readPages(pageNum, 2, new byte[2][DiskSpaceManager.PAGE_SIZE]);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        int numPages = 16;
+        long[] pageNums = new long[numPages];
+        byte[][] bufs = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            for (int j = 0; j < bufs[i].length; ++j) {
+                bufs[i][j] = (byte) (i * 31 + j);
+            }
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+
+        Thread[] threads = new Thread[4];
+        boolean[] failed = new boolean[threads.length];
+        for (int t = 0; t < threads.length; ++t) {
+            int threadNum = t;
+            threads[t] = new Thread(() -> {
+                byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+                byte[][] readbufs = new byte[numPages][DiskSpaceManager.PAGE_SIZE];
+                for (int round = 0; round < 50; ++round) {
+                    int i = (round + threadNum) % numPages;
+                    diskSpaceManager.readPage(pageNums[i], readbuf);
+                    diskSpaceManager.readPages(pageNums[0], numPages, readbufs);
+                    if (!Arrays.equals(bufs[i], readbuf) || !Arrays.deepEquals(bufs, readbufs)) {
+                        failed[threadNum] = true;
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean f : failed) {
+            assertFalse(f);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteAsync() {
+        diskSpaceManager = getAsyncDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        byte[][] bufs = new byte[8][DiskSpaceManager.PAGE_SIZE];
+        long[] pageNums = new long[bufs.length];
+        CompletableFuture<?>[] writes = new CompletableFuture<?>[bufs.length];
+        // more writes than the partition allows in flight at once
+        for (int i = 0; i < bufs.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(bufs[i], (byte) (i + 1));
+            writes[i] = diskSpaceManager.writePageAsync(pageNums[i], bufs[i]);
+        }
+        CompletableFuture.allOf(writes).join();
+
+        byte[][] readbufs = new byte[bufs.length][DiskSpaceManager.PAGE_SIZE];
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            reads[i] = diskSpaceManager.readPageAsync(pageNums[i], readbufs[i]);
+        }
+        CompletableFuture.allOf(reads).join();
+        for (int i = 0; i < bufs.length; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+        diskSpaceManager.close();
+
+        // pages are stored in the same format as the synchronous manager's
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < bufs.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadAsyncUnallocated() {
+        diskSpaceManager = getAsyncDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        try {
+            diskSpaceManager.readPage(pageNum + 1, new byte[DiskSpaceManager.PAGE_SIZE]);
+        } finally {
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testAllocPageExtents() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        assertEquals(pageNum1 + 1, pageNum2);
+
+        // the rest of the extent is reserved, but not allocated
+        assertFalse(diskSpaceManager.pageAllocated(pageNum2 + 1));
+        try {
+            diskSpaceManager.freePage(pageNum2 + 1);
+            fail();
+        } catch (NoSuchElementException e) { /* do nothing */ }
+
+        // reserved pages can be allocated explicitly
+        diskSpaceManager.allocPage(pageNum2 + 2);
+        assertTrue(diskSpaceManager.pageAllocated(pageNum2 + 2));
+        assertEquals(pageNum2 + 1, diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.close();
+
+        // unused reservations are released on close
+        diskSpaceManager = getDiskSpaceManager();
+        assertTrue(diskSpaceManager.pageAllocated(pageNum2 + 2));
+        assertFalse(diskSpaceManager.pageAllocated(pageNum2 + 3));
+        assertEquals(pageNum2 + 3, diskSpaceManager.allocPage(partNum));
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testAllocPageExtentsCrash() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pages = new long[3];
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+            buf[0] = (byte) (i + 1);
+            diskSpaceManager.writePage(pages[i], buf);
+        }
+        // crash: the manager is never closed, so the rest of the extent is never released
+
+        DiskSpaceManager reopened = getDiskSpaceManager();
+        for (int i = 0; i < pages.length; ++i) {
+            assertTrue(reopened.pageAllocated(pages[i]));
+            reopened.readPage(pages[i], buf);
+            assertEquals(i + 1, buf[0]);
+        }
+        assertFalse(reopened.pageAllocated(pages[2] + 1));
+        assertEquals(pages[2] + 1, reopened.allocPage(partNum));
+        reopened.freePage(pages[2] + 1);
+
+        // nothing past the last allocated page is kept
+        reopened.shrinkPart(partNum);
+        assertEquals(5 * DiskSpaceManager.PAGE_SIZE, managerRoot.resolve(Integer.toString(partNum)).toFile().length());
+        reopened.close();
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testPageAllocatedPersist() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pages = new long[10];
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        long explicitPage = diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum, 40000));
+        diskSpaceManager.freePage(pages[3]);
+        diskSpaceManager.freePage(pages[7]);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < pages.length; ++i) {
+            assertEquals(i != 3 && i != 7, diskSpaceManager.pageAllocated(pages[i]));
+        }
+        assertTrue(diskSpaceManager.pageAllocated(explicitPage));
+        assertFalse(diskSpaceManager.pageAllocated(explicitPage + 1));
+        assertFalse(diskSpaceManager.pageAllocated(DiskSpaceManager.getVirtualPageNum(partNum, 100000)));
+        assertEquals(pages[3], diskSpaceManager.allocPage(partNum));
+        assertTrue(diskSpaceManager.pageAllocated(pages[3]));
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testIOStats() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        long page1 = diskSpaceManager.allocPage(partNum1);
+        long page2 = diskSpaceManager.allocPage(partNum1);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.writePage(page1, buf);
+        diskSpaceManager.readPage(page1, buf);
+        diskSpaceManager.readPages(page1, 2, new byte[][] {buf, new byte[DiskSpaceManager.PAGE_SIZE]});
+        diskSpaceManager.freePage(page2);
+
+        PartitionIOStats stats = diskSpaceManager.getIOStats().get(partNum1);
+        assertEquals(3, stats.getReads());
+        assertEquals(3L * DiskSpaceManager.PAGE_SIZE, stats.getBytesRead());
+        // the two pages read together take one read of the file
+        assertEquals(2, stats.getFileReads());
+        assertEquals(1, stats.getWrites());
+        assertEquals(2, stats.getAllocs());
+        assertEquals(1, stats.getFrees());
+        assertEquals(2, stats.getReadLatency().getCount());
+        assertEquals(1, stats.getWriteLatency().getCount());
+        long p50 = stats.getReadLatency().getPercentileNanos(50);
+        assertTrue(p50 > 0 && p50 <= stats.getReadLatency().getPercentileNanos(100));
+        assertEquals(0, diskSpaceManager.getIOStats().get(partNum2).getReads());
+
+        diskSpaceManager.freePart(partNum2);
+        assertFalse(diskSpaceManager.getIOStats().containsKey(partNum2));
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testFileGrowthChunk() {
+        DiskSpaceManagerImpl dsm = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        diskSpaceManager = dsm;
+        dsm.setFileGrowthChunk(16 * DiskSpaceManager.PAGE_SIZE);
+        int partNum = diskSpaceManager.allocPart();
+        long page = diskSpaceManager.allocPage(partNum);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        buf[0] = 1;
+        diskSpaceManager.writePage(page, buf);
+
+        // master page, header page, and one data page, preallocated to a whole chunk
+        assertEquals(16 * DiskSpaceManager.PAGE_SIZE, managerRoot.resolve("0").toFile().length());
+        for (int i = 1; i < 20; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+        assertEquals(32 * DiskSpaceManager.PAGE_SIZE, managerRoot.resolve("0").toFile().length());
+        diskSpaceManager.close();
+
+        // preallocated space is given back on close
+        assertEquals(22 * DiskSpaceManager.PAGE_SIZE, managerRoot.resolve("0").toFile().length());
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(page, buf);
+        assertEquals(1, buf[0]);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteCompressed() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(true);
+        assertTrue(managerRoot.resolve(partNum + ".lz").toFile().exists());
+
+        // a mostly zero page, a page that does not compress, and a page with repeated runs
+        byte[][] bufs = new byte[3][DiskSpaceManager.PAGE_SIZE];
+        bufs[0][100] = 42;
+        new Random(0).nextBytes(bufs[1]);
+        for (int i = 0; i < bufs[2].length; ++i) {
+            bufs[2][i] = (byte) ((i / 100) % 7);
+        }
+        long[] pageNums = new long[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pageNums[i], bufs[i]);
+        }
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < bufs.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+
+        // rewriting a page with contents that compress worse moves it
+        new Random(1).nextBytes(bufs[0]);
+        diskSpaceManager.writePage(pageNums[0], bufs[0]);
+        diskSpaceManager.freePage(pageNums[2]);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < 2; ++i) {
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+        assertFalse(diskSpaceManager.pageAllocated(pageNums[2]));
+        diskSpaceManager.freePart(partNum);
+        assertFalse(managerRoot.resolve(partNum + ".lz").toFile().exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompressedSize() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(true);
+        int numPages = 1000;
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            long pageNum = diskSpaceManager.allocPage(partNum);
+            // a short string padded out with zeros
+            Arrays.fill(buf, (byte) 0);
+            buf[0] = (byte) i;
+            System.arraycopy("row".getBytes(), 0, buf, 1, 3);
+            diskSpaceManager.writePage(pageNum, buf);
+        }
+        diskSpaceManager.close();
+
+        long compressedLength = managerRoot.resolve(partNum + ".lz").toFile().length();
+        assertTrue(compressedLength < (long) numPages * DiskSpaceManager.PAGE_SIZE / 3);
+    }
+
+    @Test
+    public void testCompressedCompactionCrash() throws IOException {
+        // pages that do not compress, between small pages that are freed, so that every page
+        // left moves down by less than its own length
+        byte[][] bufs = new byte[8][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < bufs.length; i += 2) {
+            new Random(i).nextBytes(bufs[i]);
+            bufs[i + 1][0] = (byte) i;
+        }
+        // crash after each of the 3 moves in turn, and then let a compaction finish
+        for (int crashAfter = 1; crashAfter <= 4; ++crashAfter) {
+            String fileName = managerRoot.resolve(crashAfter + ".lz").toString();
+            CompressedPartitionHandle handle = new CompressedPartitionHandle(crashAfter, new DummyRecoveryManager());
+            handle.open(fileName);
+            for (int i = 0; i < bufs.length; ++i) {
+                assertEquals(i, handle.allocPage());
+                handle.writePage(i, bufs[i]);
+            }
+            for (int i = 1; i < bufs.length; i += 2) {
+                handle.freePage(i);
+            }
+            int[] numMoves = new int[1];
+            int limit = crashAfter;
+            handle.onCompactionMove = () -> {
+                if (++numMoves[0] == limit) {
+                    throw new PageException("crash");
+                }
+            };
+            boolean crashed = false;
+            try {
+                handle.compact(0);
+            } catch (PageException e) {
+                crashed = true;
+            }
+            assertEquals(crashAfter <= 3, crashed);
+            // the handle is never closed after a crash
+
+            CompressedPartitionHandle reopened = new CompressedPartitionHandle(crashAfter, new DummyRecoveryManager());
+            reopened.open(fileName);
+            assertFalse(Files.exists(managerRoot.resolve(crashAfter + ".lz.compact")));
+            byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+            for (int i = 0; i < bufs.length; i += 2) {
+                reopened.readPage(i, readbuf);
+                assertArrayEquals(bufs[i], readbuf);
+            }
+            reopened.writePage(2, bufs[1]);
+            reopened.readPage(2, readbuf);
+            assertArrayEquals(bufs[1], readbuf);
+            reopened.close();
+        }
+    }
+}
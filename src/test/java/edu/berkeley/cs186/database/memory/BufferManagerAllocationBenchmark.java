@@ -0,0 +1,100 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.concurrency.LockManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the heap allocated per page fetch on the miss path of the buffer manager (every
+ * fetch evicts a page and loads another one into its frame), and per fetch of a page that is
+ * loaded, both for buffer frames and for page handles. The disk space manager underneath reads
+ * and writes nothing, so that only the buffer manager's own allocation is counted. Not run as
+ * part of the test suite; after mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.memory.BufferManagerAllocationBenchmark
+ *
+ * or directly from an IDE. Optional argument: number of fetches to measure (default: 1000000).
+ */
+public class BufferManagerAllocationBenchmark {
+    private static final int BUFFER_SIZE = 64;
+
+    public static void main(String[] args) {
+        int fetches = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        MemoryDiskSpaceManager diskSpaceManager = new NullDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                BUFFER_SIZE, new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        // twice as many pages as frames, fetched round-robin, so that every fetch misses
+        long[] pageNums = new long[2 * BUFFER_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        LockContext lockContext = new LockManager().context("database").childContext("table");
+
+        // warm up, so that what is measured is compiled code
+        for (int i = 0; i < 3; ++i) {
+            fetchFrames(bufferManager, pageNums, pageNums.length, fetches);
+            fetchFrames(bufferManager, pageNums, BUFFER_SIZE, fetches);
+            fetchPages(bufferManager, lockContext, pageNums, BUFFER_SIZE, fetches);
+        }
+        System.out.printf("%-24s %12s%n", "operation", "bytes/fetch");
+        System.out.printf("%-24s %12.1f%n", "frame fetch (miss)",
+                fetchFrames(bufferManager, pageNums, pageNums.length, fetches));
+        System.out.printf("%-24s %12.1f%n", "frame fetch (hit)",
+                fetchFrames(bufferManager, pageNums, BUFFER_SIZE, fetches));
+        System.out.printf("%-24s %12.1f%n", "page fetch (hit)",
+                fetchPages(bufferManager, lockContext, pageNums, BUFFER_SIZE, fetches));
+
+        bufferManager.close();
+        diskSpaceManager.close();
+    }
+
+    /**
+     * Fetches and unpins the frames of the first numPages pages, round-robin.
+     * @return bytes allocated per fetch
+     */
+    private static double fetchFrames(BufferManager bufferManager, long[] pageNums, int numPages, int fetches) {
+        long before = allocatedBytes();
+        for (int i = 0; i < fetches; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i % numPages]).unpin();
+        }
+        return (double) (allocatedBytes() - before) / fetches;
+    }
+
+    /**
+     * Fetches and unpins the first numPages pages, round-robin, through page handles.
+     * @return bytes allocated per fetch
+     */
+    private static double fetchPages(BufferManager bufferManager, LockContext lockContext,
+                                     long[] pageNums, int numPages, int fetches) {
+        long before = allocatedBytes();
+        for (int i = 0; i < fetches; ++i) {
+            bufferManager.fetchPage(lockContext, pageNums[i % numPages]).unpin();
+        }
+        return (double) (allocatedBytes() - before) / fetches;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Disk space manager whose pages are all allocated, and never read or written.
+     */
+    private static class NullDiskSpaceManager extends MemoryDiskSpaceManager {
+        @Override
+        public void readPage(long page, byte[] buf) {}
+
+        @Override
+        public void writePage(long page, byte[] buf) {}
+
+        @Override
+        public boolean pageAllocated(long page) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of buffer pool lookups (fetching and unpinning pages that are
+ * already loaded) as the number of threads grows, with and without sharding. Not run as part
+ * of the test suite; after mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.memory.BufferManagerBenchmark
+ *
+ * or directly from an IDE. Optional arguments: number of shards for the sharded run (default:
+ * number of processors), and seconds to measure each configuration for (default: 2).
+ */
+public class BufferManagerBenchmark {
+    private static final int NUM_PAGES = 4096;
+
+    public static void main(String[] args) throws InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int numShards = args.length > 0 ? Integer.parseInt(args[0]) : processors;
+        long millis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000L;
+
+        System.out.printf("%8s %16s %16s%n", "threads", "1 shard (op/s)", numShards + " shards (op/s)");
+        for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+            double unsharded = run(1, threads, millis);
+            double sharded = run(numShards, threads, millis);
+            System.out.printf("%8d %16.0f %16.0f%n", threads, unsharded, sharded);
+        }
+    }
+
+    /**
+     * Runs lookups of random loaded pages on some number of threads.
+     * @return lookups per second, over all threads
+     */
+    private static double run(int numShards, int numThreads, long millis) throws InterruptedException {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                NUM_PAGES, numShards, ClockEvictionPolicy::new);
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+
+        AtomicLong lookups = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline[0]) {
+                    for (int i = 0; i < 1024; ++i) {
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[random.nextInt(NUM_PAGES)]);
+                        frame.unpin();
+                    }
+                    count += 1024;
+                }
+                lookups.addAndGet(count);
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        bufferManager.close();
+        diskSpaceManager.close();
+        return lookups.get() / seconds;
+    }
+}
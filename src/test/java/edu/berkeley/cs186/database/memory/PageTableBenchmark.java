@@ -0,0 +1,77 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the heap usage and lookup latency of PageTable with that of the HashMap<Long, Integer>
+ * it replaced as the buffer pool's page table, filled with one entry per frame of the default
+ * 1GB buffer pool. Not run as part of the test suite; after mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.memory.PageTableBenchmark
+ */
+public class PageTableBenchmark {
+    // number of frames in the default buffer pool (1GB of pages)
+    private static final int NUM_ENTRIES = 262144;
+    private static final int NUM_LOOKUPS = 1 << 24;
+
+    public static void main(String[] args) {
+        long[] pageNums = new long[NUM_ENTRIES];
+        for (int i = 0; i < NUM_ENTRIES; ++i) {
+            // a few partitions' worth of consecutive pages
+            pageNums[i] = DiskSpaceManager.getVirtualPageNum(1 + i % 8, i / 8);
+        }
+        int[] order = new int[NUM_LOOKUPS];
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_LOOKUPS; ++i) {
+            order[i] = random.nextInt(NUM_ENTRIES);
+        }
+
+        long before = usedHeap();
+        Map<Long, Integer> map = new HashMap<>();
+        for (int i = 0; i < NUM_ENTRIES; ++i) {
+            map.put(pageNums[i], i);
+        }
+        long mapBytes = usedHeap() - before;
+
+        before = usedHeap();
+        PageTable table = new PageTable(NUM_ENTRIES);
+        for (int i = 0; i < NUM_ENTRIES; ++i) {
+            table.put(pageNums[i], i);
+        }
+        long tableBytes = usedHeap() - before;
+
+        System.out.printf("heap for %d entries: HashMap %.1f MB, PageTable %.1f MB%n", NUM_ENTRIES,
+                mapBytes / 1048576.0, tableBytes / 1048576.0);
+
+        double mapNanos = 0;
+        double tableNanos = 0;
+        long sum = 0;
+        // the first rounds warm up the JIT; the last is reported
+        for (int round = 0; round < 5; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < NUM_LOOKUPS; ++i) {
+                sum += map.get(pageNums[order[i]]);
+            }
+            mapNanos = (System.nanoTime() - start) / (double) NUM_LOOKUPS;
+            start = System.nanoTime();
+            for (int i = 0; i < NUM_LOOKUPS; ++i) {
+                sum += table.get(pageNums[order[i]]);
+            }
+            tableNanos = (System.nanoTime() - start) / (double) NUM_LOOKUPS;
+        }
+        System.out.printf("lookup latency: HashMap %.1f ns, PageTable %.1f ns (checksum %d)%n",
+                mapNanos, tableNanos, sum);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
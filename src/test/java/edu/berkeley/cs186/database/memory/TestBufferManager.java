@@ -3,21 +3,33 @@ package edu.berkeley.cs186.database.memory;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.AsyncDiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestBufferManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private DiskSpaceManager diskSpaceManager;
     private BufferManager bufferManager;
 
@@ -34,6 +46,14 @@ public class TestBufferManager {
         diskSpaceManager.close();
     }
 
+    /**
+     * @return whether frame still holds the page it held at generation (frames are reused, so
+     * a valid frame may hold another page by now)
+     */
+    private static boolean holdsPage(BufferFrame frame, int generation) {
+        return frame.isValid() && frame.getGeneration() == generation;
+    }
+
     @Test
     public void testFetchNewPage() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -44,6 +64,9 @@ public class TestBufferManager {
         frame1.unpin();
         frame2.unpin();
         frame3.unpin();
+        int generation1 = frame1.getGeneration();
+        int generation2 = frame2.getGeneration();
+        int generation3 = frame3.getGeneration();
 
         assertTrue(frame1.isValid());
         assertTrue(frame2.isValid());
@@ -56,9 +79,11 @@ public class TestBufferManager {
         frame5.unpin();
         frame6.unpin();
 
-        assertFalse(frame1.isValid());
-        assertTrue(frame2.isValid());
-        assertTrue(frame3.isValid());
+        // the first page was evicted, and its frame reused for the last one
+        assertFalse(holdsPage(frame1, generation1));
+        assertSame(frame1, frame6);
+        assertTrue(holdsPage(frame2, generation2));
+        assertTrue(holdsPage(frame3, generation3));
         assertTrue(frame4.isValid());
         assertTrue(frame5.isValid());
         assertTrue(frame6.isValid());
@@ -102,6 +127,8 @@ public class TestBufferManager {
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
+        long pageNum1 = frame1.getPageNum();
+        int generation1 = frame1.getGeneration();
 
         diskSpaceManager.readPage(frame1.getPageNum(), actual);
         assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 67 + BufferManager.RESERVED_SPACE,
@@ -131,8 +158,8 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum).unpin();
         bufferManager.fetchNewPageFrame(partNum).unpin();
 
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertFalse(frame1.isValid());
+        diskSpaceManager.readPage(pageNum1, actual);
+        assertFalse(holdsPage(frame1, generation1));
         assertArrayEquals(expected, Arrays.copyOfRange(actual, 33 + BufferManager.RESERVED_SPACE,
                           37 + BufferManager.RESERVED_SPACE));
     }
@@ -147,6 +174,8 @@ public class TestBufferManager {
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
+        long pageNum1 = frame1.getPageNum();
+        int generation1 = frame1.getGeneration();
 
         diskSpaceManager.readPage(frame1.getPageNum(), actual);
         assertArrayEquals(new byte[4], Arrays.copyOfRange(actual, 67, 71));
@@ -173,8 +202,8 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum).unpin();
         bufferManager.fetchNewPageFrame(partNum).unpin();
 
-        diskSpaceManager.readPage(frame1.getPageNum(), actual);
-        assertFalse(frame1.isValid());
+        diskSpaceManager.readPage(pageNum1, actual);
+        assertFalse(holdsPage(frame1, generation1));
         assertArrayEquals(expected, Arrays.copyOfRange(actual, 33, 37));
     }
 
@@ -188,6 +217,8 @@ public class TestBufferManager {
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
+        long pageNum1 = frame1.getPageNum();
+        int generation1 = frame1.getGeneration();
 
         // force a eviction
         bufferManager.fetchNewPageFrame(partNum).unpin();
@@ -200,10 +231,10 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum).unpin();
         bufferManager.fetchNewPageFrame(partNum).unpin();
 
-        assertFalse(frame1.isValid());
+        assertFalse(holdsPage(frame1, generation1));
 
         // reload page
-        frame1 = bufferManager.fetchPageFrame(frame1.getPageNum());
+        frame1 = bufferManager.fetchPageFrame(pageNum1);
         frame1.readBytes((short) 67, (short) 4, actual);
         frame1.unpin();
 
@@ -220,8 +251,10 @@ public class TestBufferManager {
         BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
         frame1.writeBytes((short) 67, (short) 4, expected);
         frame1.unpin();
+        long pageNum1 = frame1.getPageNum();
+        int generation1 = frame1.getGeneration();
 
-        assertSame(frame1, frame1.requestValidFrame());
+        assertSame(frame1, frame1.requestValidFrame(pageNum1, generation1));
         frame1.unpin();
 
         // force a eviction
@@ -235,16 +268,102 @@ public class TestBufferManager {
         bufferManager.fetchNewPageFrame(partNum).unpin();
         bufferManager.fetchNewPageFrame(partNum).unpin();
 
-        assertFalse(frame1.isValid());
+        assertFalse(holdsPage(frame1, generation1));
 
-        BufferFrame frame2 = frame1.requestValidFrame();
-        assertNotSame(frame1, frame2);
+        // the page is loaded again, into whichever frame is free
+        BufferFrame frame2 = frame1.requestValidFrame(pageNum1, generation1);
+        assertEquals(pageNum1, frame2.getPageNum());
+        assertNotEquals(generation1, frame2.getGeneration());
         frame2.readBytes((short) 67, (short) 4, actual);
         frame2.unpin();
 
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testFrameReuse() {
+        int partNum = diskSpaceManager.allocPart(1);
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        Page page1 = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        long pageNum1 = page1.getPageNum();
+        page1.getBuffer().put(expected);
+        page1.unpin();
+        assertTrue(page1.tryReadBytes(0, 4, actual));
+        assertArrayEquals(expected, actual);
+
+        // every frame is reused for other pages
+        BufferFrame[] frames = new BufferFrame[5];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+        }
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+        assertEquals(pageNum1, page1.getPageNum());
+        assertFalse(page1.tryReadBytes(0, 4, actual));
+        try {
+            page1.getBuffer().get(actual);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+
+        // pinning the page loads it again, into whichever frame the eviction policy picks
+        page1.pin();
+        Arrays.fill(actual, (byte) 0);
+        page1.getBuffer().get(actual);
+        page1.unpin();
+        assertArrayEquals(expected, actual);
+        assertTrue(page1.tryReadBytes(0, 4, actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testFrameReuseStaleGeneration() {
+        int partNum = diskSpaceManager.allocPart(1);
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum);
+        int generation1 = frame1.getGeneration();
+        frame1.unpin();
+
+        // the frame is reused for another page, as if between a page handle's check of the
+        // frame's generation and its read or write
+        BufferFrame[] frames = new BufferFrame[5];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = bufferManager.fetchNewPageFrame(partNum);
+            frames[i].writeBytes((short) 0, (short) 4, expected);
+        }
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+        assertFalse(holdsPage(frame1, generation1));
+        assertTrue(frame1.isValid());
+
+        try {
+            frame1.readBytes(generation1, (short) 0, (short) 4, actual);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        try {
+            frame1.writeBytes(generation1, (short) 0, (short) 4, new byte[4]);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        try {
+            frame1.setPageLSN(generation1, 42L);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+        try {
+            frame1.getPageLSN(generation1);
+            fail();
+        } catch (IllegalStateException e) { /* do nothing */ }
+
+        // the page now in the frame is untouched
+        frame1.readBytes(frame1.getGeneration(), (short) 0, (short) 4, actual);
+        assertArrayEquals(expected, actual);
+        assertNotEquals(42L, frame1.getPageLSN(frame1.getGeneration()));
+    }
+
     @Test
     public void testFreePage() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -320,6 +439,272 @@ public class TestBufferManager {
         assertTrue(frame7.isValid());
     }
 
+    @Test
+    public void testBufferPoolStats() throws InterruptedException {
+        int partNum1 = diskSpaceManager.allocPart(1);
+        int partNum2 = diskSpaceManager.allocPart(2);
+        byte[] bytes = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+
+        // five misses filling the buffer with dirty pages
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum1);
+            frame.writeBytes((short) 67, (short) 4, bytes);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        assertEquals(5, bufferManager.getNumDirtyPages());
+        for (int i = 0; i < 3; ++i) {
+            bufferManager.fetchPageFrame(pageNums[i]).unpin();
+        }
+        BufferPoolStats stats = bufferManager.getStats();
+        assertEquals(3, stats.getHits());
+        assertEquals(5, stats.getMisses());
+        assertEquals(3 / 8.0, stats.getHitRatio(), 1e-9);
+        assertEquals(0, stats.getCleanEvictions() + stats.getDirtyEvictions());
+
+        // loading a page of the other partition evicts a dirty page of the first
+        bufferManager.fetchNewPageFrame(partNum2).unpin();
+        assertEquals(1, stats.getDirtyEvictions());
+        assertEquals(0, stats.getCleanEvictions());
+        assertEquals(4, bufferManager.getNumDirtyPages());
+        BufferPoolStats stats1 = bufferManager.getPartitionStats().get(partNum1);
+        BufferPoolStats stats2 = bufferManager.getPartitionStats().get(partNum2);
+        assertEquals(3, stats1.getHits());
+        assertEquals(5, stats1.getMisses());
+        assertEquals(1, stats1.getDirtyEvictions());
+        assertEquals(0, stats2.getHits());
+        assertEquals(1, stats2.getMisses());
+        assertEquals(0, stats2.getDirtyEvictions());
+
+        // a fetch of a page pinned by another thread waits for it to be unpinned
+        BufferFrame pinned = bufferManager.fetchPageFrame(pageNums[4]);
+        Thread thread = new Thread(() -> bufferManager.fetchPageFrame(pageNums[4]).unpin());
+        thread.start();
+        while (stats.getPinWaits() == 0) {
+            Thread.sleep(1);
+        }
+        pinned.unpin();
+        thread.join();
+        assertEquals(1, stats.getPinWaits());
+        assertEquals(1, stats1.getPinWaits());
+
+        // a freed partition's counters are discarded
+        bufferManager.freePart(partNum2);
+        assertFalse(bufferManager.getPartitionStats().containsKey(partNum2));
+        assertEquals(1, stats.getMisses() - stats1.getMisses());
+    }
+
+    @Test
+    public void testResizeBuffer() {
+        int partNum = diskSpaceManager.allocPart(1);
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        long[] pageNums = new long[16];
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+
+        // growing adds free frames, so that the next three pages evict nothing
+        bufferManager.setBufferSize(8);
+        assertEquals(8, bufferManager.getBufferSize());
+        BufferFrame pinned = null;
+        for (int i = 5; i < 8; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            pageNums[i] = frame.getPageNum();
+            if (i < 7) {
+                frame.unpin();
+            } else {
+                pinned = frame;
+            }
+        }
+        assertEquals(0, bufferManager.getStats().getDirtyEvictions());
+
+        // the last frame is pinned, so shrinking cannot retire any frames yet
+        bufferManager.setBufferSize(4);
+        assertEquals(8, bufferManager.getBufferSize());
+        pinned.unpin();
+        // loading a page retires a frame
+        BufferFrame frame8 = bufferManager.fetchNewPageFrame(partNum);
+        expected[0] = (byte) 8;
+        frame8.writeBytes((short) 67, (short) 4, expected);
+        frame8.unpin();
+        pageNums[8] = frame8.getPageNum();
+        assertEquals(7, bufferManager.getBufferSize());
+
+        bufferManager.setBufferSize(4);
+        assertEquals(4, bufferManager.getBufferSize());
+        int[] numLoaded = new int[1];
+        bufferManager.iterPageNums((pageNum, dirty) -> ++numLoaded[0]);
+        assertTrue(numLoaded[0] <= 4);
+
+        // pages evicted by shrinking were written out, and the smaller buffer still evicts
+        for (int i = 9; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 67, (short) 4, actual);
+            frame.unpin();
+            assertEquals((byte) i, actual[0]);
+        }
+        assertEquals(4, bufferManager.getBufferSize());
+
+        try {
+            bufferManager.setBufferSize(0);
+            fail();
+        } catch (IllegalArgumentException e) { /* do nothing */ }
+    }
+
+    @Test
+    public void testResizeShardedBuffer() {
+        BufferManager shardedManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                4, ClockEvictionPolicy::new);
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[32];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = shardedManager.fetchNewPageFrame(partNum);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        shardedManager.setBufferSize(32);
+        assertEquals(32, shardedManager.getBufferSize());
+        shardedManager.setBufferSize(6);
+        assertEquals(6, shardedManager.getBufferSize());
+        for (long pageNum : pageNums) {
+            shardedManager.fetchPageFrame(pageNum).unpin();
+        }
+        int[] numLoaded = new int[1];
+        shardedManager.iterPageNums((pageNum, dirty) -> ++numLoaded[0]);
+        assertTrue(numLoaded[0] <= 6);
+        try {
+            shardedManager.setBufferSize(3);
+            fail();
+        } catch (IllegalArgumentException e) { /* do nothing */ }
+        shardedManager.close();
+    }
+
+    @Test
+    public void testWarmUp() throws IOException {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        // pages 3..7 are loaded; fetch three of them again, so that they are the most recent
+        bufferManager.fetchPageFrame(pageNums[5]).unpin();
+        bufferManager.fetchPageFrame(pageNums[3]).unpin();
+        bufferManager.fetchPageFrame(pageNums[7]).unpin();
+
+        bufferManager.setWarmUpFile(tempFolder.getRoot().toPath().resolve("_warmup"));
+        bufferManager.writeWarmUpFile();
+        // evicting everything keeps the list
+        bufferManager.evictAll();
+        bufferManager.writeWarmUpFile();
+        List<Long> listed = bufferManager.readWarmUpFile();
+        assertEquals(5, listed.size());
+        assertEquals(Arrays.asList(pageNums[7], pageNums[3], pageNums[5]), listed.subList(0, 3));
+
+        // a smaller buffer pool, with one frame already in use: the warm-up only fills the free
+        // frames, with the most recently fetched pages, in one read
+        BufferManager restarted = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy());
+        restarted.setWarmUpFile(tempFolder.getRoot().toPath().resolve("_warmup"));
+        restarted.fetchPageFrame(pageNums[0]).unpin();
+        long initialIOs = restarted.getNumIOs();
+        restarted.warmUp(restarted.readWarmUpFile()).join();
+        assertEquals(3, restarted.getNumIOs() - initialIOs);
+        Set<Long> loaded = new HashSet<>();
+        restarted.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertEquals(new HashSet<>(Arrays.asList(pageNums[0], pageNums[3], pageNums[5], pageNums[7])),
+                loaded);
+        restarted.close();
+    }
+
+    @Test
+    public void testWarmUpDroppedPartition() throws IOException {
+        DiskSpaceManager fileManager = new DiskSpaceManagerImpl(tempFolder.newFolder("dropped").toString(),
+                new DummyRecoveryManager());
+        int droppedPartNum = fileManager.allocPart();
+        int partNum = fileManager.allocPart();
+        long droppedPage = fileManager.allocPage(droppedPartNum);
+        long page = fileManager.allocPage(partNum);
+        // the table was dropped after the warm-up file listing its pages was written
+        fileManager.freePart(droppedPartNum);
+
+        BufferManager restarted = new BufferManager(fileManager, new DummyRecoveryManager(), 4,
+                new ClockEvictionPolicy());
+        restarted.warmUp(Arrays.asList(droppedPage, page));
+        restarted.awaitWarmUp();
+        Set<Long> loaded = new HashSet<>();
+        restarted.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertEquals(Collections.singleton(page), loaded);
+        restarted.close();
+        fileManager.close();
+    }
+
+    @Test
+    public void testOffHeapFrames() throws IOException {
+        for (boolean mappedIO : new boolean[] { false, true }) {
+            String dir = tempFolder.newFolder("off-heap-" + mappedIO).toString();
+            DiskSpaceManager fileManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), mappedIO);
+            BufferManager offHeapManager = new BufferManager(fileManager, new DummyRecoveryManager(), 4,
+                    1, ClockEvictionPolicy::new, true);
+            assertTrue(offHeapManager.isOffHeap());
+            int partNum = fileManager.allocPart();
+            byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+            byte[] actual = new byte[4];
+
+            // pages are written out of and read back into direct memory as they are evicted
+            long[] pageNums = new long[10];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = offHeapManager.fetchNewPageFrame(partNum);
+                expected[0] = (byte) i;
+                frame.writeBytes((short) 67, (short) 4, expected);
+                frame.setPageLSN(i);
+                frame.unpin();
+                pageNums[i] = frame.getPageNum();
+            }
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = offHeapManager.fetchPageFrame(pageNums[i]);
+                frame.readBytes((short) 67, (short) 4, actual);
+                assertEquals(i, frame.getPageLSN());
+                frame.unpin();
+                expected[0] = (byte) i;
+                assertArrayEquals(expected, actual);
+            }
+
+            // as do prefetched pages, and frames added by growing the buffer pool
+            offHeapManager.setBufferSize(8);
+            offHeapManager.evictAll();
+            assertEquals(4, offHeapManager.prefetchPages(pageNums[2], 4));
+            long initialIOs = offHeapManager.getNumIOs();
+            for (int i = 2; i < 6; ++i) {
+                BufferFrame frame = offHeapManager.fetchPageFrame(pageNums[i]);
+                frame.readBytes((short) 67, (short) 4, actual);
+                frame.unpin();
+                assertEquals((byte) i, actual[0]);
+            }
+            assertEquals(initialIOs, offHeapManager.getNumIOs());
+
+            offHeapManager.close();
+            fileManager.close();
+        }
+    }
+
     @Test(expected = PageException.class)
     public void testMissingPart() {
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(0, 0));
@@ -330,4 +715,434 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testPrefetchPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        long[] pageNums = new long[4];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        bufferManager.evictAll();
+
+        long initialIOs = bufferManager.getNumIOs();
+        // the run ends at the first unallocated page
+        assertEquals(pageNums.length, bufferManager.prefetchPages(pageNums[0], pageNums.length + 2));
+        assertEquals(pageNums.length, bufferManager.getNumIOs() - initialIOs);
+
+        // pages are loaded but not pinned, so fetching them incurs no I/O
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 67, (short) 4, actual);
+            frame.unpin();
+            expected[0] = (byte) i;
+            assertArrayEquals(expected, actual);
+        }
+        assertEquals(pageNums.length, bufferManager.getNumIOs() - initialIOs);
+
+        // loaded pages are skipped
+        bufferManager.prefetchPages(pageNums[0], pageNums.length);
+        assertEquals(pageNums.length, bufferManager.getNumIOs() - initialIOs);
+    }
+
+    @Test
+    public void testPrefetchPagesSingleRead() throws IOException {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            String dir = tempFolder.newFolder("prefetch-" + offHeap).toString();
+            DiskSpaceManager fileManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager());
+            BufferManager prefetchManager = new BufferManager(fileManager, new DummyRecoveryManager(), 8,
+                    1, ClockEvictionPolicy::new, offHeap);
+            int partNum = fileManager.allocPart();
+            byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+            byte[] actual = new byte[4];
+
+            long[] pageNums = new long[6];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = prefetchManager.fetchNewPageFrame(partNum);
+                expected[0] = (byte) i;
+                frame.writeBytes((short) 67, (short) 4, expected);
+                frame.unpin();
+                pageNums[i] = frame.getPageNum();
+            }
+            prefetchManager.evictAll();
+
+            // the whole run is read from the file at once, whether frames are on or off the heap
+            long initialReads = fileManager.getIOStats().get(partNum).getFileReads();
+            assertEquals(pageNums.length, prefetchManager.prefetchPages(pageNums[0], pageNums.length));
+            assertEquals(1, fileManager.getIOStats().get(partNum).getFileReads() - initialReads);
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = prefetchManager.fetchPageFrame(pageNums[i]);
+                frame.readBytes((short) 67, (short) 4, actual);
+                frame.unpin();
+                expected[0] = (byte) i;
+                assertArrayEquals(expected, actual);
+            }
+            assertEquals(1, fileManager.getIOStats().get(partNum).getFileReads() - initialReads);
+
+            prefetchManager.close();
+            fileManager.close();
+        }
+    }
+
+    @Test
+    public void testReadAhead() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 32,
+                new ClockEvictionPolicy());
+        try {
+            int partNum = diskSpaceManager.allocPart(1);
+            long[] pageNums = new long[16];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+                frame.unpin();
+                pageNums[i] = frame.getPageNum();
+            }
+            bufferManager.evictAll();
+            bufferManager.setMaxReadAhead(100);
+            assertEquals(8, bufferManager.getMaxReadAhead());
+
+            // pages fetched out of order are not read ahead
+            long initialIOs = bufferManager.getNumIOs();
+            bufferManager.fetchPageFrame(pageNums[10]).unpin();
+            bufferManager.fetchPageFrame(pageNums[2]).unpin();
+            bufferManager.fetchPageFrame(pageNums[2]).unpin();
+            bufferManager.awaitPrefetches();
+            assertEquals(2, bufferManager.getNumIOs() - initialIOs);
+
+            // the second page of a sequential run loads the next 4 pages
+            bufferManager.fetchPageFrame(pageNums[3]).unpin();
+            bufferManager.awaitPrefetches();
+            assertEquals(7, bufferManager.getNumIOs() - initialIOs);
+
+            // the next page is within half a window of the end, so the next 8 pages are loaded
+            // (all but the one that already is)
+            bufferManager.fetchPageFrame(pageNums[4]).unpin();
+            bufferManager.awaitPrefetches();
+            assertEquals(14, bufferManager.getNumIOs() - initialIOs);
+            for (int i = 5; i < pageNums.length; ++i) {
+                bufferManager.fetchPageFrame(pageNums[i]).unpin();
+                bufferManager.awaitPrefetches();
+            }
+            assertEquals(14, bufferManager.getNumIOs() - initialIOs);
+            bufferManager.fetchPageFrame(pageNums[0]).unpin();
+            bufferManager.fetchPageFrame(pageNums[1]).unpin();
+            assertEquals(16, bufferManager.getNumIOs() - initialIOs);
+
+            bufferManager.setMaxReadAhead(0);
+            assertEquals(0, bufferManager.getMaxReadAhead());
+        } finally {
+            bufferManager.close();
+        }
+    }
+
+    @Test
+    public void testAsyncWriteBack() throws IOException {
+        String dir = tempFolder.newFolder("async-test").toString();
+        DiskSpaceManager asyncManager = new AsyncDiskSpaceManager(dir, new DummyRecoveryManager());
+        BufferManager asyncBufferManager = new BufferManager(asyncManager, new DummyRecoveryManager(), 2,
+                new ClockEvictionPolicy());
+        int partNum = asyncManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        // with only two frames, every new page evicts a dirty page
+        long[] pageNums = new long[6];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = asyncBufferManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+
+        // reloading an evicted page sees its written back contents
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = asyncBufferManager.fetchPageFrame(pageNums[i]);
+            frame.readBytes((short) 67, (short) 4, actual);
+            frame.unpin();
+            expected[0] = (byte) i;
+            assertArrayEquals(expected, actual);
+        }
+        asyncBufferManager.close();
+        asyncManager.close();
+
+        // closing waits for all write-backs
+        DiskSpaceManager syncManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager());
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            syncManager.readPage(pageNums[i], page);
+            expected[0] = (byte) i;
+            assertArrayEquals(expected, Arrays.copyOfRange(page, BufferManager.RESERVED_SPACE + 67,
+                              BufferManager.RESERVED_SPACE + 71));
+        }
+        syncManager.close();
+    }
+
+    @Test
+    public void testShardedBuffer() throws InterruptedException {
+        BufferManager shardedManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                4, ClockEvictionPolicy::new);
+        assertEquals(4, shardedManager.getNumShards());
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+
+        // more pages than frames, so every shard evicts
+        long[] pageNums = new long[32];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = shardedManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        int[] numLoaded = new int[1];
+        shardedManager.iterPageNums((pageNum, dirty) -> ++numLoaded[0]);
+        assertTrue(numLoaded[0] <= 8);
+
+        // threads reading pages of different shards see every page's contents
+        boolean[] failed = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread(() -> {
+                byte[] actual = new byte[4];
+                for (int round = 0; round < 20; ++round) {
+                    for (int i = 0; i < pageNums.length; ++i) {
+                        BufferFrame frame = shardedManager.fetchPageFrame(pageNums[i]);
+                        frame.readBytes((short) 67, (short) 4, actual);
+                        frame.unpin();
+                        if (actual[0] != (byte) i) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed[0]);
+
+        // runs spanning several shards are prefetched as a whole
+        shardedManager.evictAll();
+        long initialIOs = shardedManager.getNumIOs();
+        shardedManager.prefetchPages(pageNums[0], 4);
+        assertEquals(4, shardedManager.getNumIOs() - initialIOs);
+
+        shardedManager.freePart(partNum);
+        numLoaded[0] = 0;
+        shardedManager.iterPageNums((pageNum, dirty) -> ++numLoaded[0]);
+        assertEquals(0, numLoaded[0]);
+        shardedManager.close();
+    }
+
+    @Test
+    public void testUnpinnedReads() {
+        int partNum = diskSpaceManager.allocPart(1);
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[4];
+
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        frame.writeBytes((short) 67, (short) 4, expected);
+        long pageNum = frame.getPageNum();
+
+        // the frame does not have to be unpinned to be read without pinning it
+        Page page = bufferManager.getLoadedPage(new DummyLockContext(), pageNum);
+        assertTrue(page.tryReadBytes(67, 4, actual));
+        assertArrayEquals(expected, actual);
+        frame.unpin();
+        assertFalse(frame.isPinned());
+
+        // evicted pages cannot be read without pinning them, but handles to them can still be pinned
+        bufferManager.evict(pageNum);
+        assertNull(bufferManager.getLoadedPage(new DummyLockContext(), pageNum));
+        assertFalse(page.tryReadBytes(67, 4, actual));
+        page.pin();
+        try {
+            page.getBuffer().position(67).get(actual);
+            assertArrayEquals(expected, actual);
+        } finally {
+            page.unpin();
+        }
+        page = bufferManager.getLoadedPage(new DummyLockContext(), pageNum);
+        assertTrue(page.tryReadBytes(67, 4, actual));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testUnpinnedReadsDuringWrites() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+        frame.unpin();
+        long pageNum = frame.getPageNum();
+
+        // every write fills the range with one value, so a read that sees two values saw a write
+        // halfway through
+        Thread writer = new Thread(() -> {
+            byte[] buf = new byte[1024];
+            for (int i = 0; i < 5000; ++i) {
+                Arrays.fill(buf, (byte) i);
+                BufferFrame writerFrame = bufferManager.fetchPageFrame(pageNum);
+                try {
+                    writerFrame.writeBytes((short) 0, (short) buf.length, buf);
+                } finally {
+                    writerFrame.unpin();
+                }
+            }
+        });
+        writer.start();
+        Page page = bufferManager.getLoadedPage(new DummyLockContext(), pageNum);
+        byte[] buf = new byte[1024];
+        while (writer.isAlive()) {
+            if (page.tryReadBytes(0, buf.length, buf)) {
+                for (byte b : buf) {
+                    assertEquals(buf[0], b);
+                }
+            }
+        }
+        writer.join();
+        assertTrue(page.tryReadBytes(0, buf.length, buf));
+        assertEquals((byte) 4999, buf[buf.length - 1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyShards() {
+        new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4, 5, ClockEvictionPolicy::new);
+    }
+
+    @Test
+    public void testPageCleaner() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            expected[0] = (byte) i;
+            frame.writeBytes((short) 67, (short) 4, expected);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+
+        // limited by the budget; the rest is left for the next pass
+        assertEquals(2, bufferManager.cleanPages(2));
+        assertEquals(3, bufferManager.getCleanerBacklog());
+        assertEquals(3, bufferManager.cleanPages(10));
+        assertEquals(0, bufferManager.getCleanerBacklog());
+        assertEquals(0, bufferManager.cleanPages(10));
+        assertEquals(5, bufferManager.getCleanerWrites());
+
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < pageNums.length; ++i) {
+            diskSpaceManager.readPage(pageNums[i], page);
+            expected[0] = (byte) i;
+            assertArrayEquals(expected, Arrays.copyOfRange(page, BufferManager.RESERVED_SPACE + 67,
+                              BufferManager.RESERVED_SPACE + 71));
+        }
+
+        // evicting the cleaned pages only reads the new ones
+        long initialIOs = bufferManager.getNumIOs();
+        for (int i = 0; i < pageNums.length; ++i) {
+            bufferManager.fetchNewPageFrame(partNum).unpin();
+        }
+        assertEquals(5, bufferManager.getNumIOs() - initialIOs);
+        assertEquals(5, bufferManager.getForegroundWritesAvoided());
+    }
+
+    @Test
+    public void testBackgroundPageCleaner() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart(1);
+        byte[] bytes = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        for (int i = 0; i < 5; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 67, (short) 4, bytes);
+            frame.unpin();
+        }
+
+        bufferManager.startPageCleaner(1000, 5);
+        for (int i = 0; i < 1000 && bufferManager.getCleanerWrites() < 5; ++i) {
+            Thread.sleep(10);
+        }
+        bufferManager.stopPageCleaner();
+        assertEquals(5, bufferManager.getCleanerWrites());
+    }
+
+    @Test
+    public void testPageTrace() throws IOException {
+        int partNum = diskSpaceManager.allocPart(1);
+        PageTrace trace = new PageTrace();
+        bufferManager.setPageTrace(trace);
+        long[] pageNums = new long[3];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.unpin();
+            pageNums[i] = frame.getPageNum();
+        }
+        bufferManager.fetchPageFrame(pageNums[0]).unpin();
+        bufferManager.setPageTrace(null);
+        bufferManager.fetchPageFrame(pageNums[1]).unpin();
+        assertEquals(4, trace.size());
+
+        String path = tempFolder.newFile("trace").toString();
+        trace.save(path);
+        PageTrace loaded = PageTrace.load(path);
+        assertEquals(4, loaded.size());
+        // three pages, one of them referenced twice
+        assertEquals(0.25, loaded.replay(new LRUEvictionPolicy(), 3), 1e-9);
+        assertEquals(0.0, loaded.replay(new LRUEvictionPolicy(), 1), 1e-9);
+    }
+
+    @Test
+    public void testRingAccessStrategy() {
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferFrame hot1 = bufferManager.fetchNewPageFrame(partNum);
+        BufferFrame hot2 = bufferManager.fetchNewPageFrame(partNum);
+        hot1.unpin();
+        hot2.unpin();
+
+        // a scan of many pages only ever uses two frames, leaving the other pages loaded
+        BufferAccessStrategy ring = BufferAccessStrategy.ring(2);
+        BufferFrame[] scanned = new BufferFrame[8];
+        int[] generations = new int[scanned.length];
+        for (int i = 0; i < scanned.length; ++i) {
+            scanned[i] = bufferManager.fetchNewPageFrame(partNum, ring);
+            scanned[i].unpin();
+            generations[i] = scanned[i].getGeneration();
+        }
+        assertTrue(hot1.isValid());
+        assertTrue(hot2.isValid());
+        for (int i = 0; i < scanned.length - 2; ++i) {
+            assertFalse(holdsPage(scanned[i], generations[i]));
+            assertSame(scanned[i], scanned[i + 2]);
+        }
+        assertTrue(holdsPage(scanned[6], generations[6]));
+        assertTrue(holdsPage(scanned[7], generations[7]));
+
+        // pages that are already loaded are used where they are, with no I/O
+        long initialIOs = bufferManager.getNumIOs();
+        bufferManager.fetchPageFrame(hot1.getPageNum(), ring).unpin();
+        assertEquals(initialIOs, bufferManager.getNumIOs());
+
+        // a pinned frame in the ring is not reused, so the page is loaded as usual
+        BufferFrame pinned = bufferManager.fetchPageFrame(scanned[6].getPageNum());
+        BufferFrame next = bufferManager.fetchNewPageFrame(partNum, ring);
+        next.unpin();
+        assertTrue(pinned.isValid());
+        assertTrue(holdsPage(scanned[7], generations[7]));
+        pinned.unpin();
+
+        try {
+            BufferAccessStrategy.ring(0);
+            fail();
+        } catch (IllegalArgumentException e) { /* do nothing */ }
+    }
 }
@@ -32,7 +32,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -193,4 +193,128 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testTwoQueuePolicy() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy();
+        BufferFrame[] pool = new BufferFrame[4];
+        for (int i = 0; i < 4; ++i) {
+            policy.init(frames[i]); policy.hit(frames[i]);
+        }
+        // hits on pages that have only just been loaded do not protect them
+        policy.hit(frames[0]);
+        assertEquals(frames[0], policy.evict(pool));
+        policy.cleanup(frames[0]);
+
+        // loaded again soon after being evicted, so kept over pages only used once
+        policy.init(frames[0]); policy.hit(frames[0]);
+        for (int i = 4; i < 7; ++i) {
+            BufferFrame evicted = policy.evict(pool);
+            assertEquals(frames[i - 3], evicted);
+            policy.cleanup(evicted);
+            policy.init(frames[i]); policy.hit(frames[i]);
+        }
+
+        frames[4].pin();
+        assertEquals(frames[5], policy.evict(pool));
+        policy.cleanup(frames[5]);
+        // only one page left on A1in, so the main list is evicted from
+        frames[6].pin();
+        assertEquals(frames[0], policy.evict(pool));
+        policy.cleanup(frames[0]);
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(pool);
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[4].unpin();
+        frames[6].unpin();
+    }
+
+    @Test
+    public void testLRU2Policy() {
+        EvictionPolicy policy = new LRU2EvictionPolicy();
+        BufferFrame[] pool = new BufferFrame[4];
+        for (int i = 0; i < 4; ++i) {
+            policy.init(frames[i]); policy.hit(frames[i]);
+        }
+        policy.hit(frames[1]);
+        // repeated hits only count once
+        policy.hit(frames[2]); policy.hit(frames[2]);
+        policy.hit(frames[3]);
+
+        // pages referenced once are evicted first
+        assertEquals(frames[0], policy.evict(pool));
+        policy.cleanup(frames[0]);
+
+        // the evicted page's history is kept, so loading it again is its second reference
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[4]); policy.hit(frames[4]);
+        frames[4].pin();
+        assertEquals(frames[1], policy.evict(pool));
+        policy.cleanup(frames[1]);
+        frames[4].unpin();
+        assertEquals(frames[4], policy.evict(pool));
+        policy.cleanup(frames[4]);
+
+        policy.hit(frames[2]);
+        assertEquals(frames[3], policy.evict(pool));
+        policy.cleanup(frames[3]);
+        assertEquals(frames[0], policy.evict(pool));
+        policy.cleanup(frames[0]);
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        BufferFrame[] pool = new BufferFrame[4];
+        for (int i = 0; i < 4; ++i) {
+            policy.init(frames[i]); policy.hit(frames[i]);
+        }
+        policy.hit(frames[1]);
+
+        assertEquals(frames[0], policy.evict(pool));
+        policy.cleanup(frames[0]);
+        // recently evicted from T1: T1's target grows, and the page goes on T2
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[2], policy.evict(pool));
+        policy.cleanup(frames[2]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+        policy.hit(frames[3]);
+        // T1 is no larger than its target, so T2 is evicted from
+        assertEquals(frames[1], policy.evict(pool));
+        policy.cleanup(frames[1]);
+
+        // recently evicted from T2: T1's target shrinks again
+        policy.init(frames[1]); policy.hit(frames[1]);
+        assertEquals(frames[4], policy.evict(pool));
+        policy.cleanup(frames[4]);
+        assertEquals(frames[0], policy.evict(pool));
+        policy.cleanup(frames[0]);
+    }
+
+    @Test
+    public void testScanResistance() {
+        // a working set of 8 pages, used twice, then each time between scans of 12 new pages
+        PageTrace trace = new PageTrace();
+        long nextScanPage = 100;
+        for (int round = 0; round < 52; ++round) {
+            for (int i = 0; i < 8; ++i) {
+                trace.record(i);
+            }
+            for (int i = 0; round >= 2 && i < 12; ++i) {
+                trace.record(nextScanPage++);
+            }
+        }
+
+        // LRU and clock lose the working set to every scan
+        assertTrue(trace.replay(new LRUEvictionPolicy(), 16) < 0.05);
+        assertTrue(trace.replay(new ClockEvictionPolicy(), 16) < 0.05);
+        assertTrue(trace.replay(new TwoQueueEvictionPolicy(), 16) > 0.3);
+        assertTrue(trace.replay(new LRU2EvictionPolicy(), 16) > 0.3);
+        assertTrue(trace.replay(new ARCEvictionPolicy(), 16) > 0.3);
+    }
 }
@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.categories.Proj99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPageTable {
+    @Test
+    public void testPutGetRemove() {
+        PageTable table = new PageTable(4);
+        long page1 = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long page2 = DiskSpaceManager.getVirtualPageNum(2, 0);
+
+        assertEquals(PageTable.NOT_FOUND, table.get(page1));
+        table.put(page1, 0);
+        table.put(page2, 1);
+        assertEquals(0, table.get(page1));
+        assertEquals(1, table.get(page2));
+        assertTrue(table.containsKey(page1));
+        assertEquals(2, table.size());
+
+        // replaces the previous mapping
+        table.put(page1, 3);
+        assertEquals(3, table.get(page1));
+        assertEquals(2, table.size());
+
+        // only removed if mapped to the given frame
+        assertFalse(table.remove(page1, 0));
+        assertTrue(table.remove(page1, 3));
+        assertFalse(table.containsKey(page1));
+        assertFalse(table.remove(page1, 3));
+        assertEquals(1, table.get(page2));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testGrow() {
+        // sized for fewer entries than are put
+        PageTable table = new PageTable(1);
+        for (int i = 0; i < 1000; ++i) {
+            table.put(DiskSpaceManager.getVirtualPageNum(1, i), i);
+        }
+        assertEquals(1000, table.size());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i, table.get(DiskSpaceManager.getVirtualPageNum(1, i)));
+        }
+    }
+
+    @Test
+    public void testRandomOperations() {
+        // removals shift entries back, so check against a reference map under heavy churn
+        PageTable table = new PageTable(64);
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        Random random = new Random(186);
+        for (int i = 0; i < 100000; ++i) {
+            if (expected.size() < 64 && (keys.isEmpty() || random.nextBoolean())) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(random.nextInt(4), random.nextInt(1000));
+                int frameIndex = random.nextInt(64);
+                if (!expected.containsKey(pageNum)) {
+                    keys.add(pageNum);
+                }
+                expected.put(pageNum, frameIndex);
+                table.put(pageNum, frameIndex);
+            } else {
+                long pageNum = keys.remove(random.nextInt(keys.size()));
+                assertTrue(table.remove(pageNum, expected.remove(pageNum)));
+            }
+            assertEquals(expected.size(), table.size());
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), table.get(entry.getKey()));
+        }
+        for (int i = 0; i < 1000; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(random.nextInt(4), random.nextInt(1000));
+            assertEquals(expected.containsKey(pageNum), table.containsKey(pageNum));
+        }
+    }
+
+    @Test
+    public void testGetOptimistic() throws InterruptedException {
+        PageTable table = new PageTable(1);
+        long stablePage = DiskSpaceManager.getVirtualPageNum(0, 0);
+        table.put(stablePage, 7);
+        assertEquals(7, table.getOptimistic(stablePage));
+        assertEquals(PageTable.NOT_FOUND, table.getOptimistic(stablePage + 1));
+
+        // lookups concurrent with changes (including growing) may fail, but are never wrong
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i < 20000; ++i) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+                table.put(pageNum, i);
+                if (i % 2 == 0) {
+                    table.remove(pageNum, i);
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            int frameIndex = table.getOptimistic(stablePage);
+            assertTrue(frameIndex == 7 || frameIndex == PageTable.NOT_FOUND);
+        }
+        writer.join();
+        assertEquals(7, table.getOptimistic(stablePage));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutInvalidPage() {
+        new PageTable(4).put(DiskSpaceManager.INVALID_PAGE_NUM, 0);
+    }
+}
@@ -0,0 +1,99 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the hit ratios of the eviction policies on a page trace, at several buffer pool
+ * sizes. Not run as part of the test suite; after mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.memory.TraceReplay [trace]
+ *
+ * where trace is a file written by PageTrace#save, e.g. from a buffer manager of a real workload.
+ * Without a trace file, a trace is recorded from a built-in workload of index lookups on a table
+ * interleaved with full scans of it.
+ */
+public class TraceReplay {
+    private static final int[] POOL_SIZES = { 16, 32, 64, 128 };
+
+    public static void main(String[] args) throws IOException {
+        PageTrace trace = args.length > 0 ? PageTrace.load(args[0]) : recordWorkload();
+        System.out.println(trace.size() + " page references");
+
+        String[] names = { "clock", "lru", "2q", "lru-2", "arc" };
+        List<Supplier<EvictionPolicy>> policies = Arrays.asList(
+            ClockEvictionPolicy::new, LRUEvictionPolicy::new, TwoQueueEvictionPolicy::new,
+            LRU2EvictionPolicy::new, ARCEvictionPolicy::new
+        );
+        System.out.printf("%8s", "frames");
+        for (String name : names) {
+            System.out.printf(" %8s", name);
+        }
+        System.out.println();
+        for (int numFrames : POOL_SIZES) {
+            System.out.printf("%8d", numFrames);
+            for (Supplier<EvictionPolicy> policy : policies) {
+                System.out.printf(" %8.3f", trace.replay(policy.get(), numFrames));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Records the page references of random index lookups on a table, with a full scan of the
+     * table after every 200 lookups.
+     */
+    private static PageTrace recordWorkload() throws IOException {
+        File dir = Files.createTempDirectory("trace-replay").toFile();
+        PageTrace trace = new PageTrace();
+        Database db = new Database(dir.getAbsolutePath(), 4096);
+        try {
+            Schema schema = new Schema()
+                    .add("id", Type.intType())
+                    .add("name", Type.stringType(100));
+            try (Transaction t = db.beginTransaction()) {
+                t.createTable(schema, "table1");
+                for (int i = 0; i < 5000; ++i) {
+                    t.insert("table1", i, "name" + i);
+                }
+                t.createIndex("table1", "id", false);
+            }
+
+            db.getBufferManager().setPageTrace(trace);
+            Random random = new Random(186);
+            for (int round = 0; round < 10; ++round) {
+                try (Transaction t = db.beginTransaction()) {
+                    for (int i = 0; i < 200; ++i) {
+                        Iterator<?> records = t.getTransactionContext().lookupKey("table1", "id",
+                                new IntDataBox(random.nextInt(5000)));
+                        records.next();
+                    }
+                    Iterator<?> records = t.query("table1").execute();
+                    while (records.hasNext()) {
+                        records.next();
+                    }
+                }
+            }
+            db.getBufferManager().setPageTrace(null);
+        } finally {
+            db.close();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+        return trace;
+    }
+}
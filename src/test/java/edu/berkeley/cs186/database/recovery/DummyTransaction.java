@@ -6,6 +6,7 @@ import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.memory.BufferAccessStrategy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -155,6 +156,11 @@ class DummyTransaction extends Transaction {
             return 0;
         }
 
+        @Override
+        public int getBufferSize() {
+            return 0;
+        }
+
         @Override
         public void close() {}
 
@@ -200,6 +206,11 @@ class DummyTransaction extends Transaction {
             return null;
         }
 
+        @Override
+        public BacktrackingIterator<Record> getRecordIterator(String tableName, BufferAccessStrategy strategy) {
+            return null;
+        }
+
         @Override
         public boolean contains(String tableName, String columnName, DataBox key) {
             return false;
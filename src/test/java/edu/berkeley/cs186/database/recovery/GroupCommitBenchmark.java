@@ -0,0 +1,98 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.CommitTransactionLogRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures commit throughput of the log manager (appending a commit record and flushing the log
+ * up to it, on a log stored in files) as the number of committing threads grows, without and
+ * with a group commit delay. Not run as part of the test suite; after mvn test-compile, run it
+ * with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.recovery.GroupCommitBenchmark
+ *
+ * or directly from an IDE. Optional arguments: group commit delay in microseconds for the
+ * delayed run (default: 200), and seconds to measure each configuration for (default: 2).
+ */
+public class GroupCommitBenchmark {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        long delayMicros = args.length > 0 ? Long.parseLong(args[0]) : 200;
+        long millis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000L;
+
+        System.out.printf("%8s %14s %14s %20s %20s%n", "threads", "no delay (c/s)", "flushes/commit",
+                delayMicros + "us delay (c/s)", "flushes/commit");
+        for (int threads = 1; threads <= 16; threads *= 2) {
+            double[] undelayed = run(threads, 0, millis);
+            double[] delayed = run(threads, delayMicros, millis);
+            System.out.printf("%8d %14.0f %14.2f %20.0f %20.2f%n", threads, undelayed[0], undelayed[1],
+                    delayed[0], delayed[1]);
+        }
+    }
+
+    /**
+     * Commits on some number of threads, each committing one transaction after the other.
+     * @return commits per second over all threads, and log flushes per commit
+     */
+    private static double[] run(int numThreads, long delayMicros, long millis)
+            throws InterruptedException, IOException {
+        File dir = Files.createTempDirectory("groupCommitBenchmark").toFile();
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(),
+                new DummyRecoveryManager());
+        diskSpaceManager.allocPart(LogManager.LOG_PARTITION);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                1024, new ClockEvictionPolicy());
+        LogManager logManager = new LogManager(bufferManager);
+        logManager.setGroupCommitDelay(delayMicros);
+
+        AtomicLong commits = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            long transNum = t + 1;
+            threads[t] = new Thread(() -> {
+                long count = 0;
+                long prevLSN = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline[0]) {
+                    prevLSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, prevLSN));
+                    logManager.groupCommit(prevLSN);
+                    ++count;
+                }
+                commits.addAndGet(count);
+            });
+            threads[t].start();
+        }
+        long numFlushes = logManager.getNumFlushes();
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        double flushesPerCommit = (logManager.getNumFlushes() - numFlushes) / (double) commits.get();
+
+        logManager.close();
+        bufferManager.close();
+        diskSpaceManager.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+        return new double[] { commits.get() / seconds, flushesPerCommit };
+    }
+}
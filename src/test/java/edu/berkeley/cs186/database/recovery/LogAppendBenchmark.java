@@ -0,0 +1,88 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.UpdatePageLogRecord;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of appending page update records to the log as the number of threads
+ * grows, appending to log pages in the buffer manager and to a log buffer. The log is kept in
+ * memory, and never flushed except to make room for more records. Not run as part of the test
+ * suite; after mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.recovery.LogAppendBenchmark
+ *
+ * or directly from an IDE. Optional arguments: number of pages of the log buffer (default: 32),
+ * and seconds to measure each configuration for (default: 2).
+ */
+public class LogAppendBenchmark {
+    public static void main(String[] args) throws InterruptedException {
+        int logBufferPages = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        long millis = (args.length > 1 ? Long.parseLong(args[1]) : 2) * 1000L;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%8s %20s %20s%n", "threads", "buffer manager (r/s)", "log buffer (r/s)");
+        for (int threads = 1; threads <= Math.max(4, 2 * processors); threads *= 2) {
+            double unbuffered = run(0, threads, millis);
+            double buffered = run(logBufferPages, threads, millis);
+            System.out.printf("%8d %20.0f %20.0f%n", threads, unbuffered, buffered);
+        }
+    }
+
+    /**
+     * Appends records on some number of threads.
+     * @return records appended per second, over all threads
+     */
+    private static double run(int logBufferPages, int numThreads, long millis) throws InterruptedException {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager.allocPart(LogManager.LOG_PARTITION);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                1024, new ClockEvictionPolicy());
+        LogManager logManager = logBufferPages > 0
+                ? new LogManager(new PartitionLogStorage(diskSpaceManager), logBufferPages)
+                : new LogManager(bufferManager);
+
+        AtomicLong appends = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            long transNum = t + 1;
+            threads[t] = new Thread(() -> {
+                byte[] before = new byte[16];
+                byte[] after = new byte[16];
+                long count = 0;
+                long prevLSN = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline[0]) {
+                    prevLSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, 10000000001L + transNum,
+                            prevLSN, (short) 0, before, after));
+                    ++count;
+                }
+                appends.addAndGet(count);
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1000000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+
+        logManager.close();
+        bufferManager.close();
+        diskSpaceManager.close();
+        return appends.get() / seconds;
+    }
+}
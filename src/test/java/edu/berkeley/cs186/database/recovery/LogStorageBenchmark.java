@@ -0,0 +1,102 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.records.UpdatePageLogRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+/**
+ * Measures, for each place the log can be kept (log pages in the buffer manager, a log buffer
+ * writing to the log partition, and a log buffer writing to log segment files), how fast a
+ * transaction can append page update records to a log in files and flush it every few records,
+ * and how fast the log can be scanned afterwards. Not run as part of the test suite; after
+ * mvn test-compile, run it with
+ *
+ *   java -cp target/classes:target/test-classes edu.berkeley.cs186.database.recovery.LogStorageBenchmark
+ *
+ * or directly from an IDE. Optional arguments: number of records to append (default: 200000),
+ * and number of records per flush (default: 100).
+ */
+public class LogStorageBenchmark {
+    private enum Storage { BUFFER_MANAGER, LOG_PARTITION, SEGMENT_FILES }
+
+    public static void main(String[] args) throws IOException {
+        int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int recordsPerFlush = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        System.out.printf("%16s %16s %16s%n", "log storage", "append (r/s)", "scan (r/s)");
+        for (int i = 0; i < 2; ++i) {
+            // the first round warms up
+            for (Storage storage : Storage.values()) {
+                double[] result = run(storage, numRecords, recordsPerFlush);
+                if (i > 0) {
+                    System.out.printf("%16s %16.0f %16.0f%n", storage.name().toLowerCase(), result[0], result[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends records to a new log and scans it.
+     * @return records appended per second, and records scanned per second
+     */
+    private static double[] run(Storage storage, int numRecords, int recordsPerFlush) throws IOException {
+        File dir = Files.createTempDirectory("logStorageBenchmark").toFile();
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(), new DummyRecoveryManager());
+        diskSpaceManager.allocPart(LogManager.LOG_PARTITION);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(),
+                256, new ClockEvictionPolicy());
+        LogManager logManager;
+        switch (storage) {
+        case LOG_PARTITION:
+            logManager = new LogManager(new PartitionLogStorage(diskSpaceManager), LogBuffer.DEFAULT_NUM_PAGES);
+            break;
+        case SEGMENT_FILES:
+            logManager = new LogManager(new SegmentLogStorage(dir.getAbsolutePath()), LogBuffer.DEFAULT_NUM_PAGES);
+            break;
+        default:
+            logManager = new LogManager(bufferManager);
+        }
+
+        byte[] before = new byte[16];
+        byte[] after = new byte[16];
+        long prevLSN = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < numRecords; ++i) {
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, 10000000001L + i % 100, prevLSN,
+                    (short) 0, before, after));
+            if (i % recordsPerFlush == recordsPerFlush - 1) {
+                logManager.flushToLSN(prevLSN);
+            }
+        }
+        logManager.flushToLSN(prevLSN);
+        double appendSeconds = (System.nanoTime() - begin) / 1e9;
+
+        // scan a log that is not cached in the buffer manager, as after a restart
+        bufferManager.evictAll();
+        begin = System.nanoTime();
+        int numScanned = 0;
+        for (Iterator<LogRecord> iter = logManager.scanFrom(0); iter.hasNext(); iter.next()) {
+            ++numScanned;
+        }
+        double scanSeconds = (System.nanoTime() - begin) / 1e9;
+        if (numScanned != numRecords) {
+            throw new IllegalStateException("scanned " + numScanned + " of " + numRecords + " records");
+        }
+
+        logManager.close();
+        bufferManager.close();
+        diskSpaceManager.close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+        return new double[] { numRecords / appendSeconds, numScanned / scanSeconds };
+    }
+}
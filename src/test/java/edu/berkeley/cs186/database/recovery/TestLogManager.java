@@ -1,9 +1,12 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.ByteBuffer;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
+import edu.berkeley.cs186.database.io.AsyncDiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
@@ -11,22 +14,39 @@ import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
     private LogManager logManager;
     private BufferManager bufferManager;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager;
+
     @Before
     public void setup() {
-        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        diskSpaceManager = new MemoryDiskSpaceManager();
         diskSpaceManager.allocPart(0);
         this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
                 new ClockEvictionPolicy());
@@ -130,4 +150,248 @@ public class TestLogManager {
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    @Test(timeout = 10000)
+    public void testGroupCommit() throws InterruptedException {
+        logManager.setGroupCommitDelay(1000);
+        long firstLSN = logManager.appendToLog(new MasterLogRecord(0));
+        long numFlushes = logManager.getNumFlushes();
+
+        List<Thread> threads = new ArrayList<>();
+        long[] commitLSNs = new long[3];
+        synchronized (logManager) {
+            // the first flush waits for appends to finish before taking the log tail
+            Thread first = new Thread(() -> logManager.flushToLSN(firstLSN));
+            first.start();
+            awaitState(first, Thread.State.BLOCKED);
+            threads.add(first);
+
+            // commits on later pages, which the first flush does not cover, wait for it
+            for (int i = 0; i < commitLSNs.length; ++i) {
+                for (int j = 0; j < DiskSpaceManager.PAGE_SIZE / 9; ++j) {
+                    commitLSNs[i] = logManager.appendToLog(new MasterLogRecord(j));
+                }
+                long commitLSN = commitLSNs[i];
+                Thread commit = new Thread(() -> logManager.groupCommit(commitLSN));
+                commit.start();
+                awaitState(commit, Thread.State.WAITING);
+                threads.add(commit);
+            }
+            assertEquals(numFlushes, logManager.getNumFlushes());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // one flush for the first thread, and a single one for all three commits
+        assertEquals(numFlushes + 2, logManager.getNumFlushes());
+        for (long commitLSN : commitLSNs) {
+            assertTrue(commitLSN <= logManager.getFlushedLSN());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testGroupCommitAlone() {
+        // a commit only waits for other commits if there are any
+        logManager.setGroupCommitDelay(60L * 1000 * 1000);
+        long commitLSN = logManager.appendToLog(new MasterLogRecord(0));
+        long numFlushes = logManager.getNumFlushes();
+        logManager.groupCommit(commitLSN);
+
+        assertEquals(numFlushes + 1, logManager.getNumFlushes());
+        assertTrue(commitLSN <= logManager.getFlushedLSN());
+    }
+
+    @Test
+    public void testLogBufferAppendFetch() {
+        logManager = newBufferedLogManager(4);
+        for (int i = 0; i < 10000; ++i) {
+            long LSN = logManager.appendToLog(new MasterLogRecord(i));
+            // same layout as without a log buffer
+            assertEquals(LogManager.makeLSN(i / (DiskSpaceManager.PAGE_SIZE / 9) + 1,
+                    i % (DiskSpaceManager.PAGE_SIZE / 9) * 9), LSN);
+        }
+
+        // the first pages have been written out to make room for later ones
+        assertEquals(new MasterLogRecord(0), logManager.fetchLogRecord(10000));
+        assertEquals(new MasterLogRecord(9999), logManager.fetchLogRecord(
+                LogManager.makeLSN(22, 9999 % (DiskSpaceManager.PAGE_SIZE / 9) * 9)));
+
+        Iterator<LogRecord> iter = logManager.scanFrom(100000);
+        for (int i = 9 * (DiskSpaceManager.PAGE_SIZE / 9); i < 10000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testLogBufferFlush() {
+        logManager = newBufferedLogManager(4);
+        logManager.appendToLog(new MasterLogRecord(0));
+        long LSN = logManager.appendToLog(new MasterLogRecord(1));
+        long numFlushes = logManager.getNumFlushes();
+        logManager.flushToLSN(LSN);
+
+        assertEquals(LogManager.maxLSN(1), logManager.getFlushedLSN());
+        assertEquals(numFlushes + 1, logManager.getNumFlushes());
+        // the flushed page is sealed, and the page is on disk
+        assertEquals(20000, logManager.appendToLog(new MasterLogRecord(2)));
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(1, page);
+        assertEquals(new MasterLogRecord(1), LogRecord.fromBytes(ByteBuffer.wrap(page, 9, 9)).orElse(null));
+
+        logManager.flushToLSN(LSN);
+        assertEquals(numFlushes + 1, logManager.getNumFlushes());
+    }
+
+    @Test(timeout = 10000)
+    public void testLogBufferConcurrentAppends() throws InterruptedException {
+        logManager = newBufferedLogManager(4);
+        int numThreads = 4;
+        int numRecords = 5000;
+        long[][] LSNs = new long[numThreads][numRecords];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < numRecords; ++i) {
+                    LSNs[thread][i] = logManager.appendToLog(new MasterLogRecord(thread * numRecords + i));
+                    if (i % 1000 == 999) {
+                        logManager.flushToLSN(LSNs[thread][i]);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Long> seen = new HashSet<>();
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 0; i < numRecords; ++i) {
+                assertTrue(seen.add(LSNs[t][i]));
+                assertTrue(i == 0 || LSNs[t][i - 1] < LSNs[t][i]);
+                assertEquals(new MasterLogRecord(t * numRecords + i), logManager.fetchLogRecord(LSNs[t][i]));
+            }
+        }
+        int numScanned = 0;
+        for (Iterator<LogRecord> iter = logManager.scanFrom(10000); iter.hasNext(); ++numScanned) {
+            LogRecord record = iter.next();
+            assertTrue(seen.contains(record.getLSN()));
+        }
+        assertEquals(numThreads * numRecords, numScanned);
+    }
+
+    @Test
+    public void testSegmentLog() throws IOException {
+        String dir = tempFolder.newFolder("log").getAbsolutePath();
+        long numIOs = bufferManager.getNumIOs();
+        logManager.close();
+        // 2-page segments, so that writes and scans span segments
+        logManager = new LogManager(new SegmentLogStorage(dir, 2), 4);
+        for (int i = 0; i < 10000; ++i) {
+            long LSN = logManager.appendToLog(new MasterLogRecord(i));
+            assertEquals(LogManager.makeLSN(i / (DiskSpaceManager.PAGE_SIZE / 9),
+                    i % (DiskSpaceManager.PAGE_SIZE / 9) * 9), LSN);
+        }
+        logManager.flushToLSN(LogManager.makeLSN(21, 0));
+        assertEquals(LogManager.maxLSN(21), logManager.getFlushedLSN());
+        logManager.rewriteMasterRecord(new MasterLogRecord(-1));
+        logManager.close();
+
+        // the log is read back from the segment files, and appended to after its last page
+        logManager = new LogManager(new SegmentLogStorage(dir, 2), 4);
+        assertEquals(new MasterLogRecord(-1), logManager.fetchLogRecord(0));
+        assertEquals(new MasterLogRecord(5000), logManager.fetchLogRecord(
+                LogManager.makeLSN(5000 / (DiskSpaceManager.PAGE_SIZE / 9), 5000 % (DiskSpaceManager.PAGE_SIZE / 9) * 9)));
+        assertEquals(LogManager.maxLSN(21), logManager.getFlushedLSN());
+        assertEquals(LogManager.makeLSN(22, 0), logManager.appendToLog(new MasterLogRecord(10000)));
+
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        for (int i = 1; i <= 10000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        // the log never went through the buffer manager
+        assertEquals(numIOs, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testSegmentLogTornPage() throws IOException {
+        String dir = tempFolder.newFolder("log").getAbsolutePath();
+        logManager.close();
+        logManager = new LogManager(new SegmentLogStorage(dir, 4), 4);
+        long LSN = logManager.appendToLog(new MasterLogRecord(0));
+        logManager.flushToLSN(LSN);
+        logManager.close();
+        // half of a second page, as left behind by a crash during a write
+        Files.write(Paths.get(dir, "log.00000000"), new byte[DiskSpaceManager.PAGE_SIZE / 2],
+                    StandardOpenOption.APPEND);
+
+        logManager = new LogManager(new SegmentLogStorage(dir, 4), 4);
+        assertEquals(10000, logManager.appendToLog(new MasterLogRecord(1)));
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(0), iter.next());
+        assertEquals(new MasterLogRecord(1), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testFlushToLSNAsyncWriteBack() throws IOException {
+        String dir = tempFolder.newFolder("async").getAbsolutePath();
+        // writes issued without waiting for them are held back until release completes
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        DiskSpaceManager asyncManager = new AsyncDiskSpaceManager(dir, new DummyRecoveryManager()) {
+            @Override
+            public void writePage(long page, byte[] buf) {
+                DiskSpaceManager.awaitIO(super.writePageAsync(page, buf));
+            }
+
+            @Override
+            public CompletableFuture<Void> writePageAsync(long page, byte[] buf) {
+                return release.thenCompose(ignored -> super.writePageAsync(page, buf));
+            }
+        };
+        asyncManager.allocPart(LogManager.LOG_PARTITION);
+        BufferManager asyncBufferManager = new BufferManager(asyncManager, new DummyRecoveryManager(), 2,
+                new ClockEvictionPolicy());
+        LogManager asyncLogManager = new LogManager(asyncBufferManager);
+
+        // with only two frames, log pages are evicted before they are flushed
+        int recordsPerPage = DiskSpaceManager.PAGE_SIZE / 9;
+        long LSN = 0;
+        for (int i = 0; i < recordsPerPage * 4; ++i) {
+            LSN = asyncLogManager.appendToLog(new MasterLogRecord(i));
+        }
+        asyncLogManager.flushToLSN(LSN);
+
+        // every log page is on disk once the flush returns
+        DiskSpaceManager syncManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager());
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < 4; ++i) {
+            syncManager.readPage(i, page);
+            assertEquals(new MasterLogRecord(i * recordsPerPage),
+                         LogRecord.fromBytes(ByteBuffer.wrap(page)).orElse(null));
+        }
+        syncManager.close();
+
+        release.complete(null);
+        asyncLogManager.close();
+        asyncBufferManager.close();
+        asyncManager.close();
+    }
+
+    private LogManager newBufferedLogManager(int logBufferPages) {
+        // page 0 was taken by the log manager created in setup
+        logManager.close();
+        return new LogManager(new PartitionLogStorage(diskSpaceManager), logBufferPages);
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) {
+        while (thread.getState() != state) {
+            Thread.yield();
+        }
+    }
 }
@@ -248,4 +248,34 @@ public class TestPageDirectory {
             assertEquals(page, p);
         }
     }
+
+    @Test
+    public void testIteratorBatchedReads() {
+        createPageDirectory((short) 0);
+        createPageDirectory((short) (pageDirectory.getEffectivePageSize() - 30));
+
+        int numRequests = 100;
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < numRequests; ++i) {
+            Page page = pageDirectory.getPageWithSpace((short) 13);
+            if (pages.size() == 0 || !pages.get(pages.size() - 1).equals(page)) {
+                pages.add(page);
+            }
+            page.unpin();
+        }
+        bufferManager.evictAll();
+        bufferManager.setReadBatchSize(8);
+
+        long initialIOs = bufferManager.getNumIOs();
+        Iterator<Page> iter = pageDirectory.iterator();
+        for (Page page : pages) {
+            assertTrue(iter.hasNext());
+
+            Page p = iter.next();
+            p.unpin();
+            assertEquals(page, p);
+        }
+        // one read per data page, plus the header page
+        assertEquals(pages.size() + 1, bufferManager.getNumIOs() - initialIOs);
+    }
 }